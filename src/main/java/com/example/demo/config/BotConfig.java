@@ -1,15 +1,34 @@
 package com.example.demo.config;
 
 
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 import com.example.demo.model.telegram.AccountantTelegramBot;
 import com.example.demo.service.BotMessageService;
+import com.example.demo.service.OutboundMessageSender;
+import com.example.demo.service.UpdateDispatcher;
+import com.example.demo.service.impl.ChatOrderedUpdateDispatcher;
+import com.example.demo.service.impl.RateLimitedMessageSender;
 
+import java.time.Duration;
+
+/**
+ * Telegram wiring. {@code telegram.bot.mode} selects how updates are ingested:
+ * {@code polling} (default) registers a long polling session, {@code webhook} exposes
+ * {@code TelegramWebhookController} on the server port instead. Both feed the same dispatcher.
+ */
+@Slf4j
 @Configuration
 public class BotConfig {
     @Value("${telegram.bot.username}")
@@ -18,15 +37,88 @@ public class BotConfig {
     @Value("${telegram.bot.token}")
     private String botToken;
 
+    @Value("${telegram.bot.dispatcher.threads:8}")
+    private int dispatcherThreads;
+
+    @Value("${telegram.bot.dispatcher.max-batch:16}")
+    private int dispatcherMaxBatch;
+
+    @Value("${telegram.bot.dispatcher.slow-wait-ms:1000}")
+    private long dispatcherSlowWaitMs;
+
+    @Value("${telegram.bot.webhook.url:}")
+    private String webhookUrl;
+
+    @Value("${telegram.bot.webhook.secret:}")
+    private String webhookSecret;
+
+    @Value("${telegram.bot.outbound.global-per-second:30}")
+    private double outboundGlobalPerSecond;
+
+    @Value("${telegram.bot.outbound.per-chat-per-second:1}")
+    private double outboundPerChatPerSecond;
+
+    @Value("${telegram.bot.outbound.per-chat-burst:3}")
+    private int outboundPerChatBurst;
+
+    @Value("${telegram.bot.outbound.batch-size:10}")
+    private int outboundBatchSize;
+
+    @Value("${telegram.bot.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${telegram.bot.outbound.max-attempts:3}")
+    private int outboundMaxAttempts;
+
+    @Bean(destroyMethod = "shutdown")
+    public ChatOrderedUpdateDispatcher updateDispatcher(MeterRegistry meterRegistry) {
+        return new ChatOrderedUpdateDispatcher(dispatcherThreads, dispatcherMaxBatch,
+                Duration.ofMillis(dispatcherSlowWaitMs), meterRegistry);
+    }
+
+    /**
+     * The sender gets its own HTTP transport sized to the batch, so outbound traffic does not
+     * compete with the polling session and does not depend on the bot bean.
+     */
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public RateLimitedMessageSender outboundMessageSender(MeterRegistry meterRegistry) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setMaxThreads(outboundBatchSize);
+        DefaultAbsSender transport = new DefaultAbsSender(options, botToken) {
+        };
+        RateLimitedMessageSender.Limits limits = new RateLimitedMessageSender.Limits(outboundGlobalPerSecond,
+                outboundPerChatPerSecond, outboundPerChatBurst, outboundBatchSize, outboundQueueCapacity, outboundMaxAttempts);
+        return new RateLimitedMessageSender(transport, limits, meterRegistry);
+    }
+
     @Bean
-    public TelegramLongPollingBot accountantTelegramBot(BotMessageService botMessageService) {
-        return new AccountantTelegramBot(botUsername, botToken, botMessageService);
+    public AccountantTelegramBot accountantTelegramBot(BotMessageService botMessageService, UpdateDispatcher updateDispatcher,
+                                                       OutboundMessageSender outboundMessageSender) {
+        return new AccountantTelegramBot(botUsername, botToken, botMessageService, updateDispatcher, outboundMessageSender);
     }
 
     @Bean
+    @ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "polling", matchIfMissing = true)
     public TelegramBotsApi telegramBotsApi(TelegramLongPollingBot accountantTelegramBot) throws Exception {
         TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
         botsApi.registerBot(accountantTelegramBot);
         return botsApi;
     }
+
+    /**
+     * Registers the public webhook URL with Telegram on startup. Skipped when no URL is configured,
+     * e.g. for local runs against {@code /telegram/local/update}.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "webhook")
+    public ApplicationRunner webhookRegistration(AccountantTelegramBot accountantTelegramBot) {
+        return args -> {
+            if (webhookUrl == null || webhookUrl.isBlank()) {
+                log.warn("telegram.bot.mode=webhook but telegram.bot.webhook.url is empty, webhook is not registered");
+                return;
+            }
+            accountantTelegramBot.execute(SetWebhook.builder().url(webhookUrl).secretToken(webhookSecret).build());
+            log.info("Telegram webhook registered: {}", webhookUrl);
+        };
+    }
 }
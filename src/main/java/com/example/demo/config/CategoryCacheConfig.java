@@ -0,0 +1,67 @@
+package com.example.demo.config;
+
+import com.example.demo.repository.CategoryRepository;
+import com.example.demo.service.cache.CategoryFrecency;
+import com.example.demo.service.cache.CategoryIndexCache;
+import com.example.demo.service.cache.CategoryKeyboardCache;
+import com.example.demo.service.cache.CategoryUsageCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * In-memory structures derived from categories that keep message parsing and transaction recording off the
+ * categories table.
+ */
+@Configuration
+public class CategoryCacheConfig {
+
+    @Value("${categories.index.max-chats:10000}")
+    private int indexMaxChats;
+
+    @Value("${categories.index.ttl-seconds:600}")
+    private long indexTtlSeconds;
+
+    @Value("${categories.usage.flush-interval-seconds:10}")
+    private long usageFlushIntervalSeconds;
+
+    @Value("${categories.frecency.max-chats:10000}")
+    private int frecencyMaxChats;
+
+    @Value("${categories.frecency.max-per-chat:24}")
+    private int frecencyMaxPerChat;
+
+    @Value("${categories.frecency.half-life-days:14}")
+    private long frecencyHalfLifeDays;
+
+    @Value("${categories.keyboard.max-entries:20000}")
+    private int keyboardMaxEntries;
+
+    @Value("${categories.keyboard.page-size:6}")
+    private int keyboardPageSize;
+
+    @Bean
+    public CategoryIndexCache categoryIndexCache(MeterRegistry meterRegistry) {
+        return new CategoryIndexCache(indexMaxChats, Duration.ofSeconds(indexTtlSeconds), meterRegistry, Clock.systemUTC());
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public CategoryUsageCounter categoryUsageCounter(CategoryRepository categoryRepository, MeterRegistry meterRegistry) {
+        return new CategoryUsageCounter(categoryRepository, Duration.ofSeconds(usageFlushIntervalSeconds), meterRegistry);
+    }
+
+    @Bean
+    public CategoryKeyboardCache categoryKeyboardCache(MeterRegistry meterRegistry) {
+        return new CategoryKeyboardCache(keyboardMaxEntries, keyboardPageSize, meterRegistry);
+    }
+
+    @Bean
+    public CategoryFrecency categoryFrecency(MeterRegistry meterRegistry) {
+        return new CategoryFrecency(frecencyMaxChats, frecencyMaxPerChat, Duration.ofDays(frecencyHalfLifeDays),
+                meterRegistry, Clock.systemUTC());
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.demo.config;
+
+import com.example.demo.repository.InMemoryDialogStateStore;
+import com.example.demo.repository.RedisDialogStateStore;
+import com.example.demo.service.cache.DialogStateNearCache;
+import com.example.demo.service.util.DialogStateCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Clock;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Dialog state storage wiring. {@code dialog.state.store} selects the backend: {@code redis} (default) with the
+ * local near-cache and the Redis pub/sub listener that keeps near-caches of all bot instances consistent, or
+ * {@code memory} for a single node without Redis. In memory mode no bean here touches Redis, and
+ * {@link DialogStateEnvironmentPostProcessor} switches off the Redis auto-configuration and health check.
+ */
+@Slf4j
+@Configuration
+public class DialogStateConfig {
+
+    @Value("${dialog.state.ttl-seconds:43200}")
+    private long ttlSeconds;
+
+    @Value("${dialog.state.codec.compress-above:96}")
+    private int compressAbove;
+
+    @Value("${dialog.state.scan-batch-size:500}")
+    private int scanBatchSize;
+
+    @Value("${dialog.state.legacy-migration.enabled:true}")
+    private boolean legacyMigrationEnabled;
+
+    @Value("${dialog.state.memory.tick-millis:1000}")
+    private long memoryTickMillis;
+
+    @Value("${dialog.state.memory.snapshot-file:}")
+    private String memorySnapshotFile;
+
+    @Value("${dialog.state.memory.snapshot-interval-seconds:60}")
+    private long memorySnapshotIntervalSeconds;
+
+    @Value("${dialog.state.near-cache.enabled:true}")
+    private boolean nearCacheEnabled;
+
+    @Value("${dialog.state.near-cache.max-size:10000}")
+    private int nearCacheMaxSize;
+
+    @Value("${dialog.state.near-cache.max-age-seconds:5}")
+    private long nearCacheMaxAgeSeconds;
+
+    @Bean
+    public DialogStateCodec dialogStateCodec() {
+        return new DialogStateCodec(compressAbove);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dialog.state.store", havingValue = "redis", matchIfMissing = true)
+    public RedisTemplate<String, byte[]> dialogStateRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(RedisSerializer.string());
+        template.setValueSerializer(RedisSerializer.byteArray());
+        return template;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dialog.state.store", havingValue = "redis", matchIfMissing = true)
+    public RedisDialogStateStore dialogStateStore(RedisTemplate<String, byte[]> dialogStateRedisTemplate,
+                                                  StringRedisTemplate redisTemplate, DialogStateCodec dialogStateCodec) {
+        return new RedisDialogStateStore(dialogStateRedisTemplate, redisTemplate, dialogStateCodec,
+                Duration.ofSeconds(ttlSeconds), legacyMigrationEnabled, scanBatchSize);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "dialog.state.store", havingValue = "memory")
+    public InMemoryDialogStateStore inMemoryDialogStateStore(DialogStateCodec dialogStateCodec, MeterRegistry meterRegistry) {
+        Path snapshot = memorySnapshotFile.isBlank() ? null : Path.of(memorySnapshotFile);
+        return new InMemoryDialogStateStore(dialogStateCodec, Duration.ofSeconds(ttlSeconds), Duration.ofMillis(memoryTickMillis),
+                snapshot, Duration.ofSeconds(memorySnapshotIntervalSeconds), scanBatchSize, meterRegistry, Clock.systemUTC());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dialog.state.legacy-migration.enabled", havingValue = "true", matchIfMissing = true)
+    public ApplicationRunner dialogStateLegacyMigration(ObjectProvider<RedisDialogStateStore> redisStore) {
+        return args -> {
+            RedisDialogStateStore dialogStateStore = redisStore.getIfAvailable();
+            if (dialogStateStore == null) {
+                return;
+            }
+            try {
+                int migrated = dialogStateStore.migrateAllLegacy();
+                if (migrated > 0) {
+                    log.info("Migrated {} dialog states to the compact format", migrated);
+                }
+            } catch (RuntimeException e) {
+                // states left behind are still migrated lazily on first read
+                log.warn("Bulk migration of legacy dialog states failed: {}", e.getMessage());
+            }
+        };
+    }
+
+    /** Redis only: an in-process store is already local, a second copy would only cost memory. */
+    @Bean
+    @ConditionalOnProperty(name = "dialog.state.store", havingValue = "redis", matchIfMissing = true)
+    public DialogStateNearCache dialogStateNearCache(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry) {
+        return new DialogStateNearCache(nearCacheEnabled, nearCacheMaxSize, Duration.ofSeconds(ttlSeconds),
+                Duration.ofSeconds(nearCacheMaxAgeSeconds), redisTemplate, meterRegistry, Clock.systemDefaultZone());
+    }
+
+    @Bean
+    @ConditionalOnExpression("${dialog.state.near-cache.enabled:true} and '${dialog.state.store:redis}' == 'redis'")
+    public RedisMessageListenerContainer dialogStateInvalidationListener(RedisConnectionFactory connectionFactory,
+                                                                        DialogStateNearCache dialogStateNearCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(dialogStateNearCache, new ChannelTopic(DialogStateNearCache.CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.demo.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * With {@code dialog.state.store=memory} nothing uses Redis, so the Redis auto-configuration and its health
+ * indicator are switched off: a single node without Redis must not report DOWN. The values are added with the
+ * lowest precedence, an explicit setting of either property still wins.
+ */
+public class DialogStateEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    static final String PROPERTY_SOURCE = "dialogStateMemoryMode";
+
+    private static final String REDIS_AUTO_CONFIGURATIONS = String.join(",",
+            "org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.redis.RedisReactiveAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.redis.RedisRepositoriesAutoConfiguration");
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if (!"memory".equals(environment.getProperty("dialog.state.store"))) {
+            return;
+        }
+        environment.getPropertySources().addLast(new MapPropertySource(PROPERTY_SOURCE, Map.of(
+                "spring.autoconfigure.exclude", REDIS_AUTO_CONFIGURATIONS,
+                "management.health.redis.enabled", "false")));
+    }
+}
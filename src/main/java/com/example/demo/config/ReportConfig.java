@@ -0,0 +1,64 @@
+package com.example.demo.config;
+
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.service.cache.StatsReportCache;
+import com.example.demo.service.cache.TransactionColumnStore;
+import com.example.demo.service.impl.DailyTotalsBackfill;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Precomputed data behind the statistics reports.
+ */
+@Configuration
+public class ReportConfig {
+
+    @Value("${reports.cache.max-chats:10000}")
+    private int cacheMaxChats;
+
+    @Value("${reports.cache.ttl-seconds:300}")
+    private long cacheTtlSeconds;
+
+    @Value("${reports.column-store.enabled:false}")
+    private boolean columnStoreEnabled;
+
+    @Value("${reports.column-store.max-megabytes:64}")
+    private long columnStoreMaxMegabytes;
+
+    @Value("${reports.column-store.ttl-seconds:600}")
+    private long columnStoreTtlSeconds;
+
+    @Value("${reports.daily-totals.backfill.threads:4}")
+    private int backfillThreads;
+
+    @Value("${reports.daily-totals.backfill.page-size:1000}")
+    private int backfillPageSize;
+
+    @Bean
+    public StatsReportCache statsReportCache(MeterRegistry meterRegistry) {
+        return new StatsReportCache(cacheMaxChats, Duration.ofSeconds(cacheTtlSeconds), meterRegistry, Clock.systemUTC());
+    }
+
+    @Bean
+    public TransactionColumnStore transactionColumnStore(TransactionRepository transactionRepository,
+                                                         MeterRegistry meterRegistry) {
+        return new TransactionColumnStore(transactionRepository, columnStoreEnabled, columnStoreMaxMegabytes << 20,
+                Duration.ofSeconds(columnStoreTtlSeconds), meterRegistry, Clock.systemUTC());
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "reports.daily-totals.backfill.enabled", havingValue = "true", matchIfMissing = true)
+    public DailyTotalsBackfill dailyTotalsBackfill(TransactionRepository transactionRepository, UserRepository userRepository,
+                                                   TransactionTemplate transactionTemplate, MeterRegistry meterRegistry) {
+        return new DailyTotalsBackfill(transactionRepository, userRepository, transactionTemplate, backfillThreads,
+                backfillPageSize, meterRegistry);
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.demo.config;
+
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.service.impl.TransactionPartitionMaintainer;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Upkeep of the month-partitioned transactions table.
+ */
+@Configuration
+public class TransactionStorageConfig {
+
+    @Value("${transactions.partitions.months-ahead:3}")
+    private int partitionMonthsAhead;
+
+    @Value("${transactions.partitions.check-interval-hours:12}")
+    private long partitionCheckIntervalHours;
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @ConditionalOnProperty(name = "transactions.partitions.maintain", havingValue = "true", matchIfMissing = true)
+    public TransactionPartitionMaintainer transactionPartitionMaintainer(TransactionRepository transactionRepository,
+                                                                         MeterRegistry meterRegistry) {
+        return new TransactionPartitionMaintainer(transactionRepository, partitionMonthsAhead,
+                Duration.ofHours(partitionCheckIntervalHours), Clock.systemDefaultZone(), meterRegistry);
+    }
+}
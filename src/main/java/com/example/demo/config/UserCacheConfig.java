@@ -0,0 +1,69 @@
+package com.example.demo.config;
+
+import com.example.demo.repository.UserRepository;
+import com.example.demo.service.cache.ChatIdRegistry;
+import com.example.demo.service.cache.UserIdentityCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+
+/**
+ * In-memory lookups of user identity that keep per-update registration checks off Postgres.
+ */
+@Slf4j
+@Configuration
+public class UserCacheConfig {
+
+    @Value("${users.registry.expected-users:1000000}")
+    private long expectedUsers;
+
+    @Value("${users.registry.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${users.registry.max-confirmed:500000}")
+    private int maxConfirmed;
+
+    @Value("${users.registry.warm-up-page-size:10000}")
+    private int warmUpPageSize;
+
+    @Value("${users.identity.max-entries:100000}")
+    private int identityMaxEntries;
+
+    @Bean
+    public UserIdentityCache userIdentityCache(MeterRegistry meterRegistry) {
+        return new UserIdentityCache(identityMaxEntries, meterRegistry);
+    }
+
+    @Bean
+    public ChatIdRegistry chatIdRegistry(MeterRegistry meterRegistry) {
+        return new ChatIdRegistry(expectedUsers, falsePositiveRate, maxConfirmed, meterRegistry);
+    }
+
+    /** Loads all registered chat ids once at startup; until it finishes unknown chats just take the upsert path. */
+    @Bean
+    public ApplicationRunner chatIdRegistryWarmUp(ChatIdRegistry chatIdRegistry, UserRepository userRepository) {
+        return args -> {
+            try {
+                long loaded = 0;
+                Slice<Long> page = userRepository.findChatIds(PageRequest.of(0, warmUpPageSize, Sort.by("id")));
+                while (true) {
+                    page.forEach(chatIdRegistry::confirm);
+                    loaded += page.getNumberOfElements();
+                    if (!page.hasNext()) {
+                        break;
+                    }
+                    page = userRepository.findChatIds(page.nextPageable());
+                }
+                log.info("Chat id registry warmed up with {} users", loaded);
+            } catch (RuntimeException e) {
+                log.warn("Chat id registry warm-up failed, registrations fall back to upserts: {}", e.getMessage());
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.demo.controller;
+
+import com.example.demo.service.BotMessageService;
+import com.example.demo.service.UpdateDispatcher;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.example.demo.service.util.TelegramUpdateHelper.getChatId;
+
+/**
+ * Local load-testing endpoint: runs an update through the dispatcher and {@link BotMessageService}
+ * exactly like the polling / webhook paths, but returns the reply in the HTTP response instead of
+ * sending it to Telegram. Disabled unless {@code telegram.bot.webhook.local-test-enabled=true}.
+ */
+@RestController
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "telegram.bot.webhook.local-test-enabled", havingValue = "true")
+public class LocalUpdateController {
+
+    private final UpdateDispatcher updateDispatcher;
+    private final BotMessageService botMessageService;
+
+    @PostMapping("/telegram/local/update")
+    public CompletableFuture<ResponseEntity<SendMessage>> onUpdate(@RequestBody Update update) {
+        CompletableFuture<ResponseEntity<SendMessage>> result = new CompletableFuture<>();
+        try {
+            updateDispatcher.dispatch(getChatId(update), () -> {
+                try {
+                    result.complete(botMessageService.handleUpdate(update)
+                            .map(ResponseEntity::ok)
+                            .orElseGet(() -> ResponseEntity.noContent().build()));
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the worker will never complete the future, answer now instead of hanging until the servlet timeout
+            result.complete(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        }
+        return result;
+    }
+}
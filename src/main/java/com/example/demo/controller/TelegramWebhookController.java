@@ -0,0 +1,50 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.telegram.AccountantTelegramBot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives updates pushed by Telegram when the bot runs in webhook mode ({@code telegram.bot.mode=webhook}).
+ * Updates are handed to the same dispatcher / {@code BotMessageService} pipeline as in long polling mode,
+ * so the endpoint returns as soon as the update is queued. Every request must carry the configured
+ * {@code telegram.bot.webhook.secret}; the application does not start in webhook mode without one.
+ */
+@RestController
+@ConditionalOnProperty(name = "telegram.bot.mode", havingValue = "webhook")
+public class TelegramWebhookController {
+
+    static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final AccountantTelegramBot accountantTelegramBot;
+    private final byte[] secret;
+
+    public TelegramWebhookController(AccountantTelegramBot accountantTelegramBot,
+                                     @Value("${telegram.bot.webhook.secret:}") String secret) {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException("telegram.bot.webhook.secret must be set when telegram.bot.mode=webhook");
+        }
+        this.accountantTelegramBot = accountantTelegramBot;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping("${telegram.bot.webhook.path:/telegram/webhook}")
+    public ResponseEntity<Void> onUpdate(@RequestHeader(value = SECRET_HEADER, required = false) String secretHeader,
+                                         @RequestBody Update update) {
+        if (secretHeader == null || !MessageDigest.isEqual(secret, secretHeader.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        accountantTelegramBot.onUpdateReceived(update);
+        return ResponseEntity.ok().build();
+    }
+}
@@ -15,7 +15,7 @@ import java.util.Set;
                 @UniqueConstraint(name = "uk_category_owner_name_type", columnNames = {"owner_id", "name", "type"})
         },
         indexes = {
-                @Index(name = "idx_category_owner", columnList = "owner_id"),
+                @Index(name = "idx_category_owner_type", columnList = "owner_id, type"),
                 @Index(name = "idx_category_parent", columnList = "parent_id")
         })
 /**
@@ -1,30 +1,43 @@
 package com.example.demo.model.entity;
 
 import com.example.demo.model.enums.DialogStateType;
-import com.example.demo.model.enums.ExpenseCategory;
-import com.example.demo.model.enums.IncomeSource;
 import lombok.*;
-import org.springframework.data.annotation.Id;
-import org.springframework.data.redis.core.RedisHash;
 
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 
+/**
+ * Per-chat dialog state kept in Redis (see {@code DialogStateStore}). Only ids of the selected category and
+ * account are stored; handlers resolve the entities through their services when needed.
+ */
 @Setter
 @Getter
-@RedisHash(value = "DialogStateData", timeToLive = 43200)
 public class DialogStateData implements Serializable {
-    @Id
     private Long chatId;
     private DialogStateType state;
     private BigDecimal amount;
-    private Category category;
-    private Account account;
+    private Long categoryId;
+    private Long accountId;
     private LocalDate transactionDate;
     private String comment;
     private LocalDateTime lastUpdated;
     private boolean isExpense;
     private boolean isIncome;
+
+    public DialogStateData copy() {
+        DialogStateData copy = new DialogStateData();
+        copy.chatId = chatId;
+        copy.state = state;
+        copy.amount = amount;
+        copy.categoryId = categoryId;
+        copy.accountId = accountId;
+        copy.transactionDate = transactionDate;
+        copy.comment = comment;
+        copy.lastUpdated = lastUpdated;
+        copy.isExpense = isExpense;
+        copy.isIncome = isIncome;
+        return copy;
+    }
 }
@@ -23,13 +23,16 @@ import java.util.Set;
  * <p>
  * Idempotency is enforced per owner via the composite unique constraint (owner_id, idempotency_key).
  * Status transitions typically go from PENDING -> POSTED (or FAILED / CANCELED if you add such states later).
+ * <p>
+ * The table is range-partitioned by {@link #operationTime} month, so its primary key is (id, operation_time);
+ * {@code id} alone stays unique as it comes from one sequence.
  */
 @Setter
 @Getter
 @Entity
 @Table(name = "transactions", indexes = {
         @Index(name = "idx_trx_account", columnList = "account_id"),
-        @Index(name = "idx_trx_owner", columnList = "owner_id"),
+        @Index(name = "idx_trx_owner_time", columnList = "owner_id, operation_time"),
         @Index(name = "idx_trx_status", columnList = "status"), })
 //TODO: Uncomment when implementing idempotency
 //}, uniqueConstraints = {
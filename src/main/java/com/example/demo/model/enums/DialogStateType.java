@@ -1,5 +1,8 @@
 package com.example.demo.model.enums;
 
+/**
+ * Dialog step of a chat. Stored by ordinal in {@code DialogStateCodec}: add new constants at the end only.
+ */
 public enum DialogStateType {
     NONE,
     IDLE,
@@ -21,5 +24,7 @@ public enum DialogStateType {
     AWAITING_STATS_PERIOD,
     ERROR_RECOVERY,
     HELP_CONTEXT,
-    SUCCESS
+    SUCCESS,
+    /** A confirmed draft is being recorded; the draft stays stored until the transaction is saved. */
+    PROCESSING
 }
@@ -1,21 +1,53 @@
 package com.example.demo.model.telegram;
 
-import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import com.example.demo.service.BotMessageService;
+import com.example.demo.service.OutboundMessageSender;
+import com.example.demo.service.UpdateDispatcher;
+
+import static com.example.demo.service.util.TelegramUpdateHelper.getChatId;
 
-@RequiredArgsConstructor
 public class AccountantTelegramBot extends TelegramLongPollingBot {
     private static final Logger log = LoggerFactory.getLogger(AccountantTelegramBot.class);
 
     private final String username;
     private final String token;
     private final BotMessageService botMessageService;
+    private final UpdateDispatcher updateDispatcher;
+    private final OutboundMessageSender outboundMessageSender;
+
+    public AccountantTelegramBot(String username, String token, BotMessageService botMessageService) {
+        this(username, token, botMessageService, UpdateDispatcher.direct());
+    }
 
+    /**
+     * Replies are sent synchronously from the dispatcher thread.
+     */
+    public AccountantTelegramBot(String username, String token, BotMessageService botMessageService,
+                                 UpdateDispatcher updateDispatcher) {
+        this.username = username;
+        this.token = token;
+        this.botMessageService = botMessageService;
+        this.updateDispatcher = updateDispatcher;
+        this.outboundMessageSender = null;
+    }
+
+    /**
+     * Replies are handed to {@code outboundMessageSender}, which owns rate limiting and retries.
+     */
+    public AccountantTelegramBot(String username, String token, BotMessageService botMessageService,
+                                 UpdateDispatcher updateDispatcher, OutboundMessageSender outboundMessageSender) {
+        this.username = username;
+        this.token = token;
+        this.botMessageService = botMessageService;
+        this.updateDispatcher = updateDispatcher;
+        this.outboundMessageSender = outboundMessageSender;
+    }
 
     @Override
     public String getBotUsername() {
@@ -27,18 +59,31 @@ public class AccountantTelegramBot extends TelegramLongPollingBot {
         return token;
     }
 
+    /**
+     * Hands the update over to the dispatcher so the polling thread is released immediately.
+     */
     @Override
     public void onUpdateReceived(Update update) {
+        updateDispatcher.dispatch(getChatId(update), () -> processUpdate(update));
+    }
+
+    private void processUpdate(Update update) {
         try {
-            botMessageService.handleUpdate(update).ifPresent(msg -> {
-                try {
-                    execute(msg);
-                } catch (TelegramApiException e) {
-                    log.error("Send failed", e);
-                }
-            });
+            botMessageService.handleUpdate(update).ifPresent(this::send);
         } catch (Exception e) {
             log.error("Unexpected error", e);
         }
     }
+
+    private void send(SendMessage msg) {
+        if (outboundMessageSender != null) {
+            outboundMessageSender.enqueue(msg);
+            return;
+        }
+        try {
+            execute(msg);
+        } catch (TelegramApiException e) {
+            log.error("Send failed", e);
+        }
+    }
 }
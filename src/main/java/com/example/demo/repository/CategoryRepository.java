@@ -3,20 +3,85 @@ package com.example.demo.repository;
 import com.example.demo.model.entity.Category;
 import com.example.demo.model.entity.CategoryType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
 
 public interface CategoryRepository extends JpaRepository<Category, Long> {
     Optional<Category> findByNameIgnoreCaseAndType(String name, CategoryType type);
-    List<Category> findByType(CategoryType type);
+    List<Category> findByTypeAndOwnerIsNull(CategoryType type);
     List<Category> findByOwnerChatId(Long chatId);
     void deleteByName(String name);
     boolean existsByNameIgnoreCaseAndOwnerIsNull(String name);
     boolean existsByNameIgnoreCaseAndOwnerChatId(String name, Long ownerChatId);
-    @Query("SELECT c FROM Category c LEFT JOIN c.owner o " +
-            "WHERE LOWER(c.name) LIKE CONCAT('%', LOWER(:name), '%') " +
-            "AND (o IS NULL OR o.chatId = :ownerChatId)")
-    List<Category> findSimilarByName(String name, Long ownerChatId);
+    /**
+     * Global categories of the type plus those owned by the chat. The owner is resolved once by a scalar subquery,
+     * so both branches are probes of {@code idx_category_owner_type} instead of a join over all categories.
+     */
+    @Query("SELECT c FROM Category c WHERE c.type = :type " +
+            "AND (c.owner IS NULL OR c.owner.id = (SELECT u.id FROM User u WHERE u.chatId = :ownerChatId))")
+    List<Category> findVisibleByType(CategoryType type, Long ownerChatId);
+
+    /** Global categories plus those owned by the chat, of both types. */
+    @Query("SELECT c FROM Category c " +
+            "WHERE c.owner IS NULL OR c.owner.id = (SELECT u.id FROM User u WHERE u.chatId = :ownerChatId)")
+    List<Category> findVisible(Long ownerChatId);
+
+    /** Distinct names of {@link #findVisible}, unordered. */
+    @Query("SELECT DISTINCT c.name FROM Category c " +
+            "WHERE c.owner IS NULL OR c.owner.id = (SELECT u.id FROM User u WHERE u.chatId = :ownerChatId)")
+    List<String> findVisibleNames(Long ownerChatId);
+
+    /**
+     * Adds usage deltas to many categories in one statement.
+     * @param ids    Postgres array literal of category ids, e.g. {@code {3,17}}
+     * @param deltas array literal of increments, in the order of {@code ids}
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE categories c SET usage_count = c.usage_count + d.delta " +
+            "FROM unnest(CAST(:ids AS bigint[]), CAST(:deltas AS bigint[])) AS d(id, delta) " +
+            "WHERE c.id = d.id", nativeQuery = true)
+    int addUsage(String ids, String deltas);
+
+    @Query("SELECT c.id FROM Category c WHERE c.name = :name")
+    List<Long> findIdsByName(String name);
+
+    /**
+     * Adds the closure rows of a new category: its paths from every ancestor of {@code parentId} and the empty path
+     * to itself. The parent's own rows must exist; a root is added with {@code parentId} null.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO category_closure (ancestor_id, descendant_id, depth) " +
+            "SELECT cc.ancestor_id, :id, cc.depth + 1 FROM category_closure cc " +
+            "WHERE cc.descendant_id = CAST(:parentId AS bigint) " +
+            "UNION ALL SELECT :id, :id, 0", nativeQuery = true)
+    int insertClosure(Long id, Long parentId);
+
+    /**
+     * Cuts the paths from the proper ancestors of a category into its subtree, before the category is deleted and
+     * its children become roots. The category's own rows go with it through the foreign keys.
+     */
+    @Modifying
+    @Query(value = "DELETE FROM category_closure link " +
+            "USING category_closure up, category_closure down " +
+            "WHERE up.descendant_id = :id AND up.depth > 0 AND down.ancestor_id = :id " +
+            "AND link.ancestor_id = up.ancestor_id AND link.descendant_id = down.descendant_id", nativeQuery = true)
+    int detachSubtree(Long id);
+
+    /**
+     * Makes the children of a category roots before it is deleted: clears their {@code parent_id} and sets the
+     * depth of every category below it to its distance from the nearest new root. {@code categories.parent_id} has
+     * no foreign key, so nothing else would clear it. Reads the category's own closure rows, so it has to run before
+     * the delete.
+     */
+    @Modifying
+    @Query(value = "UPDATE categories c SET depth = cc.depth - 1, " +
+            "parent_id = CASE WHEN cc.depth = 1 THEN NULL ELSE c.parent_id END " +
+            "FROM category_closure cc " +
+            "WHERE cc.ancestor_id = :id AND cc.descendant_id = c.id AND cc.depth > 0", nativeQuery = true)
+    int promoteChildren(Long id);
 }
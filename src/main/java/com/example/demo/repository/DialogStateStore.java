@@ -0,0 +1,40 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.entity.DialogStateData;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Storage of per-chat dialog states. Entries expire on their own after a period of inactivity,
+ * every {@link #save(DialogStateData)} restarts that period.
+ */
+public interface DialogStateStore {
+
+    Optional<DialogStateData> findByChatId(Long chatId);
+
+    DialogStateData save(DialogStateData dialogStateData);
+
+    void deleteById(Long chatId);
+
+    /**
+     * Loads every state at once; prefer {@link #forEachBatch(Consumer)} where the number of chats is not small.
+     */
+    List<DialogStateData> findAll();
+
+    /**
+     * Streams all states in batches of at most the configured scan batch size; only the current batch is held in
+     * memory. States present for the whole iteration are seen at least once, possibly twice; states written or
+     * removed meanwhile may or may not be seen. Callers must therefore be idempotent.
+     */
+    void forEachBatch(Consumer<List<DialogStateData>> batchAction);
+
+    /**
+     * Atomically replaces the stored state if it still equals {@code expected}.
+     * @param expected state read before, or {@code null} if there was none
+     * @param update   new state, or {@code null} to delete
+     * @return false if the stored state changed in the meantime; nothing is written then
+     */
+    boolean compareAndSet(Long chatId, DialogStateData expected, DialogStateData update);
+}
@@ -0,0 +1,311 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.service.util.DialogStateCodec;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Dialog states kept in the JVM for single-node installs and tests, selected with {@code dialog.state.store=memory}.
+ * <p>
+ * Values are held encoded by {@link DialogStateCodec}, which keeps them small, gives callers their own copies and
+ * makes {@link #compareAndSet} behave exactly like the Redis store. Expired entries are invisible to reads right
+ * away and are reclaimed by a hashed timing wheel: every tick sweeps one slot, so expiry costs O(entries in slot)
+ * instead of a scan of the whole map. With a snapshot file configured the states are written there periodically
+ * and on shutdown, and read back on start.
+ */
+@Slf4j
+public class InMemoryDialogStateStore implements DialogStateStore {
+
+    private static final int SNAPSHOT_MAGIC = 0x44534d31; // "DSM1"
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final DialogStateCodec codec;
+    private final Duration ttl;
+    private final Clock clock;
+    private final TimingWheel wheel;
+    private final Path snapshotFile;
+    private final Duration snapshotInterval;
+    private final int scanBatchSize;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param snapshotFile     file for periodic snapshots, or {@code null} to keep states in memory only
+     * @param snapshotInterval period of snapshots when a file is set
+     */
+    public InMemoryDialogStateStore(DialogStateCodec codec, Duration ttl, Duration tick, Path snapshotFile,
+                                    Duration snapshotInterval, int scanBatchSize, MeterRegistry meterRegistry, Clock clock) {
+        if (scanBatchSize <= 0) {
+            throw new IllegalArgumentException("scanBatchSize must be positive");
+        }
+        this.codec = codec;
+        this.ttl = ttl;
+        this.clock = clock;
+        this.wheel = new TimingWheel(512, tick.toMillis(), clock.millis());
+        this.snapshotFile = snapshotFile;
+        this.snapshotInterval = snapshotInterval;
+        this.scanBatchSize = scanBatchSize;
+        Gauge.builder("dialog.state.memory.size", entries, Map::size)
+                .description("Dialog states held by the in-memory store")
+                .register(meterRegistry);
+    }
+
+    public void start() {
+        if (snapshotFile != null) {
+            restore();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dialog-state-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        long tickMillis = wheel.tickMillis;
+        scheduler.scheduleAtFixedRate(() -> expire(clock.millis()), tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        if (snapshotFile != null) {
+            long period = snapshotInterval.toMillis();
+            scheduler.scheduleAtFixedRate(this::snapshotQuietly, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (snapshotFile != null) {
+            snapshotQuietly();
+        }
+    }
+
+    @Override
+    public Optional<DialogStateData> findByChatId(Long chatId) {
+        Entry entry = entries.get(chatId);
+        if (entry == null || entry.expiresAt <= clock.millis()) {
+            return Optional.empty();
+        }
+        return Optional.of(codec.decode(entry.value));
+    }
+
+    @Override
+    public DialogStateData save(DialogStateData dialogStateData) {
+        put(dialogStateData.getChatId(), codec.encode(dialogStateData), clock.millis() + ttl.toMillis());
+        return dialogStateData;
+    }
+
+    @Override
+    public void deleteById(Long chatId) {
+        entries.remove(chatId);
+    }
+
+    @Override
+    public List<DialogStateData> findAll() {
+        List<DialogStateData> result = new ArrayList<>(entries.size());
+        forEachBatch(result::addAll);
+        return result;
+    }
+
+    @Override
+    public void forEachBatch(Consumer<List<DialogStateData>> batchAction) {
+        long now = clock.millis();
+        List<DialogStateData> batch = new ArrayList<>(scanBatchSize);
+        // ConcurrentHashMap iterators are weakly consistent and never throw on concurrent changes
+        for (Entry entry : entries.values()) {
+            if (entry.expiresAt <= now) {
+                continue;
+            }
+            batch.add(codec.decode(entry.value));
+            if (batch.size() == scanBatchSize) {
+                batchAction.accept(batch);
+                batch = new ArrayList<>(scanBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchAction.accept(batch);
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(Long chatId, DialogStateData expected, DialogStateData update) {
+        byte[] expectedBytes = expected != null ? codec.encode(expected) : null;
+        byte[] updateBytes = update != null ? codec.encode(update) : null;
+        long now = clock.millis();
+        long expiresAt = now + ttl.toMillis();
+        boolean[] swapped = new boolean[1];
+        entries.compute(chatId, (id, current) -> {
+            byte[] currentBytes = current != null && current.expiresAt > now ? current.value : null;
+            if (!Arrays.equals(currentBytes, expectedBytes)) {
+                return current;
+            }
+            swapped[0] = true;
+            return updateBytes != null ? new Entry(updateBytes, expiresAt) : null;
+        });
+        if (swapped[0] && updateBytes != null) {
+            wheel.schedule(chatId, expiresAt);
+        }
+        return swapped[0];
+    }
+
+    /**
+     * Removes entries whose deadline passed, sweeping the wheel slots up to {@code now}.
+     * @return number of removed entries
+     */
+    int expire(long now) {
+        int[] removed = new int[1];
+        wheel.advance(now, (slot, chatId) -> {
+            Entry entry = entries.get(chatId);
+            if (entry == null) {
+                return true;
+            }
+            if (entry.expiresAt <= now) {
+                if (entries.remove(chatId, entry)) {
+                    removed[0]++;
+                }
+                return true;
+            }
+            // re-saved since: the entry is also scheduled in the slot of its new deadline
+            return wheel.slotOf(entry.expiresAt) != slot;
+        });
+        return removed[0];
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void put(Long chatId, byte[] value, long expiresAt) {
+        entries.put(chatId, new Entry(value, expiresAt));
+        wheel.schedule(chatId, expiresAt);
+    }
+
+    void snapshot() throws IOException {
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        long now = clock.millis();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            for (Map.Entry<Long, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.expiresAt <= now) {
+                    continue;
+                }
+                out.writeBoolean(true);
+                out.writeLong(entry.expiresAt);
+                out.writeInt(entry.value.length);
+                out.write(entry.value);
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void restore() {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return;
+        }
+        long now = clock.millis();
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                log.warn("Ignoring dialog state snapshot {}: unknown format", snapshotFile);
+                return;
+            }
+            while (in.readBoolean()) {
+                long expiresAt = in.readLong();
+                byte[] value = in.readNBytes(in.readInt());
+                if (expiresAt > now) {
+                    put(codec.decode(value).getChatId(), value, expiresAt);
+                    restored++;
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Dialog state snapshot {} could not be read completely: {}", snapshotFile, e.getMessage());
+        }
+        log.info("Restored {} dialog states from {}", restored, snapshotFile);
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write dialog state snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+    }
+
+    /**
+     * Hashed timing wheel of chat ids. An id sits in the slot of its deadline; ids whose deadline is more than one
+     * revolution away are simply kept when their slot is swept early.
+     */
+    static final class TimingWheel {
+
+        @FunctionalInterface
+        interface SlotVisitor {
+            /** @return true to drop the id from the slot */
+            boolean visit(int slot, Long chatId);
+        }
+
+        private final Set<Long>[] slots;
+        private final long tickMillis;
+        private long currentTick;
+
+        @SuppressWarnings("unchecked")
+        TimingWheel(int size, long tickMillis, long startMillis) {
+            this.slots = new Set[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = ConcurrentHashMap.newKeySet();
+            }
+            this.tickMillis = Math.max(1, tickMillis);
+            this.currentTick = startMillis / this.tickMillis;
+        }
+
+        void schedule(Long chatId, long deadlineMillis) {
+            slots[slotOf(deadlineMillis)].add(chatId);
+        }
+
+        int slotOf(long deadlineMillis) {
+            // round up so that a slot is only swept once all its deadlines passed
+            long tick = (deadlineMillis + tickMillis - 1) / tickMillis;
+            return (int) Math.floorMod(tick, (long) slots.length);
+        }
+
+        /** Sweeps every slot whose tick is in {@code (lastTick, now]}, at most one full revolution. */
+        synchronized void advance(long nowMillis, SlotVisitor visitor) {
+            long targetTick = nowMillis / tickMillis;
+            long from = Math.max(currentTick + 1, targetTick - slots.length + 1);
+            for (long tick = from; tick <= targetTick; tick++) {
+                int slot = (int) Math.floorMod(tick, (long) slots.length);
+                Iterator<Long> it = slots[slot].iterator();
+                while (it.hasNext()) {
+                    if (visitor.visit(slot, it.next())) {
+                        it.remove();
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, targetTick);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.service.util.DialogStateCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Dialog states as {@link DialogStateCodec} blobs under {@code dialog:state:<chatId>} with a TTL.
+ * <p>
+ * Earlier versions stored a Spring Data {@code @RedisHash} under {@code DialogStateData:<chatId>}. When
+ * {@code migrateLegacy} is on, a missing blob is looked up in that hash, converted, written with the hash's
+ * remaining TTL and the hash is removed; {@link #migrateAllLegacy()} does the same for all keys at startup.
+ * <p>
+ * {@link #compareAndSet} compares encoded values inside a Lua script, so check and write are one atomic step;
+ * the encoding is deterministic, so a state read through this store re-encodes to the stored bytes.
+ */
+@Slf4j
+public class RedisDialogStateStore implements DialogStateStore {
+
+    static final String KEY_PREFIX = "dialog:state:";
+    static final String LEGACY_KEYSPACE = "DialogStateData";
+
+    private static final byte[] ABSENT = new byte[0];
+
+    /** KEYS[1] state key; ARGV[1] expected value ('' = absent), ARGV[2] new value ('' = delete), ARGV[3] TTL ms. */
+    private static final RedisScript<Long> COMPARE_AND_SET = new DefaultRedisScript<>("""
+            local current = redis.call('GET', KEYS[1])
+            if ARGV[1] == '' then
+                if current then return 0 end
+            elseif current ~= ARGV[1] then
+                return 0
+            end
+            if ARGV[2] == '' then
+                redis.call('DEL', KEYS[1])
+            else
+                redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])
+            end
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final DialogStateCodec codec;
+    private final Duration ttl;
+    private final boolean migrateLegacy;
+    private final int scanBatchSize;
+
+    public RedisDialogStateStore(RedisTemplate<String, byte[]> redisTemplate, StringRedisTemplate stringRedisTemplate,
+                                 DialogStateCodec codec, Duration ttl, boolean migrateLegacy, int scanBatchSize) {
+        if (scanBatchSize <= 0) {
+            throw new IllegalArgumentException("scanBatchSize must be positive");
+        }
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.codec = codec;
+        this.ttl = ttl;
+        this.migrateLegacy = migrateLegacy;
+        this.scanBatchSize = scanBatchSize;
+    }
+
+    @Override
+    public Optional<DialogStateData> findByChatId(Long chatId) {
+        byte[] bytes = redisTemplate.opsForValue().get(key(chatId));
+        if (bytes != null) {
+            try {
+                return Optional.of(codec.decode(bytes));
+            } catch (IllegalArgumentException e) {
+                log.warn("Dropping unreadable dialog state for chat {}: {}", chatId, e.getMessage());
+                redisTemplate.delete(key(chatId));
+                return Optional.empty();
+            }
+        }
+        return migrateLegacy ? migrateLegacy(chatId) : Optional.empty();
+    }
+
+    @Override
+    public DialogStateData save(DialogStateData dialogStateData) {
+        redisTemplate.opsForValue().set(key(dialogStateData.getChatId()), codec.encode(dialogStateData), ttl);
+        return dialogStateData;
+    }
+
+    @Override
+    public void deleteById(Long chatId) {
+        if (migrateLegacy) {
+            redisTemplate.delete(List.of(key(chatId), legacyKey(chatId)));
+        } else {
+            redisTemplate.delete(key(chatId));
+        }
+    }
+
+    @Override
+    public List<DialogStateData> findAll() {
+        List<DialogStateData> result = new ArrayList<>();
+        forEachBatch(result::addAll);
+        return result;
+    }
+
+    /**
+     * Incremental SCAN over {@code dialog:state:*} with COUNT = batch size; each batch of keys is fetched with
+     * one MGET. Keys that expired between SCAN and MGET are skipped, unreadable values are logged and skipped.
+     */
+    @Override
+    public void forEachBatch(Consumer<List<DialogStateData>> batchAction) {
+        ScanOptions options = ScanOptions.scanOptions().match(KEY_PREFIX + "*").count(scanBatchSize).build();
+        List<String> keys = new ArrayList<>(scanBatchSize);
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                keys.add(cursor.next());
+                if (keys.size() == scanBatchSize) {
+                    emitBatch(keys, batchAction);
+                    keys.clear();
+                }
+            }
+        }
+        if (!keys.isEmpty()) {
+            emitBatch(keys, batchAction);
+        }
+    }
+
+    private void emitBatch(List<String> keys, Consumer<List<DialogStateData>> batchAction) {
+        List<byte[]> values = redisTemplate.opsForValue().multiGet(keys);
+        if (values == null) {
+            return;
+        }
+        List<DialogStateData> batch = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            byte[] value = values.get(i);
+            if (value == null) {
+                continue;
+            }
+            try {
+                batch.add(codec.decode(value));
+            } catch (IllegalArgumentException e) {
+                log.warn("Skipping unreadable dialog state {}: {}", keys.get(i), e.getMessage());
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchAction.accept(batch);
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(Long chatId, DialogStateData expected, DialogStateData update) {
+        byte[] expectedBytes = expected != null ? codec.encode(expected) : ABSENT;
+        byte[] updateBytes = update != null ? codec.encode(update) : ABSENT;
+        byte[] ttlMillis = Long.toString(ttl.toMillis()).getBytes(StandardCharsets.US_ASCII);
+        Long result = redisTemplate.execute(COMPARE_AND_SET, List.of(key(chatId)), expectedBytes, updateBytes, ttlMillis);
+        return result != null && result == 1L;
+    }
+
+    /**
+     * Converts every legacy hash still present in Redis.
+     * @return number of migrated states
+     */
+    public int migrateAllLegacy() {
+        List<Long> chatIds = new ArrayList<>();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(ScanOptions.scanOptions().match(LEGACY_KEYSPACE + ":*").count(scanBatchSize).build())) {
+            cursor.forEachRemaining(key -> {
+                String suffix = key.substring(LEGACY_KEYSPACE.length() + 1);
+                // skip Spring Data index keys such as DialogStateData:<id>:idx
+                if (suffix.matches("-?\\d+")) {
+                    chatIds.add(Long.valueOf(suffix));
+                }
+            });
+        }
+        int migrated = 0;
+        for (Long chatId : chatIds) {
+            if (migrateLegacy(chatId).isPresent()) {
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    private Optional<DialogStateData> migrateLegacy(Long chatId) {
+        String legacyKey = legacyKey(chatId);
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(legacyKey);
+        if (hash.isEmpty()) {
+            return Optional.empty();
+        }
+        DialogStateData state;
+        try {
+            state = fromLegacyHash(chatId, hash);
+        } catch (RuntimeException e) {
+            log.warn("Dropping unreadable legacy dialog state for chat {}: {}", chatId, e.getMessage());
+            deleteLegacy(chatId);
+            return Optional.empty();
+        }
+        Long remainingMs = stringRedisTemplate.getExpire(legacyKey, TimeUnit.MILLISECONDS);
+        Duration keyTtl = remainingMs != null && remainingMs > 0 ? Duration.ofMillis(remainingMs) : ttl;
+        redisTemplate.opsForValue().set(key(chatId), codec.encode(state), keyTtl);
+        deleteLegacy(chatId);
+        log.debug("Migrated legacy dialog state of chat {}", chatId);
+        return Optional.of(state);
+    }
+
+    private void deleteLegacy(Long chatId) {
+        stringRedisTemplate.delete(legacyKey(chatId));
+        stringRedisTemplate.opsForSet().remove(LEGACY_KEYSPACE, chatId.toString());
+    }
+
+    /**
+     * Reads the flattened {@code @RedisHash} layout: scalar fields by name, entities as {@code category.id} /
+     * {@code account.id}, booleans as {@code 1}/{@code 0}.
+     */
+    static DialogStateData fromLegacyHash(Long chatId, Map<?, ?> hash) {
+        DialogStateData state = new DialogStateData();
+        state.setChatId(chatId);
+        String type = field(hash, "state");
+        if (type != null) {
+            state.setState(DialogStateType.valueOf(type));
+        }
+        String amount = field(hash, "amount");
+        if (amount != null) {
+            state.setAmount(new BigDecimal(amount));
+        }
+        String categoryId = field(hash, "category.id");
+        if (categoryId != null) {
+            state.setCategoryId(Long.valueOf(categoryId));
+        }
+        String accountId = field(hash, "account.id");
+        if (accountId != null) {
+            state.setAccountId(Long.valueOf(accountId));
+        }
+        String date = field(hash, "transactionDate");
+        if (date != null) {
+            state.setTransactionDate(LocalDate.parse(date));
+        }
+        state.setComment(field(hash, "comment"));
+        String lastUpdated = field(hash, "lastUpdated");
+        if (lastUpdated != null) {
+            state.setLastUpdated(LocalDateTime.parse(lastUpdated));
+        }
+        state.setExpense(flag(hash, "isExpense", "expense"));
+        state.setIncome(flag(hash, "isIncome", "income"));
+        return state;
+    }
+
+    private static String field(Map<?, ?> hash, String name) {
+        Object value = hash.get(name);
+        return value != null ? value.toString() : null;
+    }
+
+    private static boolean flag(Map<?, ?> hash, String... names) {
+        for (String name : names) {
+            String value = field(hash, name);
+            if (value != null) {
+                return "1".equals(value) || "true".equalsIgnoreCase(value);
+            }
+        }
+        return false;
+    }
+
+    static String key(Long chatId) {
+        return KEY_PREFIX + chatId;
+    }
+
+    static String legacyKey(Long chatId) {
+        return LEGACY_KEYSPACE + ":" + chatId;
+    }
+}
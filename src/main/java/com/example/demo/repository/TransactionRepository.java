@@ -1,14 +1,166 @@
 package com.example.demo.repository;
 
 import com.example.demo.model.entity.Transaction;
+import com.example.demo.model.entity.TransactionType;
 import com.example.demo.model.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 
+/**
+ * A transaction's day is the UTC date of its {@code operation_time}. The column has no time zone and every session
+ * runs in UTC ({@code spring.datasource.hikari.connection-init-sql}), so it holds UTC wall time: the daily totals take
+ * the day as {@code CAST(operation_time AS date)}, and the queries over transactions are bounded by UTC midnights.
+ */
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
     List<Transaction> findByOwnerOrderByPostedTimeDesc(User user);
     List<Transaction> findByOwnerAndOperationTimeBetween(User owner, Instant start, Instant end);
-}
 
+    /** Category and time of a recorded transaction, for ranking categories per user. */
+    interface CategoryUse {
+        Long getCategoryId();
+        Instant getPostedTime();
+    }
+
+    @Query("SELECT t.category.id AS categoryId, t.postedTime AS postedTime FROM Transaction t " +
+            "WHERE t.owner.chatId = :chatId AND t.category IS NOT NULL ORDER BY t.postedTime DESC")
+    List<CategoryUse> findRecentCategoryUses(Long chatId, Pageable pageable);
+
+    /** The fields of a transaction that reports aggregate over. */
+    interface TransactionFact {
+        Long getId();
+        Long getCategoryId();
+        String getCategoryName();
+        TransactionType getType();
+        BigDecimal getAmount();
+        Instant getOperationTime();
+    }
+
+    @Query("SELECT t.id AS id, c.id AS categoryId, c.name AS categoryName, t.type AS type, t.amount AS amount, " +
+            "t.operationTime AS operationTime FROM Transaction t LEFT JOIN t.category c " +
+            "WHERE t.owner.chatId = :chatId ORDER BY t.id")
+    List<TransactionFact> findFacts(Long chatId);
+
+    /** Number and sum of a chat's transactions of one type. */
+    interface TypeTotal {
+        TransactionType getType();
+        BigDecimal getTotal();
+        Long getCount();
+    }
+
+    /** Sum of a chat's transactions under one top-level category, those booked under its subcategories included. */
+    interface CategoryAmount {
+        Long getCategoryId();
+        String getName();
+        BigDecimal getTotal();
+    }
+
+    /** Totals per type from {@code transaction_daily_totals}; complete only once {@link #isDailyTotalsBackfilled}. */
+    @Query(value = "SELECT d.type AS type, SUM(d.total) AS total, SUM(d.tx_count) AS count FROM transaction_daily_totals d " +
+            "WHERE d.owner_id = (SELECT u.id FROM users u WHERE u.chat_id = :chatId) " +
+            "AND d.day BETWEEN :startDay AND :endDay GROUP BY d.type", nativeQuery = true)
+    List<TypeTotal> sumByType(Long chatId, LocalDate startDay, LocalDate endDay);
+
+    /**
+     * Top-level categories of the type with the largest sums in the period, as many as the page asks for. Each day's
+     * total is rolled up to the root of its category through {@code category_closure}: one join, no recursion.
+     */
+    @Query(value = "SELECT r.id AS categoryId, r.name AS name, SUM(d.total) AS total FROM transaction_daily_totals d " +
+            "JOIN category_closure cc ON cc.descendant_id = d.category_id " +
+            "JOIN categories r ON r.id = cc.ancestor_id AND r.parent_id IS NULL " +
+            "WHERE d.owner_id = (SELECT u.id FROM users u WHERE u.chat_id = :chatId) AND d.type = :type " +
+            "AND d.day BETWEEN :startDay AND :endDay " +
+            "GROUP BY r.id, r.name ORDER BY SUM(d.total) DESC, r.name", nativeQuery = true)
+    List<CategoryAmount> findTopCategorySubtrees(Long chatId, String type, LocalDate startDay, LocalDate endDay,
+                                                 Pageable pageable);
+
+    /** {@link #sumByType} computed from the transactions of {@code [start, end)}, for use before the backfill. */
+    @Query("SELECT t.type AS type, SUM(t.amount) AS total, COUNT(t) AS count FROM Transaction t " +
+            "WHERE t.owner.id = (SELECT u.id FROM User u WHERE u.chatId = :chatId) " +
+            "AND t.operationTime >= :start AND t.operationTime < :end GROUP BY t.type")
+    List<TypeTotal> sumTransactionsByType(Long chatId, Instant start, Instant end);
+
+    /** {@link #findTopCategorySubtrees} computed from the transactions of {@code [start, end)}, for use before the backfill. */
+    @Query(value = "SELECT r.id AS categoryId, r.name AS name, SUM(t.amount) AS total FROM transactions t " +
+            "JOIN category_closure cc ON cc.descendant_id = t.category_id " +
+            "JOIN categories r ON r.id = cc.ancestor_id AND r.parent_id IS NULL " +
+            "WHERE t.owner_id = (SELECT u.id FROM users u WHERE u.chat_id = :chatId) AND t.type = :type " +
+            "AND t.operation_time >= :start AND t.operation_time < :end " +
+            "GROUP BY r.id, r.name ORDER BY SUM(t.amount) DESC, r.name", nativeQuery = true)
+    List<CategoryAmount> findTopTransactionCategorySubtrees(Long chatId, String type, Instant start, Instant end,
+                                                            Pageable pageable);
+
+    /** The top-level category a category rolls up to; a root maps to itself. */
+    interface CategoryRoot {
+        Long getCategoryId();
+        Long getRootId();
+        String getRootName();
+    }
+
+    /** Roots of the categories the chat's transactions are booked under, from {@code category_closure}. */
+    @Query(value = "SELECT cc.descendant_id AS categoryId, r.id AS rootId, r.name AS rootName FROM category_closure cc " +
+            "JOIN categories r ON r.id = cc.ancestor_id AND r.parent_id IS NULL " +
+            "WHERE cc.descendant_id IN (SELECT t.category_id FROM transactions t " +
+            "WHERE t.owner_id = (SELECT u.id FROM users u WHERE u.chat_id = :chatId))", nativeQuery = true)
+    List<CategoryRoot> findCategoryRoots(Long chatId);
+
+    /**
+     * Adds a stored transaction to its day's totals ({@code sign} 1), or takes it out again before it is deleted
+     * ({@code sign} -1). The day is computed by the database, the same way {@link #rebuildDailyTotals} does.
+     * {@code operationTime} is the partition key: with it Postgres reads only the transaction's own partition.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO transaction_daily_totals AS d (owner_id, day, category_id, type, currency, total, tx_count) " +
+            "SELECT t.owner_id, CAST(t.operation_time AS date), t.category_id, t.type, t.currency, :sign * t.amount, :sign " +
+            "FROM transactions t WHERE t.id = :transactionId AND t.operation_time = :operationTime " +
+            "ON CONFLICT (owner_id, day, category_id, type, currency) " +
+            "DO UPDATE SET total = d.total + EXCLUDED.total, tx_count = d.tx_count + EXCLUDED.tx_count", nativeQuery = true)
+    int addToDailyTotals(Long transactionId, Instant operationTime, int sign);
+
+    /** Drops the emptied totals of the transaction's owner and day. */
+    @Modifying
+    @Query(value = "DELETE FROM transaction_daily_totals d USING transactions t " +
+            "WHERE t.id = :transactionId AND t.operation_time = :operationTime AND d.owner_id = t.owner_id AND d.day = CAST(t.operation_time AS date) " +
+            "AND d.tx_count = 0", nativeQuery = true)
+    int deleteEmptyDailyTotals(Long transactionId, Instant operationTime);
+
+    /** Deletes one transaction. {@code delete(entity)} matches the id alone and so probes every partition. */
+    @Modifying
+    @Query("DELETE FROM Transaction t WHERE t.id = :id AND t.operationTime = :operationTime")
+    int deleteByIdAndOperationTime(Long id, Instant operationTime);
+
+    @Modifying
+    @Query(value = "DELETE FROM transaction_daily_totals WHERE owner_id = :ownerId", nativeQuery = true)
+    int deleteDailyTotals(Long ownerId);
+
+    /** Recomputes all daily totals of one owner from its transactions; the old ones must have been deleted. */
+    @Modifying
+    @Query(value = "INSERT INTO transaction_daily_totals (owner_id, day, category_id, type, currency, total, tx_count) " +
+            "SELECT t.owner_id, CAST(t.operation_time AS date), t.category_id, t.type, t.currency, SUM(t.amount), COUNT(*) " +
+            "FROM transactions t WHERE t.owner_id = :ownerId " +
+            "GROUP BY t.owner_id, CAST(t.operation_time AS date), t.category_id, t.type, t.currency", nativeQuery = true)
+    int rebuildDailyTotals(Long ownerId);
+
+    @Query(value = "SELECT completed_at IS NOT NULL FROM transaction_rollup_backfill WHERE id = 1", nativeQuery = true)
+    boolean isDailyTotalsBackfilled();
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE transaction_rollup_backfill SET completed_at = now() WHERE id = 1", nativeQuery = true)
+    int markDailyTotalsBackfilled();
+
+    /**
+     * Creates the monthly partitions of {@code transactions} missing between the two months, both included.
+     * @return number of created partitions
+     */
+    @Transactional
+    @Query(value = "SELECT ensure_transaction_partitions(:fromMonth, :toMonth)", nativeQuery = true)
+    int ensurePartitions(LocalDate fromMonth, LocalDate toMonth);
+}
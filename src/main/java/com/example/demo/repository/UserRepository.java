@@ -1,8 +1,14 @@
 package com.example.demo.repository;
 
 import com.example.demo.model.entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -11,4 +17,32 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByChatId(Long chatId);
     boolean existsByUsername(String username);
     boolean existsByChatId(Long chatId);
+
+    /**
+     * Inserts the user unless a row with this chat id exists; safe when two first messages race.
+     * @return 1 if inserted, 0 if the chat was already registered
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO users (user_name, first_name, last_name, chat_id, created_at, updated_at) " +
+            "VALUES (:username, :firstName, :lastName, :chatId, now(), now()) " +
+            "ON CONFLICT (chat_id) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(String username, String firstName, String lastName, Long chatId);
+
+    @Query("SELECT u.id FROM User u WHERE u.chatId = :chatId")
+    Optional<Long> findIdByChatId(Long chatId);
+
+    @Query("SELECT u.chatId FROM User u")
+    Slice<Long> findChatIds(Pageable pageable);
+
+    /** User ids above {@code afterId} in ascending order, for walking all users in keyset pages. */
+    @Query("SELECT u.id FROM User u WHERE u.id > :afterId ORDER BY u.id")
+    List<Long> findIdsAfter(Long afterId, Pageable pageable);
+
+    /**
+     * Locks the user row until the surrounding transaction ends. Inserting a transaction of the user takes a key
+     * share lock on it, so no transaction of the user can be written meanwhile.
+     */
+    @Query(value = "SELECT id FROM users WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(Long id);
 }
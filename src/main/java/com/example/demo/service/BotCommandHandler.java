@@ -1,8 +1,12 @@
 package com.example.demo.service;
 
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
+import java.util.Set;
+
 /**
  * Contract for handling a specific bot command (triggered by a textual message).
  * Implementations should be stateless (or thread-safe) and annotated with a Spring stereotype (@Component/@Service)
@@ -19,6 +23,38 @@ public interface BotCommandHandler {
      */
     boolean supports(Update update);
 
+    /**
+     * Same check as {@link #supports(Update)}, but with the dialog state already loaded by the registry,
+     * so implementations should not read it again. {@code state} may be null for a chat without state.
+     * Only called for handlers that declare routing keys (see {@link #menuTexts()}).
+     */
+    default boolean supports(Update update, DialogStateData state) {
+        return supports(update);
+    }
+
+    /**
+     * Exact menu button texts (case-insensitive) this handler starts on. Used to build the routing index.
+     */
+    default Set<String> menuTexts() {
+        return Set.of();
+    }
+
+    /**
+     * Callback data prefixes this handler reacts to regardless of dialog state. Callback data is {@code key:value},
+     * so a prefix is the key including the colon (e.g. {@code "stats_period:"}) or a complete colon-free value.
+     */
+    default Set<String> callbackPrefixes() {
+        return Set.of();
+    }
+
+    /**
+     * Dialog states in which this handler may own the conversation.
+     * A handler that declares no menu texts, prefixes or states is asked via {@link #supports(Update)} for every update.
+     */
+    default Set<DialogStateType> dialogStates() {
+        return Set.of();
+    }
+
     /**
      * Handle the message and build a response. Should not return null.
      * Any domain validation errors should be reflected in the response text.
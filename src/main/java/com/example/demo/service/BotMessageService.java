@@ -28,15 +28,31 @@ public class BotMessageService {
 
     /**
      * Process an update and return a SendMessage if a response is needed.
+     * Dialog state is read once into an {@link UpdateContext} and written back once after processing.
      */
     public Optional<SendMessage> handleUpdate(Update update) {
         if (!isValid(update)) {
             return Optional.empty();
         }
-        initializeDialogIfNeeded(update);
-
         Long chatId = getChatId(update);
+        User tUser = getUser(update);
+        if (chatId == null || tUser == null) {
+            throw new IllegalArgumentException("Chat ID or User cannot be null");
+        }
+        UpdateContext context = UpdateContext.open(chatId, tUser);
+        try {
+            registerAndInitializeDialog(context);
+            return respond(update, chatId);
+        } finally {
+            try {
+                dialogStateService.flush(context);
+            } finally {
+                UpdateContext.close();
+            }
+        }
+    }
 
+    private Optional<SendMessage> respond(Update update, Long chatId) {
         SendMessage response;
         if (hasTextMessage(update) && "/start".equalsIgnoreCase(update.getMessage().getText().trim()) && chatId != null) {
             dialogStateService.clearState(chatId);
@@ -83,22 +99,22 @@ public class BotMessageService {
                 .build();
     }
 
-    private void initializeDialogIfNeeded(Update update) {
-        Long chatId = getChatId(update);
-        User tUser = getUser(update);
-        if (chatId == null || tUser == null) {
-            throw new IllegalArgumentException("Chat ID or User cannot be null");
-        }
+    /**
+     * Registration runs on every update: known chats are answered from the in-memory registry, new chats and chats
+     * whose user was deleted take a single upsert. The dialog is staged only after it succeeded, so a failed
+     * registration leaves no state behind and is retried with the next update.
+     */
+    private void registerAndInitializeDialog(UpdateContext context) {
+        Long chatId = context.getChatId();
+        User tUser = context.getUser();
+        userService.ensureRegistered(
+                tUser.getUserName(),
+                tUser.getFirstName(),
+                tUser.getLastName(),
+                chatId
+        );
         if (dialogStateService.getState(chatId) == null) {
             dialogStateService.setDialogStateType(chatId, DialogStateType.IDLE);
         }
-        if (!userService.existsByChatId(chatId)) {
-            userService.createUser(
-                    tUser.getUserName(),
-                    tUser.getFirstName(),
-                    tUser.getLastName(),
-                    chatId
-            );
-        }
     }
 }
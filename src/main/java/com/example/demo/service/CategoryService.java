@@ -2,19 +2,43 @@ package com.example.demo.service;
 
 import com.example.demo.model.entity.Category;
 import com.example.demo.model.entity.CategoryType;
+import com.example.demo.service.util.CategoryMatcher;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 
 import java.util.List;
 
 public interface CategoryService {
-    List<String> getAllCategoryNames();
-    List<Category> getAllCategories();
+    /** Distinct names of global categories and the chat's own ones, case-insensitively sorted. */
+    List<String> getAllCategoryNames(Long chatId);
+    /** Global categories and the chat's own ones of both types, by name. */
+    List<Category> getAllCategories(Long chatId);
+    Category getCategoryById(Long id);
     Category getCategoryByName(String name, CategoryType categoryType);
+    /** Global categories of the type, most used first; users' own categories are not included. */
     List<Category> getCategoriesByType(CategoryType type);
+
+    /**
+     * Global and own categories of the type for the chat's keyboard: the chat's most frecent ones first, then the
+     * rest by global usage. Served from memory without sorting.
+     */
+    List<Category> getCategoriesByType(Long chatId, CategoryType type);
+
+    /**
+     * Page of the chat's category keyboard in the order of {@link #getCategoriesByType(Long, CategoryType)}. Pages
+     * are cached until the chat's categories or their order change; the returned markup is shared and must not be
+     * modified.
+     */
+    InlineKeyboardMarkup getCategoryKeyboard(Long chatId, CategoryType type, int page);
     List<Category> getCategoriesByOwnerChatId(Long chatId);
     Category createCategory(String name, String type, Long ownerChatId);
     void deleteCategoryByName(String name);
     void deleteCategory(Category category);
     boolean categoryExists(String name, Long ownerChatId);
-    List<Category> getSimilarCategory(String name, Long ownerChatId);
-    void incrementCategoryUsage(Category category);
+    /** Up to {@code limit} global or own categories of the type whose names resemble {@code name}, typos included. */
+    List<Category> getSimilarCategory(String name, Long ownerChatId, CategoryType type, int limit);
+    /** Counts a use of the category by the chat, for global usage and the chat's own ranking. */
+    void incrementCategoryUsage(Long chatId, Category category);
+
+    /** Cached matcher over global categories of the type and the chat's own ones. */
+    CategoryMatcher getCategoryMatcher(Long chatId, CategoryType type);
 }
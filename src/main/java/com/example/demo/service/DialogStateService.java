@@ -4,6 +4,7 @@ import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.DialogStateType;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface DialogStateService {
     DialogStateType getStateType(Long chatId);
@@ -11,5 +12,31 @@ public interface DialogStateService {
     void setDialogStateType(Long chatId, DialogStateType stateType);
     void clearState(Long chatId);
     DialogStateData saveOrUpdate(DialogStateData dialogStateData);
+    /**
+     * Loads all states into one list; admin and cleanup jobs should use {@link #forEachState(Consumer)}.
+     */
     List<DialogStateData> findAll();
+
+    /**
+     * Visits every stored state with memory bounded by the store's batch size. A state may be visited twice if
+     * the keyspace changes during the iteration, so {@code action} must be idempotent.
+     */
+    void forEachState(Consumer<DialogStateData> action);
+
+    /**
+     * Atomically moves the chat from {@code expected} to {@code next}, applying {@code changes} to a copy of the
+     * stored state. Unlike read-modify-write through {@link #saveOrUpdate}, a concurrent update of the same chat
+     * (another instance, a double tap) cannot be overwritten: the write only happens if storage still holds the
+     * state this call read. Changes staged in the open {@link UpdateContext} are flushed first.
+     * @param expected state type the chat must be in; {@link DialogStateType#NONE} means no state
+     * @param next     new state type, or {@code null} to clear the state
+     * @param changes  field changes, may be {@code null}
+     * @return true if this call performed the transition, false if the chat was in another state
+     */
+    boolean transition(Long chatId, DialogStateType expected, DialogStateType next, Consumer<DialogStateData> changes);
+
+    /**
+     * Writes changes staged in {@code context} (one save or one delete) and marks the context clean.
+     */
+    void flush(UpdateContext context);
 }
@@ -0,0 +1,16 @@
+package com.example.demo.service;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+/**
+ * Outbound side of the bot: accepts replies produced by handlers and delivers them to Telegram.
+ * Implementations may send asynchronously; {@link #enqueue(SendMessage)} must not block on the network.
+ */
+@FunctionalInterface
+public interface OutboundMessageSender {
+
+    /**
+     * Queue a message for delivery. Messages of the same chat are delivered in enqueue order.
+     */
+    void enqueue(SendMessage message);
+}
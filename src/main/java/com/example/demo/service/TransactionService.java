@@ -3,7 +3,9 @@ package com.example.demo.service;
 import com.example.demo.model.entity.Account;
 import com.example.demo.model.entity.Category;
 import com.example.demo.model.entity.Transaction;
+import com.example.demo.model.entity.TransactionType;
 import com.example.demo.model.enums.ExpenseCategory;
+import com.example.demo.repository.TransactionRepository;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -14,6 +16,13 @@ public interface TransactionService {
     void addIncome(Long chatId, BigDecimal amount, Category category, String comment, String date, Account account);
 
     List<Transaction> getAllByPeriod(Long chatId, LocalDate startDate, LocalDate endDate);
+    /** Number and sum of the chat's transactions in the period, one entry per type that occurs. */
+    List<TransactionRepository.TypeTotal> getTotalsByType(Long chatId, LocalDate startDate, LocalDate endDate);
+    /**
+     * Up to {@code limit} top-level categories of the type with the largest sums in the period, largest first. Spending
+     * in subcategories counts towards their root.
+     */
+    List<TransactionRepository.CategoryAmount> getTopCategories(Long chatId, TransactionType type, LocalDate startDate, LocalDate endDate, int limit);
     String getTodayStats(Long chatId);
     String getMonthStats(Long chatId);
     String getYearStats(Long chatId);
@@ -0,0 +1,79 @@
+package com.example.demo.service;
+
+import com.example.demo.model.entity.DialogStateData;
+import lombok.Getter;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+/**
+ * State of the update being processed on the current thread: chat, Telegram user and the dialog state,
+ * which is read from storage at most once. Changes made through {@link DialogStateService} while the context
+ * is open are staged here and written back once by {@link DialogStateService#flush(UpdateContext)}.
+ * <p>
+ * Opened and closed by {@link BotMessageService}; updates of one chat never run concurrently
+ * (see {@link UpdateDispatcher}), so a thread-bound context is sufficient.
+ */
+@Getter
+public final class UpdateContext {
+
+    private static final ThreadLocal<UpdateContext> CURRENT = new ThreadLocal<>();
+
+    private final Long chatId;
+    private final User user;
+    private DialogStateData state;
+    private boolean loaded;
+    private boolean dirty;
+    private boolean cleared;
+
+    private UpdateContext(Long chatId, User user) {
+        this.chatId = chatId;
+        this.user = user;
+    }
+
+    public static UpdateContext open(Long chatId, User user) {
+        if (chatId == null) {
+            throw new IllegalArgumentException("chatId cannot be null");
+        }
+        UpdateContext context = new UpdateContext(chatId, user);
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Context of the current thread if it belongs to {@code chatId}, otherwise null.
+     */
+    public static UpdateContext currentFor(Long chatId) {
+        UpdateContext context = CURRENT.get();
+        return context != null && context.chatId.equals(chatId) ? context : null;
+    }
+
+    public static void close() {
+        CURRENT.remove();
+    }
+
+    /** Remembers the state read from storage. */
+    public void loaded(DialogStateData state) {
+        this.state = state;
+        this.loaded = true;
+    }
+
+    /** Replaces the state; it will be saved on flush. */
+    public void stage(DialogStateData state) {
+        this.state = state;
+        this.loaded = true;
+        this.dirty = true;
+    }
+
+    /** Drops the state; it will be deleted on flush unless a new one is staged afterwards. */
+    public void clear() {
+        this.state = null;
+        this.loaded = true;
+        this.dirty = false;
+        this.cleared = true;
+    }
+
+    /** Called after the staged changes are written. */
+    public void flushed() {
+        this.dirty = false;
+        this.cleared = false;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.demo.service;
+
+/**
+ * Decouples update ingestion (polling session / webhook) from update processing.
+ * Tasks submitted for the same chat are executed strictly in submission order,
+ * tasks of different chats may run in parallel.
+ */
+public interface UpdateDispatcher {
+
+    /**
+     * Schedule a task for the given chat.
+     * @param chatId chat the task belongs to (null tasks share a single ordered lane)
+     * @param task work to execute
+     * @throws java.util.concurrent.RejectedExecutionException if the dispatcher no longer accepts work, the task
+     *         will not run then
+     */
+    void dispatch(Long chatId, Runnable task);
+
+    /**
+     * Number of tasks accepted but not yet started.
+     */
+    int getQueueDepth();
+
+    /**
+     * Dispatcher that runs every task on the calling thread. Used when no pool is configured.
+     */
+    static UpdateDispatcher direct() {
+        return new UpdateDispatcher() {
+            @Override
+            public void dispatch(Long chatId, Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public int getQueueDepth() {
+                return 0;
+            }
+        };
+    }
+}
@@ -7,10 +7,22 @@ import java.util.Optional;
 
 public interface UserService {
     void createUser(String username, String firstName, String SecondName, Long chatId);
+
+    /**
+     * Makes sure the chat has a user row: known chats are answered from memory, new ones are inserted with one
+     * idempotent upsert, so concurrent first messages of a chat cannot fail or create duplicates.
+     */
+    void ensureRegistered(String username, String firstName, String lastName, Long chatId);
     Optional<User> findById(Long id);
     Optional<User> findByUsername(String username);
     List<User> findAll();
     User findByChatId(Long chatId);
+
+    /**
+     * Reference to the chat's user for use as an owner of new rows. The id comes from memory when cached and the
+     * returned proxy is not loaded, so attaching it costs no SELECT of the user row.
+     */
+    User getOwnerReference(Long chatId);
     void deleteUser(Long userId);
     boolean existsByUsername(String username);
     boolean existsByChatId(Long chatId);
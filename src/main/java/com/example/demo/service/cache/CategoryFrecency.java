@@ -0,0 +1,164 @@
+package com.example.demo.service.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per chat frecency of categories: every use adds 1 to a score that halves every {@code halfLife}, so a category
+ * used daily this week outranks one used a lot last year.
+ * <p>
+ * Scores are kept as {@code log2} of the value they would have at the epoch, which every use only increases; their
+ * order is the order of the decayed scores at any later time, so nothing has to be rescaled as time passes. Each
+ * chat keeps at most {@code maxPerChat} categories, sorted on every use, and its ranking is published as an
+ * immutable list for readers. A new list is only published when the order changes, so callers can tell a changed
+ * ranking by identity. At most {@code maxChats} chats are kept, least recently used first out.
+ * <p>
+ * {@link #record} only updates chats that are present; an absent chat is {@link #seed seeded} from its recent
+ * transactions on the next read, which already include the new one.
+ */
+public class CategoryFrecency {
+
+    public record Use(Long categoryId, Instant at) {
+    }
+
+    private final Map<Long, Profile> profiles;
+    private final int maxPerChat;
+    private final double halfLifeMillis;
+    private final Clock clock;
+
+    public CategoryFrecency(int maxChats, int maxPerChat, Duration halfLife, MeterRegistry meterRegistry, Clock clock) {
+        if (maxPerChat <= 0) {
+            throw new IllegalArgumentException("maxPerChat must be positive");
+        }
+        this.profiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Profile> eldest) {
+                return size() > maxChats;
+            }
+        };
+        this.maxPerChat = maxPerChat;
+        this.halfLifeMillis = halfLife.toMillis();
+        this.clock = clock;
+        Gauge.builder("categories.frecency.chats", this, CategoryFrecency::size).register(meterRegistry);
+    }
+
+    /** Category ids of the chat, most frecent first, or {@code null} if the chat has not been seeded. */
+    public List<Long> ranking(Long chatId) {
+        Profile profile;
+        synchronized (profiles) {
+            profile = profiles.get(chatId);
+        }
+        return profile != null ? profile.ranking : null;
+    }
+
+    public void record(Long chatId, Long categoryId) {
+        Profile profile;
+        synchronized (profiles) {
+            profile = profiles.get(chatId);
+        }
+        if (profile != null) {
+            profile.add(categoryId, exponent(clock.instant()));
+        }
+    }
+
+    /** Replaces the chat's profile with one built from past uses. */
+    public List<Long> seed(Long chatId, List<Use> uses) {
+        Profile profile = new Profile(maxPerChat);
+        List<Use> oldestFirst = new ArrayList<>(uses);
+        oldestFirst.sort(Comparator.comparing(Use::at));
+        for (Use use : oldestFirst) {
+            profile.add(use.categoryId(), exponent(use.at()));
+        }
+        synchronized (profiles) {
+            profiles.put(chatId, profile);
+        }
+        return profile.ranking;
+    }
+
+    public int size() {
+        synchronized (profiles) {
+            return profiles.size();
+        }
+    }
+
+    private double exponent(Instant at) {
+        return at.toEpochMilli() / halfLifeMillis;
+    }
+
+    private static final class Profile {
+        private final long[] ids;
+        private final double[] logScores;
+        private int size;
+        private volatile List<Long> ranking = List.of();
+
+        Profile(int capacity) {
+            this.ids = new long[capacity];
+            this.logScores = new double[capacity];
+        }
+
+        synchronized void add(long categoryId, double exponent) {
+            int i = indexOf(categoryId);
+            if (i < 0) {
+                if (size == ids.length) {
+                    // the weakest entry makes room; kept sorted, so it is the last one
+                    if (logScores[size - 1] >= exponent) {
+                        return;
+                    }
+                    size--;
+                }
+                i = size++;
+                ids[i] = categoryId;
+                logScores[i] = exponent;
+            } else {
+                logScores[i] = logAdd(logScores[i], exponent);
+                if (i == 0 || logScores[i - 1] >= logScores[i]) {
+                    // same order, readers keep the list they have
+                    return;
+                }
+            }
+            while (i > 0 && logScores[i - 1] < logScores[i]) {
+                swap(i - 1, i);
+                i--;
+            }
+            List<Long> list = new ArrayList<>(size);
+            for (int k = 0; k < size; k++) {
+                list.add(ids[k]);
+            }
+            ranking = Collections.unmodifiableList(list);
+        }
+
+        private int indexOf(long categoryId) {
+            for (int k = 0; k < size; k++) {
+                if (ids[k] == categoryId) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        private void swap(int a, int b) {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = logScores[a];
+            logScores[a] = logScores[b];
+            logScores[b] = score;
+        }
+
+        /** log2(2^a + 2^b) without leaving double range. */
+        private static double logAdd(double a, double b) {
+            double max = Math.max(a, b);
+            return max + Math.log1p(Math.pow(2, Math.min(a, b) - max)) / Math.log(2);
+        }
+    }
+}
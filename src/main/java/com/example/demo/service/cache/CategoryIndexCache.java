@@ -0,0 +1,90 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.CategoryType;
+import com.example.demo.service.util.CategoryIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Per chat {@link CategoryIndex}es over global plus the chat's own categories, bounded to {@code maxChats}.
+ * <p>
+ * {@code CategoryService} invalidates after category changes: a chat's own category evicts that chat, a global
+ * one drops everything. Every invalidation bumps a version, and an index whose build started before it is
+ * returned but not cached, so a build racing with a change cannot keep the old categories. Changes made by other
+ * instances are picked up when the entry is older than {@code ttl}.
+ */
+public class CategoryIndexCache {
+
+    private record Key(Long chatId, CategoryType type) {
+    }
+
+    private record Entry(CategoryIndex index, long builtAt) {
+    }
+
+    private final Map<Key, Entry> entries;
+    private final Duration ttl;
+    private final Clock clock;
+    private long version;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public CategoryIndexCache(int maxChats, Duration ttl, MeterRegistry meterRegistry, Clock clock) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxChats;
+            }
+        };
+        this.ttl = ttl;
+        this.clock = clock;
+        this.hits = Counter.builder("categories.index.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("categories.index.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("categories.index.size", this, CategoryIndexCache::size).register(meterRegistry);
+    }
+
+    public CategoryIndex get(Long chatId, CategoryType type, Supplier<CategoryIndex> loader) {
+        Key key = new Key(chatId, type);
+        long now = clock.millis();
+        long startVersion;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.builtAt() < ttl.toMillis()) {
+                hits.increment();
+                return entry.index();
+            }
+            startVersion = version;
+        }
+        misses.increment();
+        CategoryIndex index = loader.get();
+        synchronized (this) {
+            if (version == startVersion) {
+                entries.put(key, new Entry(index, now));
+            }
+        }
+        return index;
+    }
+
+    /** Drops the indexes of one chat after its own categories changed. */
+    public synchronized void invalidate(Long chatId) {
+        version++;
+        entries.keySet().removeIf(key -> key.chatId().equals(chatId));
+    }
+
+    /** Drops all indexes after a global category changed. */
+    public synchronized void invalidateAll() {
+        version++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
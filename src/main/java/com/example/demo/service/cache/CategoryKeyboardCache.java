@@ -0,0 +1,110 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import com.example.demo.service.util.CategoryIndex;
+import com.example.demo.service.util.CategoryKeyboardHelper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Built category keyboard pages per chat and category type, bounded to {@code maxEntries}, least recently used
+ * first out.
+ * <p>
+ * An entry is valid for the catalog version it was built from: the chat's {@link CategoryIndex}, replaced by
+ * {@link CategoryIndexCache} whenever categories are created or deleted, and the chat's frecency ranking, replaced
+ * by {@link CategoryFrecency} only when the order changes. Both are immutable, so comparing them by identity is
+ * enough and a stale entry is rebuilt on the next request without any invalidation calls. Pages are built on first
+ * request and shared afterwards; callers must not modify the returned markup.
+ */
+public class CategoryKeyboardCache {
+
+    private record Key(Long chatId, CategoryType type) {
+    }
+
+    private static final class Entry {
+        private final CategoryIndex index;
+        private final List<Long> ranking;
+        private final List<Category> categories;
+        private final AtomicReferenceArray<InlineKeyboardMarkup> pages;
+
+        Entry(CategoryIndex index, List<Long> ranking, List<Category> categories, int pageSize) {
+            this.index = index;
+            this.ranking = ranking;
+            this.categories = categories;
+            this.pages = new AtomicReferenceArray<>(Math.max(1, (categories.size() + pageSize - 1) / pageSize));
+        }
+    }
+
+    private final Map<Key, Entry> entries;
+    private final int pageSize;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public CategoryKeyboardCache(int maxEntries, int pageSize, MeterRegistry meterRegistry) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.pageSize = pageSize;
+        this.hits = Counter.builder("categories.keyboard.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("categories.keyboard.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("categories.keyboard.size", this, CategoryKeyboardCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Page {@code page} of the keyboard built from {@code index} and {@code ranking}.
+     *
+     * @param categories keyboard order of the categories, called only when the cached entry is stale
+     */
+    public InlineKeyboardMarkup page(Long chatId, CategoryType type, CategoryIndex index, List<Long> ranking,
+                                     int page, Supplier<List<Category>> categories) {
+        Key key = new Key(chatId, type);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.index != index || entry.ranking != ranking) {
+            entry = new Entry(index, ranking, categories.get(), pageSize);
+            synchronized (this) {
+                entries.put(key, entry);
+            }
+        }
+        if (page < 0 || page >= entry.pages.length()) {
+            // only reachable through a stale or forged callback, not worth caching
+            misses.increment();
+            return CategoryKeyboardHelper.buildCategoryKeyboard(page, pageSize, entry.categories);
+        }
+        InlineKeyboardMarkup markup = entry.pages.get(page);
+        if (markup != null) {
+            hits.increment();
+            return markup;
+        }
+        misses.increment();
+        // two threads may build the same page, both results are equal
+        markup = CategoryKeyboardHelper.buildCategoryKeyboard(page, pageSize, entry.categories);
+        entry.pages.set(page, markup);
+        return markup;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.repository.CategoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Category usage increments collected in memory and written to {@code categories.usage_count} periodically, so
+ * recording a transaction does not lock the (often global, shared) category row.
+ * <p>
+ * Each category has a {@link LongAdder}, whose internal stripes keep concurrent increments of a popular category
+ * from contending. A flush drains the adders and adds all deltas with one UPDATE, rows in id order so that flushes
+ * of several instances cannot deadlock; on failure the deltas are put back for the next attempt. Adders are never
+ * removed, there is one per category in use. Increments not yet flushed are lost if the process dies without a
+ * shutdown, which only makes a ranking hint slightly low.
+ */
+@Slf4j
+public class CategoryUsageCounter {
+
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+    private final CategoryRepository categoryRepository;
+    private final Duration flushInterval;
+    private final Counter flushed;
+    private ScheduledExecutorService scheduler;
+
+    public CategoryUsageCounter(CategoryRepository categoryRepository, Duration flushInterval, MeterRegistry meterRegistry) {
+        this.categoryRepository = categoryRepository;
+        this.flushInterval = flushInterval;
+        this.flushed = Counter.builder("categories.usage.flushed")
+                .description("Category usage increments written to the database")
+                .register(meterRegistry);
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "category-usage-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushQuietly();
+    }
+
+    public void increment(Long categoryId) {
+        pending.computeIfAbsent(categoryId, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Writes all pending increments.
+     * @return number of updated categories
+     */
+    synchronized int flush() {
+        TreeMap<Long, Long> deltas = new TreeMap<>();
+        pending.forEach((id, adder) -> {
+            long delta = adder.sumThenReset();
+            if (delta != 0) {
+                deltas.put(id, delta);
+            }
+        });
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        StringJoiner ids = new StringJoiner(",", "{", "}");
+        StringJoiner values = new StringJoiner(",", "{", "}");
+        deltas.forEach((id, delta) -> {
+            ids.add(id.toString());
+            values.add(Long.toString(delta));
+        });
+        try {
+            categoryRepository.addUsage(ids.toString(), values.toString());
+        } catch (RuntimeException e) {
+            deltas.forEach((id, delta) -> pending.computeIfAbsent(id, k -> new LongAdder()).add(delta));
+            throw e;
+        }
+        flushed.increment(deltas.values().stream().mapToLong(Long::longValue).sum());
+        return deltas.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush category usage counters, retrying later: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.service.util.LongBloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chat ids that already have a row in {@code users}, so that registration does not query Postgres per update.
+ * A Bloom filter answers "certainly new" for unseen chats without touching the exact set; the confirmed set
+ * then tells real members from filter false positives. The set is bounded by {@code maxConfirmed}: ids beyond it
+ * are reported unknown, which only costs the caller its idempotent upsert.
+ * <p>
+ * A deleted user is {@link #forget forgotten}: the filter keeps its bits, but without the confirmed entry the
+ * chat is unknown again. Ids registered by another instance are unknown here until confirmed, so "unknown" must
+ * always be handled as "register idempotently".
+ */
+public class ChatIdRegistry {
+
+    private final LongBloomFilter filter;
+    private final Set<Long> confirmed = ConcurrentHashMap.newKeySet();
+    private final int maxConfirmed;
+    private final Counter known;
+    private final Counter filteredOut;
+    private final Counter falsePositives;
+
+    public ChatIdRegistry(long expectedUsers, double falsePositiveRate, int maxConfirmed, MeterRegistry meterRegistry) {
+        this.filter = new LongBloomFilter(expectedUsers, falsePositiveRate);
+        this.maxConfirmed = maxConfirmed;
+        this.known = Counter.builder("users.registry.lookups").tag("result", "known").register(meterRegistry);
+        this.filteredOut = Counter.builder("users.registry.lookups").tag("result", "new").register(meterRegistry);
+        this.falsePositives = Counter.builder("users.registry.lookups").tag("result", "unconfirmed").register(meterRegistry);
+        Gauge.builder("users.registry.confirmed", confirmed, Set::size).register(meterRegistry);
+    }
+
+    /** True if the chat is registered for sure; false means new or not tracked here. */
+    public boolean isKnown(Long chatId) {
+        if (!filter.mightContain(chatId)) {
+            filteredOut.increment();
+            return false;
+        }
+        if (confirmed.contains(chatId)) {
+            known.increment();
+            return true;
+        }
+        falsePositives.increment();
+        return false;
+    }
+
+    /** Records a chat id whose user row is known to exist. */
+    public void confirm(Long chatId) {
+        filter.put(chatId);
+        if (confirmed.size() < maxConfirmed) {
+            confirmed.add(chatId);
+        }
+    }
+
+    /** Drops a chat id whose user row was deleted, so that its next message registers it again. */
+    public void forget(Long chatId) {
+        confirmed.remove(chatId);
+    }
+
+    public int confirmedCount() {
+        return confirmed.size();
+    }
+}
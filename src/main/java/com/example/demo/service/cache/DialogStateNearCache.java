@@ -0,0 +1,208 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.DialogStateData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded local cache of {@link DialogStateData} in front of Redis.
+ * <p>
+ * Entries live no longer than the Redis key: {@code lastUpdated + ttl}, since every save restarts the Redis TTL.
+ * Writes of this node update the local entry and publish {@code nodeId|chatId|epochMillis} on
+ * {@link #CHANNEL}; other nodes replace their entry with a tombstone, so a read that started before the
+ * invalidation arrived cannot put the old value back. Callers always get a copy, the cached instance is never
+ * handed out.
+ * <p>
+ * Pub/sub does not guarantee delivery: a message is lost while a subscriber reconnects or lags behind. Every entry
+ * is therefore also dropped {@code maxAge} after it was cached, so a missed invalidation leaves another node's
+ * write unseen for at most {@code maxAge}, not for the whole Redis TTL.
+ */
+@Slf4j
+public class DialogStateNearCache implements MessageListener {
+
+    public static final String CHANNEL = "dialog-state:invalidate";
+
+    private final boolean enabled;
+    private final int maxSize;
+    private final Duration ttl;
+    private final Duration maxAge;
+    private final StringRedisTemplate redisTemplate;
+    private final Clock clock;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LinkedHashMap<Long, Entry> entries;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter remoteInvalidations;
+    private final Timer invalidationLag;
+
+    public DialogStateNearCache(boolean enabled, int maxSize, Duration ttl, Duration maxAge,
+                                StringRedisTemplate redisTemplate, MeterRegistry meterRegistry, Clock clock) {
+        this.enabled = enabled && maxSize > 0;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.maxAge = maxAge;
+        this.redisTemplate = redisTemplate;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > DialogStateNearCache.this.maxSize;
+            }
+        };
+
+        this.hits = Counter.builder("dialog.state.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("dialog.state.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.remoteInvalidations = Counter.builder("dialog.state.cache.invalidations")
+                .description("Invalidations received from other nodes")
+                .register(meterRegistry);
+        this.invalidationLag = Timer.builder("dialog.state.cache.invalidation.lag")
+                .description("Time from a write on another node to the local eviction")
+                .register(meterRegistry);
+        Gauge.builder("dialog.state.cache.hit.ratio", this, DialogStateNearCache::hitRatio).register(meterRegistry);
+        Gauge.builder("dialog.state.cache.size", this, DialogStateNearCache::size).register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Marks the start of a Redis read; pass the result to {@link #putLoaded(long, Long, DialogStateData)}.
+     */
+    public long beginLoad() {
+        return sequence.get();
+    }
+
+    /**
+     * Cached copy, or null on a miss. A cached absent state is not kept, so null always means "ask Redis".
+     */
+    public DialogStateData get(Long chatId) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(chatId);
+            if (entry != null && entry.state != null) {
+                if (entry.expiresAt > clock.millis()) {
+                    hits.increment();
+                    return entry.state.copy();
+                }
+                entries.remove(chatId);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches a state read from Redis unless an invalidation for the chat arrived after {@code loadStamp}.
+     */
+    public void putLoaded(long loadStamp, Long chatId, DialogStateData state) {
+        if (!enabled || state == null) {
+            return;
+        }
+        synchronized (entries) {
+            Entry current = entries.get(chatId);
+            if (current != null && current.stamp > loadStamp) {
+                return;
+            }
+            entries.put(chatId, new Entry(state.copy(), expiry(state), sequence.get()));
+        }
+    }
+
+    /**
+     * Records a write made by this node and tells the other nodes to drop their copy.
+     */
+    public void written(Long chatId, DialogStateData state) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            long stamp = sequence.incrementAndGet();
+            entries.put(chatId, state == null
+                    ? new Entry(null, Long.MAX_VALUE, stamp)
+                    : new Entry(state.copy(), expiry(state), stamp));
+        }
+        publish(chatId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    void onInvalidation(String payload) {
+        String[] parts = payload.split("\\|");
+        if (parts.length != 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        try {
+            Long chatId = Long.valueOf(parts[1]);
+            long sentAt = Long.parseLong(parts[2]);
+            synchronized (entries) {
+                entries.put(chatId, new Entry(null, Long.MAX_VALUE, sequence.incrementAndGet()));
+            }
+            remoteInvalidations.increment();
+            invalidationLag.record(Math.max(0, clock.millis() - sentAt), TimeUnit.MILLISECONDS);
+        } catch (NumberFormatException e) {
+            log.warn("Malformed dialog state invalidation: {}", payload);
+        }
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    private void publish(Long chatId) {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.convertAndSend(CHANNEL, nodeId + "|" + chatId + "|" + clock.millis());
+        } catch (Exception e) {
+            // other nodes pick the write up once their entry reaches maxAge; the write itself already succeeded
+            log.warn("Failed to publish dialog state invalidation for chat {}: {}", chatId, e.getMessage());
+        }
+    }
+
+    private long expiry(DialogStateData state) {
+        long cachedUntil = clock.millis() + maxAge.toMillis();
+        if (state.getLastUpdated() == null) {
+            return cachedUntil;
+        }
+        long lastUpdated = state.getLastUpdated().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return Math.min(cachedUntil, lastUpdated + ttl.toMillis());
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private record Entry(DialogStateData state, long expiresAt, long stamp) {
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.demo.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Built statistics reports per chat and period, so switching back and forth between periods does not recompute
+ * them. At most {@code maxChats} chats are kept, least recently used first out, and at most
+ * {@value #MAX_REPORTS_PER_CHAT} periods per chat, so custom ranges cannot grow a chat without bound. Expired
+ * reports of a chat are dropped whenever it caches a new one.
+ * <p>
+ * Every chat has a write version that {@code TransactionService} bumps after each committed write of the chat,
+ * dropping its reports. A report whose build started before the bump is returned but not cached, so a build racing
+ * with a write cannot keep the old totals. Writes made by other instances are picked up when a report is older
+ * than {@code ttl}.
+ */
+public class StatsReportCache {
+
+    static final int MAX_REPORTS_PER_CHAT = 8;
+
+    private record Period(LocalDate start, LocalDate end) {
+    }
+
+    private record Report(String text, long builtAt) {
+    }
+
+    private static final class ChatReports {
+        private long version;
+        private final Map<Period, Report> reports = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Period, Report> eldest) {
+                return size() > MAX_REPORTS_PER_CHAT;
+            }
+        };
+    }
+
+    private final Map<Long, ChatReports> chats;
+    private final Duration ttl;
+    private final Clock clock;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public StatsReportCache(int maxChats, Duration ttl, MeterRegistry meterRegistry, Clock clock) {
+        if (maxChats <= 0) {
+            throw new IllegalArgumentException("maxChats must be positive");
+        }
+        this.chats = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ChatReports> eldest) {
+                return size() > maxChats;
+            }
+        };
+        this.ttl = ttl;
+        this.clock = clock;
+        this.hits = Counter.builder("reports.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("reports.cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("reports.cache.chats", this, StatsReportCache::size).register(meterRegistry);
+        Gauge.builder("reports.cache.reports", this, StatsReportCache::reports).register(meterRegistry);
+    }
+
+    public String get(Long chatId, LocalDate start, LocalDate end, Supplier<String> builder) {
+        Period period = new Period(start, end);
+        long now = clock.millis();
+        ChatReports chat;
+        long startVersion;
+        synchronized (this) {
+            chat = chats.computeIfAbsent(chatId, id -> new ChatReports());
+            Report report = chat.reports.get(period);
+            if (report != null && now - report.builtAt() < ttl.toMillis()) {
+                hits.increment();
+                return report.text();
+            }
+            startVersion = chat.version;
+        }
+        misses.increment();
+        String text = builder.get();
+        synchronized (this) {
+            // an evicted chat lost its version, so only the entry the build started from can take the result
+            if (chats.get(chatId) == chat && chat.version == startVersion) {
+                chat.reports.values().removeIf(r -> now - r.builtAt() >= ttl.toMillis());
+                chat.reports.put(period, new Report(text, now));
+            }
+        }
+        return text;
+    }
+
+    /** Drops the chat's reports after a write of its transactions committed. */
+    public synchronized void invalidate(Long chatId) {
+        ChatReports chat = chats.get(chatId);
+        if (chat != null) {
+            chat.version++;
+            chat.reports.clear();
+        }
+    }
+
+    /** Drops all reports, after a change that affects every chat such as a deleted category. */
+    public synchronized void invalidateAll() {
+        for (ChatReports chat : chats.values()) {
+            chat.version++;
+            chat.reports.clear();
+        }
+    }
+
+    public synchronized int size() {
+        return chats.size();
+    }
+
+    /** Number of reports held over all chats. */
+    public synchronized int reports() {
+        int count = 0;
+        for (ChatReports chat : chats.values()) {
+            count += chat.reports.size();
+        }
+        return count;
+    }
+}
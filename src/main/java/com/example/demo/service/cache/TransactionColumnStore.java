@@ -0,0 +1,461 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.Transaction;
+import com.example.demo.model.entity.TransactionType;
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.service.util.FenwickTree;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All transactions of recently active chats held in memory as columns of primitives, with prefix sums over days on
+ * top, so report totals for any period are answered in memory instead of by a database round trip.
+ * <p>
+ * A chat's columns are loaded on its first query and extended by {@link #append} after each committed insert.
+ * Transaction ids are kept too, so a row that the load already read is not added twice; rows committed while the
+ * load runs are kept aside and merged when it finishes. Deletes and category changes drop the columns, they are
+ * reloaded on the next query. Writes of other instances are picked up when the columns are older than {@code ttl}.
+ * <p>
+ * Period totals come from Fenwick trees over epoch days, one per type for sums and counts and one per type and
+ * root category for sums: any range costs O(log days) per tree however long it is, and each appended row updates its
+ * trees in O(log days). The trees cover the days of the rows and a year ahead; a row outside them rebuilds them
+ * from the columns. Rows are kept under the top-level category of their category, so the sums per category
+ * include subcategories, like the database reports.
+ * <p>
+ * Amounts are kept in units of 10<sup>-4</sup>, the scale of the {@code amount} column, and days are UTC epoch days,
+ * the day definition of {@link TransactionRepository}. Columns of the least recently
+ * queried chats are dropped while the total exceeds {@code maxBytes}; a single chat larger than that is still kept.
+ */
+public class TransactionColumnStore {
+
+    private static final int AMOUNT_SCALE = 4;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    /** amounts, days, category slots and types. */
+    private static final int BYTES_PER_ROW = 8 + 4 + 4 + 1;
+    /** Rough size of a boxed set or list element with its entry. */
+    private static final int BYTES_PER_OBJECT = 64;
+
+    public record TypeSum(TransactionType type, BigDecimal total, Long count) implements TransactionRepository.TypeTotal {
+        public TransactionType getType() {
+            return type;
+        }
+
+        public BigDecimal getTotal() {
+            return total;
+        }
+
+        public Long getCount() {
+            return count;
+        }
+    }
+
+    public record CategorySum(Long categoryId, String name, BigDecimal total) implements TransactionRepository.CategoryAmount {
+        public Long getCategoryId() {
+            return categoryId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BigDecimal getTotal() {
+            return total;
+        }
+    }
+
+    private record Row(long id, Long categoryId, String categoryName, TransactionType type, long amount, int day) {
+    }
+
+    /**
+     * The columns of one chat, in the order rows were added. Ids are only needed to recognise rows already held, so
+     * they are kept apart: sorted for the loaded rows, in a set for the few appended later.
+     */
+    private static final class Columns {
+        private long[] amounts;
+        private int[] days;
+        /** Index into {@link #categoryIds}, or -1 for no category. */
+        private int[] slots;
+        private byte[] types;
+        private int size;
+        private long[] loadedIds = new long[0];
+        private final Set<Long> appendedIds = new HashSet<>();
+        private final List<Long> categoryIds = new ArrayList<>();
+        private final List<String> categoryNames = new ArrayList<>();
+        private final Map<Long, Integer> slotOf = new HashMap<>();
+        /** Null until the load has added all rows. */
+        private DayIndex index;
+
+        private Columns(int capacity) {
+            capacity = Math.max(capacity, 16);
+            amounts = new long[capacity];
+            days = new int[capacity];
+            slots = new int[capacity];
+            types = new byte[capacity];
+        }
+
+        private boolean contains(long id) {
+            return Arrays.binarySearch(loadedIds, id) >= 0 || appendedIds.contains(id);
+        }
+
+        private void add(Row row, int today) {
+            if (size == amounts.length) {
+                int capacity = size + (size >> 1);
+                amounts = Arrays.copyOf(amounts, capacity);
+                days = Arrays.copyOf(days, capacity);
+                slots = Arrays.copyOf(slots, capacity);
+                types = Arrays.copyOf(types, capacity);
+            }
+            int slot = row.categoryId() == null ? -1 : slotOf.computeIfAbsent(row.categoryId(), id -> {
+                categoryIds.add(id);
+                categoryNames.add(row.categoryName());
+                return categoryIds.size() - 1;
+            });
+            amounts[size] = row.amount();
+            days[size] = row.day();
+            slots[size] = slot;
+            types[size] = (byte) row.type().ordinal();
+            size++;
+            if (index != null && !index.add(row.day(), row.type().ordinal(), slot, row.amount())) {
+                index = DayIndex.of(this, today);
+            }
+        }
+
+        private long bytes() {
+            return (long) amounts.length * BYTES_PER_ROW + (long) loadedIds.length * Long.BYTES
+                    + (long) (appendedIds.size() + categoryIds.size()) * BYTES_PER_OBJECT
+                    + (index == null ? 0 : index.bytes());
+        }
+    }
+
+    /** Fenwick trees over the days {@code firstDay .. firstDay + size - 1}, position 0 being {@code firstDay}. */
+    private static final class DayIndex {
+        private static final int DAYS_AHEAD = 366;
+
+        private final int firstDay;
+        private final int size;
+        private final FenwickTree[] typeSums = new FenwickTree[TYPES.length];
+        private final FenwickTree[] typeCounts = new FenwickTree[TYPES.length];
+        /** By type and category slot; null where the category has no row of the type. */
+        private final FenwickTree[][] categorySums = new FenwickTree[TYPES.length][0];
+        private int trees;
+
+        private DayIndex(int firstDay, int size) {
+            this.firstDay = firstDay;
+            this.size = size;
+        }
+
+        private static DayIndex of(Columns c, int today) {
+            int first = today;
+            int last = today;
+            for (int i = 0; i < c.size; i++) {
+                first = Math.min(first, c.days[i]);
+                last = Math.max(last, c.days[i]);
+            }
+            DayIndex index = new DayIndex(first, last - first + 1 + DAYS_AHEAD);
+            long[][] typeSums = new long[TYPES.length][index.size];
+            long[][] typeCounts = new long[TYPES.length][index.size];
+            long[][][] categorySums = new long[TYPES.length][c.categoryIds.size()][];
+            for (int i = 0; i < c.size; i++) {
+                int day = c.days[i] - first;
+                int type = c.types[i];
+                typeSums[type][day] += c.amounts[i];
+                typeCounts[type][day]++;
+                int slot = c.slots[i];
+                if (slot >= 0) {
+                    if (categorySums[type][slot] == null) {
+                        categorySums[type][slot] = new long[index.size];
+                    }
+                    categorySums[type][slot][day] += c.amounts[i];
+                }
+            }
+            for (int type = 0; type < TYPES.length; type++) {
+                index.typeSums[type] = FenwickTree.of(typeSums[type]);
+                index.typeCounts[type] = FenwickTree.of(typeCounts[type]);
+                index.categorySums[type] = new FenwickTree[categorySums[type].length];
+                for (int slot = 0; slot < categorySums[type].length; slot++) {
+                    if (categorySums[type][slot] != null) {
+                        index.categorySums[type][slot] = FenwickTree.of(categorySums[type][slot]);
+                        index.trees++;
+                    }
+                }
+            }
+            index.trees += 2 * TYPES.length;
+            return index;
+        }
+
+        /** @return false if the day is not covered, the index must be rebuilt then */
+        private boolean add(int day, int type, int slot, long amount) {
+            int position = day - firstDay;
+            if (position < 0 || position >= size) {
+                return false;
+            }
+            typeSums[type].add(position, amount);
+            typeCounts[type].add(position, 1);
+            if (slot >= 0) {
+                FenwickTree[] trees = categorySums[type];
+                if (slot >= trees.length) {
+                    trees = categorySums[type] = Arrays.copyOf(trees, slot + 1);
+                }
+                if (trees[slot] == null) {
+                    trees[slot] = new FenwickTree(size);
+                    this.trees++;
+                }
+                trees[slot].add(position, amount);
+            }
+            return true;
+        }
+
+        /** Sum of the tree over the days {@code from .. to}, both included; 0 for no tree. */
+        private long sum(FenwickTree tree, int from, int to) {
+            return tree == null ? 0 : tree.rangeSum(from - firstDay, to - firstDay);
+        }
+
+        private long bytes() {
+            return (long) trees * (size + 1) * Long.BYTES;
+        }
+    }
+
+    private static final class Entry {
+        /** Null while the first load runs. */
+        private Columns columns;
+        private long loadedAt;
+        /** Rows committed while the load runs. */
+        private List<Row> pending = new ArrayList<>();
+    }
+
+    private final TransactionRepository transactionRepository;
+    private final boolean enabled;
+    private final long maxBytes;
+    private final Duration ttl;
+    private final Clock clock;
+    private final Map<Long, Entry> chats = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public TransactionColumnStore(TransactionRepository transactionRepository, boolean enabled, long maxBytes,
+                                  Duration ttl, MeterRegistry meterRegistry, Clock clock) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.transactionRepository = transactionRepository;
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        this.clock = clock;
+        this.hits = Counter.builder("reports.column-store.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("reports.column-store.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("reports.column-store.bytes", this, TransactionColumnStore::bytes).register(meterRegistry);
+    }
+
+    /** Whether reports should be answered from here rather than from the database. */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Number and sum of the chat's transactions per type in the period, both days included; O(log days). */
+    public List<TransactionRepository.TypeTotal> totalsByType(Long chatId, LocalDate startDate, LocalDate endDate) {
+        Columns c = columns(chatId);
+        int from = (int) startDate.toEpochDay();
+        int to = (int) endDate.toEpochDay();
+        List<TransactionRepository.TypeTotal> result = new ArrayList<>();
+        synchronized (c) {
+            DayIndex index = c.index;
+            for (int t = 0; t < TYPES.length; t++) {
+                long count = index.sum(index.typeCounts[t], from, to);
+                if (count > 0) {
+                    long total = index.sum(index.typeSums[t], from, to);
+                    result.add(new TypeSum(TYPES[t], BigDecimal.valueOf(total, AMOUNT_SCALE), count));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Up to {@code limit} top-level categories with the largest sums of the type in the period, largest first and by name on
+     * equal sums. Transactions without a category are not listed. O(categories * log days).
+     */
+    public List<TransactionRepository.CategoryAmount> topCategories(Long chatId, TransactionType type, LocalDate startDate,
+                                                                    LocalDate endDate, int limit) {
+        Columns c = columns(chatId);
+        int from = (int) startDate.toEpochDay();
+        int to = (int) endDate.toEpochDay();
+        List<CategorySum> sums = new ArrayList<>();
+        synchronized (c) {
+            DayIndex index = c.index;
+            FenwickTree[] trees = index.categorySums[type.ordinal()];
+            for (int slot = 0; slot < trees.length; slot++) {
+                long total = index.sum(trees[slot], from, to);
+                if (total != 0) {
+                    sums.add(new CategorySum(c.categoryIds.get(slot), c.categoryNames.get(slot),
+                            BigDecimal.valueOf(total, AMOUNT_SCALE)));
+                }
+            }
+        }
+        sums.sort(Comparator.comparing(CategorySum::total).reversed()
+                .thenComparing(CategorySum::name, Comparator.nullsLast(Comparator.naturalOrder())));
+        return new ArrayList<>(sums.subList(0, Math.min(limit, sums.size())));
+    }
+
+    /** Adds a transaction of the chat after its insert committed; does nothing for a chat not held. */
+    public void append(Long chatId, Transaction transaction) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = chats.get(chatId);
+            if (entry == null) {
+                return;
+            }
+            Category root = transaction.getCategory();
+            while (root != null && root.getParent() != null) {
+                root = root.getParent();
+            }
+            Row row = toRow(transaction.getId(), root == null ? null : root.getId(), root == null ? null : root.getName(),
+                    transaction.getType(), transaction.getAmount(), transaction.getOperationTime());
+            if (entry.columns == null) {
+                entry.pending.add(row);
+                return;
+            }
+            Columns c = entry.columns;
+            long before = c.bytes();
+            synchronized (c) {
+                if (!c.contains(row.id())) {
+                    c.add(row, today());
+                    c.appendedIds.add(row.id());
+                }
+            }
+            bytes += c.bytes() - before;
+            evict(chatId);
+        }
+    }
+
+    /** Drops the chat's columns, after a change that an append cannot express such as a delete. */
+    public synchronized void invalidate(Long chatId) {
+        Entry entry = chats.remove(chatId);
+        if (entry != null && entry.columns != null) {
+            bytes -= entry.columns.bytes();
+        }
+    }
+
+    /** Drops all columns, after a change that affects every chat such as a deleted category. */
+    public synchronized void invalidateAll() {
+        chats.clear();
+        bytes = 0;
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private Columns columns(Long chatId) {
+        long now = clock.millis();
+        Entry entry;
+        synchronized (this) {
+            entry = chats.get(chatId);
+            if (entry != null && entry.columns != null && now - entry.loadedAt < ttl.toMillis()) {
+                hits.increment();
+                return entry.columns;
+            }
+            if (entry == null || entry.columns != null) {
+                if (entry != null) {
+                    bytes -= entry.columns.bytes();
+                }
+                entry = new Entry();
+                chats.put(chatId, entry);
+            }
+            // otherwise another load of the chat is running, the first one to finish is kept
+        }
+        misses.increment();
+        Columns loaded = load(chatId);
+        synchronized (this) {
+            if (chats.get(chatId) != entry) {
+                return loaded; // invalidated while loading, the rows read may be outdated already
+            }
+            if (entry.columns != null) {
+                return entry.columns;
+            }
+            for (Row row : entry.pending) {
+                if (!loaded.contains(row.id())) {
+                    loaded.add(row, today());
+                    loaded.appendedIds.add(row.id());
+                }
+            }
+            entry.pending = null;
+            entry.columns = loaded;
+            entry.loadedAt = now;
+            bytes += loaded.bytes();
+            evict(chatId);
+            return loaded;
+        }
+    }
+
+    private Columns load(Long chatId) {
+        List<TransactionRepository.TransactionFact> facts = transactionRepository.findFacts(chatId);
+        Map<Long, TransactionRepository.CategoryRoot> roots = new HashMap<>();
+        for (TransactionRepository.CategoryRoot root : transactionRepository.findCategoryRoots(chatId)) {
+            roots.put(root.getCategoryId(), root);
+        }
+        Columns c = new Columns(facts.size());
+        long[] ids = new long[facts.size()];
+        int i = 0;
+        // no index yet, it is built once all rows are in
+        for (TransactionRepository.TransactionFact f : facts) {
+            TransactionRepository.CategoryRoot root = roots.get(f.getCategoryId());
+            c.add(toRow(f.getId(), root == null ? f.getCategoryId() : root.getRootId(),
+                    root == null ? f.getCategoryName() : root.getRootName(), f.getType(), f.getAmount(),
+                    f.getOperationTime()), 0);
+            ids[i++] = f.getId();
+        }
+        Arrays.sort(ids);
+        c.loadedIds = ids;
+        c.index = DayIndex.of(c, today());
+        return c;
+    }
+
+    private Row toRow(Long id, Long categoryId, String categoryName, TransactionType type, BigDecimal amount,
+                      Instant operationTime) {
+        // rounded like the numeric column rounds on insert
+        long units = amount.setScale(AMOUNT_SCALE, RoundingMode.HALF_UP).movePointRight(AMOUNT_SCALE).longValueExact();
+        return new Row(id, categoryId, categoryName, type, units,
+                (int) LocalDate.ofInstant(operationTime, ZoneOffset.UTC).toEpochDay());
+    }
+
+    private int today() {
+        return (int) LocalDate.ofInstant(clock.instant(), ZoneOffset.UTC).toEpochDay();
+    }
+
+    private void evict(Long keep) {
+        Iterator<Map.Entry<Long, Entry>> it = chats.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<Long, Entry> eldest = it.next();
+            if (eldest.getKey().equals(keep) || eldest.getValue().columns == null) {
+                continue;
+            }
+            bytes -= eldest.getValue().columns.bytes();
+            it.remove();
+        }
+    }
+}
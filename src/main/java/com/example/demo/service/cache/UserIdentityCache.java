@@ -0,0 +1,66 @@
+package com.example.demo.service.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chat id to {@code users.id} mapping for the write path, so that a transaction can reference its owner by id
+ * instead of loading the user row. Bounded to {@code maxEntries}, least recently used ids are evicted first.
+ * <p>
+ * A user id never changes for a chat, so entries only go stale when the user is deleted; {@code UserService}
+ * evicts them then. A deletion made by another instance is not seen here: a write referencing the stale id fails
+ * on the owner foreign key instead of creating an orphan.
+ */
+public class UserIdentityCache {
+
+    private final Map<Long, Long> userIds;
+    private final Counter hits;
+    private final Counter misses;
+
+    public UserIdentityCache(int maxEntries, MeterRegistry meterRegistry) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.userIds = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = Counter.builder("users.identity.lookups").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("users.identity.lookups").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("users.identity.size", this, UserIdentityCache::size).register(meterRegistry);
+    }
+
+    /** @return the cached user id, or {@code null} if the chat is not cached */
+    public Long get(Long chatId) {
+        Long userId;
+        synchronized (userIds) {
+            userId = userIds.get(chatId);
+        }
+        (userId != null ? hits : misses).increment();
+        return userId;
+    }
+
+    public void put(Long chatId, Long userId) {
+        synchronized (userIds) {
+            userIds.put(chatId, userId);
+        }
+    }
+
+    public void evict(Long chatId) {
+        synchronized (userIds) {
+            userIds.remove(chatId);
+        }
+    }
+
+    public int size() {
+        synchronized (userIds) {
+            return userIds.size();
+        }
+    }
+}
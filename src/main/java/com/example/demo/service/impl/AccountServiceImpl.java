@@ -32,15 +32,9 @@ public class AccountServiceImpl implements AccountService {
         if (type == null) throw new IllegalArgumentException("type is required");
         validateCurrency(currency);
 
-        User owner = userRepository.findByChatId(chatId)
-                .orElseThrow(() -> new NotFoundException("Owner user not found: " + chatId));
-
-        Account acc = new Account();
-        acc.setOwner(owner);
-        acc.setName(name.trim());
-        acc.setType(type);
-        acc.setCurrency(currency.trim().toUpperCase());
-        return accountRepository.save(acc);
+        // Account.owner joins on users.chat_id, so Hibernate needs the loaded user rather than an id reference
+        User owner = findOwner(chatId);
+        return saveNewAccount(owner, name, type, currency);
     }
 
     @Override
@@ -101,13 +95,11 @@ public class AccountServiceImpl implements AccountService {
     @Override
     @Transactional
     public Account findOrCreateDefaultAccount(Long chatId) {
-        User owner = userRepository.findByChatId(chatId)
-                .orElseThrow(() -> new NotFoundException("Owner user not found: " + chatId));
-
         List<Account> accounts = getAccountsByChatId(chatId, false);
         if (accounts.isEmpty()) {
-            // Create a default account if none exist
-            return createAccount(chatId, owner.getFirstName() + "'s CASH Account", AccountType.CASH, "PLN");
+            // Create a default account if none exist; the owner is only loaded here
+            User owner = findOwner(chatId);
+            return saveNewAccount(owner, owner.getFirstName() + "'s CASH Account", AccountType.CASH, "PLN");
         }
         return accounts.get(0); // TODO: расширить выбор аккаунта позже
     }
@@ -144,6 +136,20 @@ public class AccountServiceImpl implements AccountService {
         return markup;
     }
 
+    private User findOwner(Long chatId) {
+        return userRepository.findByChatId(chatId)
+                .orElseThrow(() -> new NotFoundException("Owner user not found: " + chatId));
+    }
+
+    private Account saveNewAccount(User owner, String name, AccountType type, String currency) {
+        Account acc = new Account();
+        acc.setOwner(owner);
+        acc.setName(name.trim());
+        acc.setType(type);
+        acc.setCurrency(currency.trim().toUpperCase());
+        return accountRepository.save(acc);
+    }
+
     private void validateCurrency(String currency) {
         if (currency == null || currency.isBlank()) {
             throw new IllegalArgumentException("currency is required");
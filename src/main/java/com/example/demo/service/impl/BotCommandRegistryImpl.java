@@ -1,32 +1,76 @@
 package com.example.demo.service.impl;
 
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
 import com.example.demo.service.BotCommandHandler;
 import com.example.demo.service.BotCommandRegistry;
+import com.example.demo.service.DialogStateService;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
 
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.example.demo.service.util.TelegramUpdateHelper.*;
 
 /**
  * In-memory thread-safe implementation of BotCommandRegistry.
  * Spring автоматически инжектит все бины BotCommandHandler через конструктор.
+ * <p>
+ * Routing index is built once from handler declarations ({@link BotCommandHandler#menuTexts()},
+ * {@link BotCommandHandler#callbackPrefixes()}, {@link BotCommandHandler#dialogStates()}): an update is matched
+ * by exact menu text, callback data prefix and current dialog state, and the dialog state is read once per update.
+ * Handlers without declarations are asked for every update as before. When several handlers match they are tried
+ * in handler list order (Spring {@code @Order}, then bean registration order).
  */
 @Slf4j
 @Service
 public class BotCommandRegistryImpl implements BotCommandRegistry {
 
-    private final CopyOnWriteArrayList<BotCommandHandler> handlers;
+    private final List<BotCommandHandler> handlers;
+    private final DialogStateService dialogStateService;
+
+    private volatile RoutingIndex index;
 
-    @Autowired
     public BotCommandRegistryImpl(List<BotCommandHandler> handlers) {
-        this.handlers = new CopyOnWriteArrayList<>(handlers);
+        this(handlers, null);
+    }
+
+    @Autowired
+    public BotCommandRegistryImpl(List<BotCommandHandler> handlers, DialogStateService dialogStateService) {
+        this.handlers = List.copyOf(handlers);
+        this.dialogStateService = dialogStateService;
+    }
+
+    /**
+     * Builds the routing index at startup; registries created outside Spring build it on the first valid update.
+     */
+    @PostConstruct
+    void init() {
+        index();
+    }
+
+    private RoutingIndex index() {
+        RoutingIndex current = index;
+        if (current == null) {
+            synchronized (this) {
+                current = index;
+                if (current == null) {
+                    current = new RoutingIndex(handlers);
+                    index = current;
+                }
+            }
+        }
+        return current;
     }
 
     @Override
@@ -34,10 +78,17 @@ public class BotCommandRegistryImpl implements BotCommandRegistry {
         if (!isValid(update)) {
             return Optional.empty();
         }
-        for (BotCommandHandler handler : handlers) {
-            if (safeSupports(handler, update)) {
+        RoutingIndex routing = index();
+        Long chatId = getChatId(update);
+        String text = getEffectiveText(update);
+        DialogStateData state = routing.indexed.isEmpty() ? null : loadState(chatId);
+
+        BitSet candidates = routing.candidates(update, text, state);
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            BotCommandHandler handler = handlers.get(i);
+            if (safeSupports(handler, update, state, routing.indexed.get(i))) {
                 try {
-                    return Optional.of(handler.handle(getChatId(update), getEffectiveText(update)));
+                    return Optional.of(handler.handle(chatId, text));
                 } catch (Exception e) {
                     log.error("Handler {} failed while handling message: {}", handler.getClass().getSimpleName(), e.getMessage(), e);
                     // Переходим к следующему обработчику как fallback
@@ -47,13 +98,94 @@ public class BotCommandRegistryImpl implements BotCommandRegistry {
         return Optional.empty();
     }
 
+    private DialogStateData loadState(Long chatId) {
+        if (dialogStateService == null || chatId == null) {
+            return null;
+        }
+        try {
+            return dialogStateService.getState(chatId);
+        } catch (Exception e) {
+            log.warn("Failed to load dialog state for chat {}: {}", chatId, e.getMessage());
+            return null;
+        }
+    }
 
-    private boolean safeSupports(BotCommandHandler handler, Update update) {
+    private boolean safeSupports(BotCommandHandler handler, Update update, DialogStateData state, boolean indexedHandler) {
         try {
-            return handler.supports(update);
+            return indexedHandler ? handler.supports(update, state) : handler.supports(update);
         } catch (Exception e) {
             log.warn("Handler {} threw exception in supports(): {}", handler.getClass().getSimpleName(), e.getMessage());
             return false;
         }
     }
+
+    /**
+     * Handler positions keyed by menu text, callback key and dialog state. Bit {@code i} is {@code handlers.get(i)},
+     * so iterating a candidate set visits handlers in list order.
+     */
+    private static final class RoutingIndex {
+        private final Map<String, BitSet> byMenuText = new HashMap<>();
+        private final Map<String, BitSet> byCallbackPrefix = new HashMap<>();
+        private final Map<DialogStateType, BitSet> byState = new EnumMap<>(DialogStateType.class);
+        private final BitSet indexed = new BitSet();
+        private final BitSet unindexed = new BitSet();
+
+        private RoutingIndex(List<BotCommandHandler> handlers) {
+            for (int i = 0; i < handlers.size(); i++) {
+                BotCommandHandler handler = handlers.get(i);
+                boolean declared = false;
+                for (String text : handler.menuTexts()) {
+                    byMenuText.computeIfAbsent(normalize(text), k -> new BitSet()).set(i);
+                    declared = true;
+                }
+                for (String prefix : handler.callbackPrefixes()) {
+                    if (!prefix.equals(callbackKey(prefix))) {
+                        throw new IllegalArgumentException("Callback prefix must end with its first ':' or contain none: " + prefix);
+                    }
+                    byCallbackPrefix.computeIfAbsent(prefix, k -> new BitSet()).set(i);
+                    declared = true;
+                }
+                for (DialogStateType state : handler.dialogStates()) {
+                    byState.computeIfAbsent(state, k -> new BitSet()).set(i);
+                    declared = true;
+                }
+                (declared ? indexed : unindexed).set(i);
+            }
+            log.info("Command routing index: {} menu texts, {} callback prefixes, {} states, {} unindexed handler(s)",
+                    byMenuText.size(), byCallbackPrefix.size(), byState.size(), unindexed.cardinality());
+        }
+
+        private BitSet candidates(Update update, String text, DialogStateData state) {
+            BitSet matched = (BitSet) unindexed.clone();
+            if (text != null) {
+                orInto(matched, byMenuText.get(normalize(text)));
+                if (hasCallback(update)) {
+                    orInto(matched, byCallbackPrefix.get(callbackKey(text)));
+                }
+            }
+            if (state != null && state.getState() != null) {
+                orInto(matched, byState.get(state.getState()));
+            }
+            return matched;
+        }
+
+        private static void orInto(BitSet target, BitSet source) {
+            if (source != null) {
+                target.or(source);
+            }
+        }
+    }
+
+    /**
+     * Callback data follows a {@code key:value} convention, so the key up to and including the first ':'
+     * (or the whole data when there is none) is what handlers declare and what the index is keyed by.
+     */
+    private static String callbackKey(String data) {
+        int colon = data.indexOf(':');
+        return colon < 0 ? data : data.substring(0, colon + 1);
+    }
+
+    private static String normalize(String text) {
+        return text.trim().toLowerCase(Locale.ROOT);
+    }
 }
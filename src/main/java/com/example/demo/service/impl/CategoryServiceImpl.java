@@ -5,13 +5,27 @@ import com.example.demo.model.entity.Category;
 import com.example.demo.model.entity.CategoryType;
 import com.example.demo.model.entity.User;
 import com.example.demo.repository.CategoryRepository;
+import com.example.demo.repository.TransactionRepository;
 import com.example.demo.repository.UserRepository;
 import com.example.demo.service.CategoryService;
+import com.example.demo.service.cache.CategoryFrecency;
+import com.example.demo.service.cache.CategoryIndexCache;
+import com.example.demo.service.cache.CategoryKeyboardCache;
+import com.example.demo.service.cache.CategoryUsageCounter;
+import com.example.demo.service.cache.StatsReportCache;
+import com.example.demo.service.cache.TransactionColumnStore;
+import com.example.demo.service.util.CategoryIndex;
+import com.example.demo.service.util.CategoryMatcher;
+import com.example.demo.service.util.TransactionHooks;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.stream.Collectors;
@@ -22,24 +36,47 @@ public class CategoryServiceImpl implements CategoryService {
 
     private final CategoryRepository categoryRepository;
     private final UserRepository userRepository;
+    private final CategoryIndexCache categoryIndexCache;
+    private final CategoryUsageCounter categoryUsageCounter;
+    private final CategoryFrecency categoryFrecency;
+    private final TransactionRepository transactionRepository;
+    private final CategoryKeyboardCache categoryKeyboardCache;
+    private final StatsReportCache statsReportCache;
+    private final TransactionColumnStore transactionColumnStore;
+
+    /** Recent transactions read to rank categories of a chat that has no frecency profile in memory. */
+    private static final int FRECENCY_SEED_SIZE = 200;
 
     @Override
-    public List<String> getAllCategoryNames() {
-        // Возвращаем отсортированный список уникальных имен (глобальных и пользовательских)
-        return categoryRepository.findAll().stream()
-                .map(Category::getName)
-                .distinct()
+    public List<String> getAllCategoryNames(Long chatId) {
+        if (chatId == null) {
+            throw new IllegalArgumentException("chatId must not be null");
+        }
+        // Уникальные имена глобальных и собственных категорий пользователя
+        return categoryRepository.findVisibleNames(chatId).stream()
                 .sorted(String.CASE_INSENSITIVE_ORDER)
                 .collect(Collectors.toList());
     }
 
     @Override
-    public List<Category> getAllCategories() {
-        return categoryRepository.findAll().stream()
+    public List<Category> getAllCategories(Long chatId) {
+        if (chatId == null) {
+            throw new IllegalArgumentException("chatId must not be null");
+        }
+        return categoryRepository.findVisible(chatId).stream()
                 .sorted(Comparator.comparing(Category::getName, String.CASE_INSENSITIVE_ORDER))
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public Category getCategoryById(Long id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Category id must not be null");
+        }
+        return categoryRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Category not found with ID: " + id));
+    }
+
     @Override
     public Category getCategoryByName(String name, CategoryType categoryType) {
         if (name == null || name.isBlank()) {
@@ -55,11 +92,29 @@ public class CategoryServiceImpl implements CategoryService {
         if (type == null) {
             throw new IllegalArgumentException("Category type must not be null");
         }
-        return categoryRepository.findByType(type).stream()
+        return categoryRepository.findByTypeAndOwnerIsNull(type).stream()
                 .sorted(Comparator.comparing(Category::getUsageCount).reversed().thenComparing(Category::getName, String.CASE_INSENSITIVE_ORDER))
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<Category> getCategoriesByType(Long chatId, CategoryType type) {
+        if (chatId == null) {
+            throw new IllegalArgumentException("chatId must not be null");
+        }
+        return keyboardOrder(categoryIndex(chatId, type), frecentRanking(chatId));
+    }
+
+    @Override
+    public InlineKeyboardMarkup getCategoryKeyboard(Long chatId, CategoryType type, int page) {
+        if (chatId == null) {
+            throw new IllegalArgumentException("chatId must not be null");
+        }
+        CategoryIndex index = categoryIndex(chatId, type);
+        List<Long> ranking = frecentRanking(chatId);
+        return categoryKeyboardCache.page(chatId, type, index, ranking, page, () -> keyboardOrder(index, ranking));
+    }
+
     @Override
     public List<Category> getCategoriesByOwnerChatId(Long chatId) {
         if (chatId == null) {
@@ -73,33 +128,8 @@ public class CategoryServiceImpl implements CategoryService {
     @Override
     @Transactional
     public Category createCategory(String name, String type, Long ownerChatId) {
-        if (name == null || name.isBlank()) {
-            throw new IllegalArgumentException("Category name must not be blank");
-        }
-        String trimmedName = name.trim();
-        CategoryType categoryType = parseType(type);
-
-        Category category = new Category();
-        category.setName(trimmedName);
-        category.setType(categoryType);
-
-        if (ownerChatId != null) {
-            // Проверка дубликата для пользователя
-            if (categoryRepository.existsByNameIgnoreCaseAndOwnerChatId(trimmedName, ownerChatId)) {
-                throw new IllegalArgumentException("Category already exists for user chatId=" + ownerChatId + ": " + trimmedName);
-            }
-            User owner = userRepository.findByChatId(ownerChatId)
-                    .orElseThrow(() -> new NotFoundException("User not found by chatId=" + ownerChatId));
-            category.setOwner(owner);
-        } else {
-            // Глобальная категория
-            if (categoryRepository.existsByNameIgnoreCaseAndOwnerIsNull(trimmedName)) {
-                throw new IllegalArgumentException("Global category already exists: " + trimmedName);
-            }
-            category.setOwner(null);
-        }
-
-        return categoryRepository.save(category);
+        Category category = newCategory(name, parseType(type), ownerChatId);
+        return saveWithClosure(category, null, ownerChatId);
     }
 
     @Override
@@ -108,7 +138,13 @@ public class CategoryServiceImpl implements CategoryService {
         if (name == null || name.isBlank()) {
             throw new IllegalArgumentException("Category name must not be blank");
         }
-        categoryRepository.deleteByName(name.trim());
+        String trimmedName = name.trim();
+        for (Long id : categoryRepository.findIdsByName(trimmedName)) {
+            categoryRepository.detachSubtree(id);
+            categoryRepository.promoteChildren(id);
+        }
+        categoryRepository.deleteByName(trimmedName);
+        TransactionHooks.afterCommit(this::invalidateAfterDelete);
     }
 
     @Override
@@ -120,7 +156,10 @@ public class CategoryServiceImpl implements CategoryService {
         if (!categoryRepository.existsById(category.getId())) {
             throw new NotFoundException("Category not found with ID: " + category.getId());
         }
+        categoryRepository.detachSubtree(category.getId());
+        categoryRepository.promoteChildren(category.getId());
         categoryRepository.delete(category);
+        TransactionHooks.afterCommit(this::invalidateAfterDelete);
     }
 
     @Override
@@ -138,23 +177,111 @@ public class CategoryServiceImpl implements CategoryService {
     }
 
     @Override
-    public List<Category> getSimilarCategory(String name, Long ownerChatId) {
+    public List<Category> getSimilarCategory(String name, Long ownerChatId, CategoryType type, int limit) {
         if (name == null || name.isBlank()) {
             throw new IllegalArgumentException("Category name must not be blank");
         }
-        String trimmedName = name.trim();
-        return categoryRepository.findSimilarByName(trimmedName, ownerChatId);
+        return categoryIndex(ownerChatId, type).suggester().suggest(name, limit);
     }
 
     @Override
-    public void incrementCategoryUsage(Category category) {
+    public void incrementCategoryUsage(Long chatId, Category category) {
         if (category == null || category.getId() == null) {
             throw new IllegalArgumentException("Category must not be null and must have an ID");
         }
-        Category existing = categoryRepository.findById(category.getId())
-                .orElseThrow(() -> new NotFoundException("Category not found with ID: " + category.getId()));
-        existing.setUsageCount(existing.getUsageCount() + 1);
-        categoryRepository.save(existing);
+        // written in batches by CategoryUsageCounter, the transaction itself does not touch the category row;
+        // counted once the transaction commits, a rolled back insert is not a use
+        Long categoryId = category.getId();
+        TransactionHooks.afterCommit(() -> {
+            categoryUsageCounter.increment(categoryId);
+            categoryFrecency.record(chatId, categoryId);
+        });
+    }
+
+    @Override
+    public CategoryMatcher getCategoryMatcher(Long chatId, CategoryType type) {
+        return categoryIndex(chatId, type).matcher();
+    }
+
+    private List<Long> frecentRanking(Long chatId) {
+        List<Long> ranking = categoryFrecency.ranking(chatId);
+        if (ranking != null) {
+            return ranking;
+        }
+        return categoryFrecency.seed(chatId, transactionRepository
+                .findRecentCategoryUses(chatId, PageRequest.of(0, FRECENCY_SEED_SIZE)).stream()
+                .map(use -> new CategoryFrecency.Use(use.getCategoryId(), use.getPostedTime()))
+                .toList());
+    }
+
+    /** The chat's frecent categories first, then the rest by global usage. */
+    private static List<Category> keyboardOrder(CategoryIndex index, List<Long> frecent) {
+        List<Category> result = new ArrayList<>(index.ranked().size());
+        HashSet<Long> placed = new HashSet<>();
+        for (Long id : frecent) {
+            // the profile spans both types, the index holds only this type
+            Category category = index.byId().get(id);
+            if (category != null) {
+                result.add(category);
+                placed.add(id);
+            }
+        }
+        for (Category category : index.ranked()) {
+            if (!placed.contains(category.getId())) {
+                result.add(category);
+            }
+        }
+        return result;
+    }
+
+    private CategoryIndex categoryIndex(Long chatId, CategoryType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Category type must not be null");
+        }
+        return categoryIndexCache.get(chatId, type, () -> CategoryIndex.of(categoryRepository.findVisibleByType(type, chatId)));
+    }
+
+    private Category newCategory(String name, CategoryType type, Long ownerChatId) {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Category name must not be blank");
+        }
+        String trimmedName = name.trim();
+
+        Category category = new Category();
+        category.setName(trimmedName);
+        category.setType(type);
+
+        if (ownerChatId != null) {
+            // Проверка дубликата для пользователя
+            if (categoryRepository.existsByNameIgnoreCaseAndOwnerChatId(trimmedName, ownerChatId)) {
+                throw new IllegalArgumentException("Category already exists for user chatId=" + ownerChatId + ": " + trimmedName);
+            }
+            User owner = userRepository.findByChatId(ownerChatId)
+                    .orElseThrow(() -> new NotFoundException("User not found by chatId=" + ownerChatId));
+            category.setOwner(owner);
+        } else {
+            // Глобальная категория
+            if (categoryRepository.existsByNameIgnoreCaseAndOwnerIsNull(trimmedName)) {
+                throw new IllegalArgumentException("Global category already exists: " + trimmedName);
+            }
+            category.setOwner(null);
+        }
+        return category;
+    }
+
+    /** Saves a new category together with its closure rows, so it rolls up into its ancestors right away. */
+    private Category saveWithClosure(Category category, Long parentId, Long ownerChatId) {
+        Category saved = categoryRepository.save(category);
+        categoryRepository.insertClosure(saved.getId(), parentId);
+        TransactionHooks.afterCommit(ownerChatId != null ? () -> categoryIndexCache.invalidate(ownerChatId) : categoryIndexCache::invalidateAll);
+        return saved;
+    }
+
+    /** Deleted categories drop out of every index and of the category breakdown of every cached report or column. */
+    private void invalidateAfterDelete() {
+        categoryIndexCache.invalidateAll();
+        statsReportCache.invalidateAll();
+        transactionColumnStore.invalidateAll();
     }
 
     private CategoryType parseType(String type) {
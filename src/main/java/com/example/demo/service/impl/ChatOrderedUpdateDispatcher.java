@@ -0,0 +1,186 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.service.UpdateDispatcher;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded-pool implementation of {@link UpdateDispatcher}.
+ * <p>
+ * Every chat gets a lane (FIFO queue). A lane is drained by at most one pool thread at a time, which keeps
+ * updates of the same chat strictly ordered while different chats are processed in parallel.
+ * A lane gives its thread back after {@code maxBatch} tasks so a single busy chat cannot starve the others.
+ * Idle lanes are removed, so memory is proportional to the number of chats with pending work.
+ */
+@Slf4j
+public class ChatOrderedUpdateDispatcher implements UpdateDispatcher {
+
+    private static final long UNKEYED_LANE = 0L;
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final int maxBatch;
+    private final long slowWaitThresholdNanos;
+    private final Timer waitTimer;
+
+    public ChatOrderedUpdateDispatcher(int threads, int maxBatch, Duration slowWaitThreshold, MeterRegistry meterRegistry) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be positive");
+        this.maxBatch = maxBatch;
+        this.slowWaitThresholdNanos = slowWaitThreshold.toNanos();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), namedThreads("update-dispatch-"));
+        this.executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("bot.dispatcher.queue.depth", queueDepth, AtomicInteger::get)
+                .description("Updates accepted but not yet started")
+                .register(meterRegistry);
+        Gauge.builder("bot.dispatcher.active.chats", lanes, ConcurrentHashMap::size)
+                .description("Chats with pending or running updates")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("bot.dispatcher.wait")
+                .description("Time an update waits in its chat lane before processing starts")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void dispatch(Long chatId, Runnable task) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Update dispatcher is shut down");
+        }
+        long key = chatId != null ? chatId : UNKEYED_LANE;
+        Pending pending = new Pending(task, System.nanoTime());
+        queueDepth.incrementAndGet();
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(key, Lane::new);
+            synchronized (lane) {
+                if (lane.retired) {
+                    // Lane was removed concurrently after becoming idle; retry with a fresh one
+                    continue;
+                }
+                lane.pending.add(pending);
+                if (lane.running) {
+                    return;
+                }
+                lane.running = true;
+            }
+            if (!schedule(lane)) {
+                log.error("Update dispatcher is shut down, dropping updates for chat {}", lane.chatId);
+                synchronized (lane) {
+                    queueDepth.addAndGet(-lane.pending.size());
+                    lane.pending.clear();
+                    lane.running = false;
+                    lane.retired = true;
+                    lanes.remove(lane.chatId, lane);
+                }
+                throw new RejectedExecutionException("Update dispatcher is shut down");
+            }
+            return;
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Stops accepting work and waits for already queued updates to complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Update dispatcher did not drain in time, {} updates dropped", queueDepth.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return false if the pool is shut down and did not take the lane */
+    private boolean schedule(Lane lane) {
+        try {
+            executor.execute(() -> drain(lane));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void drain(Lane lane) {
+        while (drainBatch(lane)) {
+            // Batch limit reached: requeue the lane behind other chats, it stays marked as running
+            if (schedule(lane)) {
+                return;
+            }
+            // shutting down: the lane's updates were accepted, finish them on this thread instead of dropping them
+        }
+    }
+
+    /** @return true if the lane still has updates after {@code maxBatch} of them ran */
+    private boolean drainBatch(Lane lane) {
+        for (int processed = 0; processed < maxBatch; processed++) {
+            Pending next;
+            synchronized (lane) {
+                next = lane.pending.poll();
+                if (next == null) {
+                    lane.running = false;
+                    lane.retired = true;
+                    lanes.remove(lane.chatId, lane);
+                    return false;
+                }
+            }
+            queueDepth.decrementAndGet();
+            long waited = System.nanoTime() - next.enqueuedAt;
+            waitTimer.record(waited, TimeUnit.NANOSECONDS);
+            if (waited > slowWaitThresholdNanos) {
+                log.warn("Update for chat {} waited {} ms in dispatcher lane", lane.chatId, TimeUnit.NANOSECONDS.toMillis(waited));
+            }
+            try {
+                next.task.run();
+            } catch (Exception e) {
+                log.error("Update task for chat {} failed: {}", lane.chatId, e.getMessage(), e);
+            }
+        }
+        return true;
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread t = new Thread(runnable, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private static final class Lane {
+        private final long chatId;
+        private final Queue<Pending> pending = new ArrayDeque<>();
+        private boolean running;
+        private boolean retired;
+
+        private Lane(long chatId) {
+            this.chatId = chatId;
+        }
+    }
+
+    private record Pending(Runnable task, long enqueuedAt) {}
+}
@@ -0,0 +1,155 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One-off fill of {@code transaction_daily_totals} from the transactions recorded before the table existed.
+ * <p>
+ * Work is partitioned by owner: user ids are read in keyset pages and every owner is rebuilt by one of
+ * {@code threads} workers in its own database transaction, which locks the user row, deletes the owner's totals and
+ * recomputes them with one grouped INSERT. The lock keeps new transactions of that owner waiting until the rebuild
+ * commits, after which they add to the rebuilt rows; owners not reached yet already collect new transactions
+ * and are rebuilt from scratch later. Rebuilding is idempotent, so a run interrupted by a restart simply starts
+ * over; the run is recorded as complete only when every owner succeeded.
+ */
+@Slf4j
+public class DailyTotalsBackfill {
+
+    private final TransactionRepository transactionRepository;
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int threads;
+    private final int pageSize;
+    private final Counter rebuilt;
+    private ExecutorService runner;
+
+    public DailyTotalsBackfill(TransactionRepository transactionRepository, UserRepository userRepository,
+                               TransactionTemplate transactionTemplate, int threads, int pageSize,
+                               MeterRegistry meterRegistry) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.transactionRepository = transactionRepository;
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.threads = threads;
+        this.pageSize = pageSize;
+        this.rebuilt = Counter.builder("reports.daily-totals.backfilled")
+                .description("Owners whose daily totals were rebuilt from transactions")
+                .register(meterRegistry);
+    }
+
+    /** Runs the backfill in the background unless it completed before. */
+    public void start() {
+        runner = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "daily-totals-backfill");
+            t.setDaemon(true);
+            return t;
+        });
+        runner.execute(() -> {
+            try {
+                if (transactionRepository.isDailyTotalsBackfilled()) {
+                    return;
+                }
+                int owners = run();
+                transactionRepository.markDailyTotalsBackfilled();
+                log.info("Daily totals backfilled for {} owners", owners);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | ExecutionException e) {
+                log.warn("Daily totals backfill did not complete, it is retried on next start: {}", e.getMessage());
+            }
+        });
+    }
+
+    public void shutdown() {
+        if (runner != null) {
+            runner.shutdownNow();
+        }
+    }
+
+    /**
+     * Rebuilds the totals of every owner.
+     * @return number of owners
+     * @throws ExecutionException if an owner failed; the other owners are still processed
+     */
+    int run() throws InterruptedException, ExecutionException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new WorkerThreads());
+        int failed = 0;
+        ExecutionException firstFailure = null;
+        int owners = 0;
+        try {
+            long afterId = 0;
+            while (true) {
+                List<Long> ids = userRepository.findIdsAfter(afterId, PageRequest.of(0, pageSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                List<Future<?>> page = new ArrayList<>(ids.size());
+                for (Long ownerId : ids) {
+                    page.add(workers.submit(() -> rebuild(ownerId)));
+                }
+                // one page in flight at a time keeps the queue bounded
+                for (Future<?> f : page) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        failed++;
+                        if (firstFailure == null) {
+                            firstFailure = e;
+                        }
+                    }
+                }
+                owners += ids.size();
+                afterId = ids.get(ids.size() - 1);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        if (firstFailure != null) {
+            log.warn("Daily totals backfill failed for {} of {} owners", failed, owners);
+            throw firstFailure;
+        }
+        return owners;
+    }
+
+    private void rebuild(Long ownerId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (userRepository.lockById(ownerId).isEmpty()) {
+                return; // deleted meanwhile, its totals went with it
+            }
+            transactionRepository.deleteDailyTotals(ownerId);
+            transactionRepository.rebuildDailyTotals(ownerId);
+        });
+        rebuilt.increment();
+    }
+
+    private static final class WorkerThreads implements ThreadFactory {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "daily-totals-backfill-" + next.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -2,32 +2,56 @@ package com.example.demo.service.impl;
 
 import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.DialogStateType;
-import com.example.demo.repository.DialogStateDataRepository;
+import com.example.demo.repository.DialogStateStore;
 import com.example.demo.service.DialogStateService;
+import com.example.demo.service.UpdateContext;
+import com.example.demo.service.cache.DialogStateNearCache;
 import jakarta.transaction.Transactional;
-import lombok.RequiredArgsConstructor;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
+/**
+ * Dialog state backed by a {@link DialogStateStore} (Redis or in-process). While an {@link UpdateContext} is open for the chat, reads are served from the
+ * context after the first one and writes are staged there until {@link #flush(UpdateContext)}.
+ * Reads that reach storage go through the optional {@link DialogStateNearCache} first.
+ */
 @Service
-@RequiredArgsConstructor
 public class DialogStateServiceImpl implements DialogStateService {
 
-    private final DialogStateDataRepository dialogDataRepository;
+    /** Retries when the state kept its type but its fields were changed concurrently. */
+    private static final int MAX_TRANSITION_ATTEMPTS = 5;
+
+    private final DialogStateStore dialogStateStore;
+    /** Null with the in-memory store. */
+    private final DialogStateNearCache nearCache;
+
+    public DialogStateServiceImpl(DialogStateStore dialogStateStore, @Nullable DialogStateNearCache nearCache) {
+        this.dialogStateStore = dialogStateStore;
+        this.nearCache = nearCache;
+    }
 
     @Override
     public DialogStateType getStateType(Long chatId) {
-        return dialogDataRepository.findByChatId(chatId)
-                .map(DialogStateData::getState)
-                .orElse(DialogStateType.NONE);
+        DialogStateData state = getState(chatId);
+        return state != null ? state.getState() : DialogStateType.NONE;
     }
 
     @Override
     public DialogStateData getState(Long chatId) {
-        return dialogDataRepository.findByChatId(chatId)
-                .orElse(null);
+        UpdateContext context = UpdateContext.currentFor(chatId);
+        if (context != null && context.isLoaded()) {
+            return context.getState();
+        }
+        DialogStateData state = load(chatId);
+        if (context != null) {
+            context.loaded(state);
+        }
+        return state;
     }
 
     @Override
@@ -43,7 +67,12 @@ public class DialogStateServiceImpl implements DialogStateService {
         }
         stateData.setState(stateType);
         stateData.setLastUpdated(java.time.LocalDateTime.now());
-        dialogDataRepository.save(stateData);
+        UpdateContext context = UpdateContext.currentFor(chatId);
+        if (context != null) {
+            context.stage(stateData);
+            return;
+        }
+        store(stateData);
     }
 
     @Transactional
@@ -53,18 +82,113 @@ public class DialogStateServiceImpl implements DialogStateService {
             throw new IllegalArgumentException("dialogStateData or chatId cannot be null");
         }
         dialogStateData.setLastUpdated(java.time.LocalDateTime.now());
-        return dialogDataRepository.save(dialogStateData);
+        UpdateContext context = UpdateContext.currentFor(dialogStateData.getChatId());
+        if (context != null) {
+            context.stage(dialogStateData);
+            return dialogStateData;
+        }
+        return store(dialogStateData);
     }
 
     @Override
     public List<DialogStateData> findAll() {
         List<DialogStateData> list = new ArrayList<>();
-        dialogDataRepository.findAll().forEach(list::add);
+        dialogStateStore.findAll().forEach(list::add);
         return list;
     }
 
+    @Override
+    public void forEachState(Consumer<DialogStateData> action) {
+        dialogStateStore.forEachBatch(batch -> batch.forEach(action));
+    }
+
     @Override
     public void clearState(Long chatId) {
-        dialogDataRepository.deleteById(chatId);
+        UpdateContext context = UpdateContext.currentFor(chatId);
+        if (context != null) {
+            context.clear();
+            return;
+        }
+        delete(chatId);
+    }
+
+    @Override
+    public boolean transition(Long chatId, DialogStateType expected, DialogStateType next, Consumer<DialogStateData> changes) {
+        if (chatId == null || expected == null) {
+            throw new IllegalArgumentException("chatId and expected state cannot be null");
+        }
+        UpdateContext context = UpdateContext.currentFor(chatId);
+        if (context != null) {
+            flush(context);
+        }
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            DialogStateData current = dialogStateStore.findByChatId(chatId).orElse(null);
+            DialogStateType currentType = current != null && current.getState() != null ? current.getState() : DialogStateType.NONE;
+            if (currentType != expected) {
+                if (context != null) {
+                    context.loaded(current);
+                }
+                return false;
+            }
+            DialogStateData update = null;
+            if (next != null) {
+                update = current != null ? current.copy() : new DialogStateData();
+                update.setChatId(chatId);
+                if (changes != null) {
+                    changes.accept(update);
+                }
+                update.setState(next);
+                update.setLastUpdated(LocalDateTime.now());
+            }
+            if (dialogStateStore.compareAndSet(chatId, current, update)) {
+                if (nearCache != null) {
+                    nearCache.written(chatId, update);
+                }
+                if (context != null) {
+                    context.loaded(update);
+                }
+                return true;
+            }
+        }
+        throw new IllegalStateException("Dialog state of chat " + chatId + " keeps changing concurrently");
+    }
+
+    @Override
+    public void flush(UpdateContext context) {
+        if (context.isDirty()) {
+            store(context.getState());
+        } else if (context.isCleared()) {
+            delete(context.getChatId());
+        }
+        context.flushed();
+    }
+
+    private DialogStateData load(Long chatId) {
+        if (nearCache == null || !nearCache.isEnabled()) {
+            return dialogStateStore.findByChatId(chatId).orElse(null);
+        }
+        DialogStateData cached = nearCache.get(chatId);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = nearCache.beginLoad();
+        DialogStateData state = dialogStateStore.findByChatId(chatId).orElse(null);
+        nearCache.putLoaded(stamp, chatId, state);
+        return state;
+    }
+
+    private DialogStateData store(DialogStateData state) {
+        DialogStateData saved = dialogStateStore.save(state);
+        if (nearCache != null) {
+            nearCache.written(state.getChatId(), state);
+        }
+        return saved;
+    }
+
+    private void delete(Long chatId) {
+        dialogStateStore.deleteById(chatId);
+        if (nearCache != null) {
+            nearCache.written(chatId, null);
+        }
     }
 }
@@ -7,7 +7,9 @@ import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.DialogStateType;
 import com.example.demo.service.*;
 import com.example.demo.service.util.CategoryKeyboardHelper;
+import com.example.demo.service.util.CategoryMatcher;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -24,12 +26,15 @@ import java.util.stream.Collectors;
 import static com.example.demo.model.enums.BotMainMenuButton.RECORD_FAST_EXPENSE;
 import static com.example.demo.service.util.TelegramUpdateHelper.*;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class FastRecordExpenseCommandHandler implements BotCommandHandler {
 
     private static final String DEFAULT_PROMPT_TEXT = "Неизвестная команда. Пожалуйста, начните с главного меню.";
+    private static final int MAX_SUGGESTIONS = 6;
     private static final String CATEGORY_PROMPT_TEXT = "Пожалуйста, выберите категорию, используя кнопки ниже.";
+    private static final String SAVE_FAILED_TEXT = "Не удалось сохранить, попробуйте ещё раз.";
     private final static String INITIAL_MESSAGE_HTML =  """
                     ✍️ Введите расход в одну строку — просто и быстро!\n
                     <b>Формат:</b>\n
@@ -63,6 +68,27 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
                 stateType == DialogStateType.AWAITING_CATEGORY_CLARIFICATION;
     }
 
+    @Override
+    public boolean supports(Update update, DialogStateData state) {
+        if (!isValid(update)) {
+            return false;
+        }
+        DialogStateType stateType = state != null ? state.getState() : null;
+        return RECORD_FAST_EXPENSE.getText().equals(getEffectiveText(update)) ||
+                stateType == DialogStateType.AWAITING_FOR_FAST_EXPENSE ||
+                stateType == DialogStateType.AWAITING_CATEGORY_CLARIFICATION;
+    }
+
+    @Override
+    public Set<String> menuTexts() {
+        return Set.of(RECORD_FAST_EXPENSE.getText());
+    }
+
+    @Override
+    public Set<DialogStateType> dialogStates() {
+        return EnumSet.of(DialogStateType.AWAITING_FOR_FAST_EXPENSE, DialogStateType.AWAITING_CATEGORY_CLARIFICATION);
+    }
+
     @Override
     public SendMessage handle(Long chatId, String message) {
         if (!StringUtils.hasText(message)) {
@@ -112,16 +138,14 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
         currentState.setAmount(parseResult.amount());
         currentState.setComment(parseResult.comment());
         currentState.setTransactionDate(parseResult.date());
-        currentState.setAccount(parseResult.account());
+        currentState.setAccountId(parseResult.account() != null ? parseResult.account().getId() : null);
         dialogStateService.saveOrUpdate(currentState);
 
-        // Находим категорию (глобальные и пользовательские). CategoryService#getCategoryByName кидает исключение если не найдена.
-        Category category;
-        try {
-            category = categoryService.getCategoryByName(parseResult.category(), CategoryType.EXPENSE);
-        } catch (Exception e) {
-            // Попытка подобрать из доступных по нечёткому совпадению (начало строки)
-            List<Category> similarCategory = categoryService.getSimilarCategory(parseResult.category(), chatId);
+        // Категория уже найдена парсером среди глобальных и пользовательских
+        Category category = parseResult.matchedCategory();
+        if (category == null) {
+            // Подбор похожих по триграммам (в памяти, с учётом опечаток)
+            List<Category> similarCategory = categoryService.getSimilarCategory(parseResult.category(), chatId, CategoryType.EXPENSE, MAX_SUGGESTIONS);
             if (!similarCategory.isEmpty()) {
                 dialogStateService.setDialogStateType(chatId, DialogStateType.AWAITING_CATEGORY_CLARIFICATION);
             }
@@ -142,7 +166,7 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
 
         return SendMessage.builder()
                 .chatId(chatId.toString())
-                .text(successMessage(currentState))
+                .text(successMessage(currentState, category, parseResult.account()))
                 .parseMode("HTML")
                 .build();
     }
@@ -153,19 +177,39 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
             return SendMessage.builder()
                     .chatId(chatId.toString())
                     .text(CATEGORY_PROMPT_TEXT)
-                    .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(page, 6, categoryService.getCategoriesByType(CategoryType.EXPENSE)))
+                    .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.EXPENSE, page))
                     .build();
         } else if(message.startsWith("category:")) {
             message = message.split(":")[1];
-            if (categoryService.categoryExists(message, chatId)) {
-                Category selectedCategory = categoryService.getCategoryByName(message, CategoryType.EXPENSE);
-                transactionService.addExpense(chatId, currentState.getAmount(), selectedCategory, currentState.getComment(), currentState.getTransactionDate().format(DateTimeFormatter.ISO_LOCAL_DATE), currentState.getAccount());
+            // claim the clarification atomically so that a second tap does not record the expense again;
+            // the draft is kept until the expense is saved and handed back with a reply if saving fails
+            if (!dialogStateService.transition(chatId, DialogStateType.AWAITING_CATEGORY_CLARIFICATION, DialogStateType.PROCESSING, null)) {
+                return SendMessage.builder()
+                        .chatId(chatId.toString())
+                        .text("Эта операция уже обработана.")
+                        .build();
+            }
+            Category selectedCategory = null;
+            Account account;
+            try {
+                account = currentState.getAccountId() != null ? accountService.findById(currentState.getAccountId()).orElse(null) : null;
+                if (categoryService.categoryExists(message, chatId)) {
+                    selectedCategory = categoryService.getCategoryByName(message, CategoryType.EXPENSE);
+                    transactionService.addExpense(chatId, currentState.getAmount(), selectedCategory, currentState.getComment(), currentState.getTransactionDate().format(DateTimeFormatter.ISO_LOCAL_DATE), account);
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to record fast expense for chat {}: {}", chatId, e.getMessage(), e);
+                dialogStateService.transition(chatId, DialogStateType.PROCESSING, DialogStateType.AWAITING_CATEGORY_CLARIFICATION, null);
+                return SendMessage.builder()
+                        .chatId(chatId.toString())
+                        .text(SAVE_FAILED_TEXT)
+                        .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.EXPENSE, 0))
+                        .build();
             }
-            dialogStateService.clearState(chatId);
             dialogStateService.setDialogStateType(chatId, DialogStateType.AWAITING_FOR_FAST_EXPENSE);
             return SendMessage.builder()
                     .chatId(chatId.toString())
-                    .text(successMessage(currentState))
+                    .text(successMessage(currentState, selectedCategory, account))
                     .parseMode("HTML")
                     .build();
         }
@@ -211,28 +255,12 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
             throw new IllegalArgumentException("Некорректная сумма: '" + tokens.get(0) + "'");
         }
 
-        // 2. Категория (самое длинное совпадение по названию среди expense категорий)
-        List<Category> expenseCategories = categoryService.getCategoriesByType(CategoryType.EXPENSE);
-        // Карта нижний регистр -> оригинальное имя
-        Map<String, String> categoryNames = expenseCategories.stream()
-                .collect(Collectors.toMap(c -> c.getName().toLowerCase(Locale.ROOT), Category::getName, (a,b)->a));
-
-        String categoryFound = null;
-        int categoryEndIndex = -1; // индекс последнего токена категории
-        int maxLen = tokens.size() - 1; // без первого (amount)
-        for (int end = tokens.size() - 1; end >= 1; end--) {
-            for (int len = Math.min(4, end); len >= 1; len--) {
-                int start = end - len + 1;
-                if (start < 1) continue; // пропускаем amount
-                String candidate = String.join(" ", tokens.subList(start, end + 1)).toLowerCase(Locale.ROOT);
-                if (categoryNames.containsKey(candidate)) {
-                    categoryFound = categoryNames.get(candidate);
-                    categoryEndIndex = end;
-                    break; // берём первое найденное справа
-                }
-            }
-            if (categoryFound != null) break;
-        }
+        // 2. Категория (самое длинное совпадение по названию среди глобальных и своих expense категорий, один проход)
+        Optional<CategoryMatcher.Match> match = categoryService.getCategoryMatcher(chatId, CategoryType.EXPENSE)
+                .longestMatch(tokens, 1);
+        Category matchedCategory = match.map(CategoryMatcher.Match::category).orElse(null);
+        String categoryFound = matchedCategory != null ? matchedCategory.getName() : null;
+        int categoryEndIndex = match.map(CategoryMatcher.Match::endToken).orElse(-1); // индекс последнего токена категории
         if (categoryFound == null) {
             // fallback: взять второй токен как категорию (возможно пользователь создаст позже)
             categoryFound = tokens.get(1);
@@ -317,7 +345,7 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
             }
         }
 
-        return new ParseResult(amount, categoryFound, comment, date, account);
+        return new ParseResult(amount, categoryFound, matchedCategory, comment, date, account);
     }
 
     private int normalizeYear(String yearPart) {
@@ -336,12 +364,12 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
                 .replace(">", "&gt;");
     }
 
-    private String successMessage(DialogStateData state) {
+    private String successMessage(DialogStateData state, Category category, Account account) {
         StringBuilder sb = new StringBuilder("✅ Расход записан: <b>")
                 .append(state.getAmount().stripTrailingZeros().toPlainString())
                 .append("</b> ");
-        if (state.getCategory() != null) {
-            sb.append(escape(state.getCategory().getName()));
+        if (category != null) {
+            sb.append(escape(category.getName()));
         }
         if (state.getComment() != null && !state.getComment().isBlank()) {
             sb.append(" — ").append(escape(state.getComment()));
@@ -349,12 +377,12 @@ public class FastRecordExpenseCommandHandler implements BotCommandHandler {
         if (state.getTransactionDate() != null) {
             sb.append(" (").append(state.getTransactionDate().format(DateTimeFormatter.ofPattern("dd.MM"))).append(")");
         }
-        if (state.getAccount() != null) {
-            sb.append(" \nСчёт: ").append(escape(state.getAccount().getDisplayName()));
+        if (account != null) {
+            sb.append(" \nСчёт: ").append(escape(account.getDisplayName()));
         }
         return sb.toString();
     }
 
     // Используем Java record для компактного хранения результата парсинга
-    private record ParseResult(BigDecimal amount, String category, String comment, LocalDate date, Account account) {}
+    private record ParseResult(BigDecimal amount, String category, Category matchedCategory, String comment, LocalDate date, Account account) {}
 }
@@ -0,0 +1,72 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.service.BotCommandHandler;
+import com.example.demo.service.BotMessageService;
+import com.example.demo.service.DialogStateService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Set;
+
+import static com.example.demo.service.util.TelegramUpdateHelper.*;
+
+/**
+ * Answers a chat that is in {@link DialogStateType#PROCESSING}. The state only lives while a confirmed draft is
+ * saved and updates of a chat are handled in order, so an update that sees it either races a save on another
+ * instance, and is asked to wait, or finds a save that was interrupted by a crash. After {@link #STALE_AFTER} the
+ * state is cleared so the chat can start over. The draft is not handed back: the interrupted save may have committed,
+ * and confirming it again could record the transaction twice.
+ */
+@Component
+@RequiredArgsConstructor
+public class ProcessingStateCommandHandler implements BotCommandHandler {
+
+    static final Duration STALE_AFTER = Duration.ofMinutes(1);
+
+    private static final String IN_PROGRESS_TEXT = "Операция ещё сохраняется, подождите немного.";
+    private static final String INTERRUPTED_TEXT = "Сохранение предыдущей операции было прервано. Проверьте последние записи и при необходимости внесите операцию заново.";
+
+    private final DialogStateService dialogStateService;
+
+    @Override
+    public boolean supports(Update update) {
+        if (!isValid(update)) {
+            return false;
+        }
+        return dialogStateService.getStateType(getChatId(update)) == DialogStateType.PROCESSING;
+    }
+
+    @Override
+    public boolean supports(Update update, DialogStateData state) {
+        return state != null && state.getState() == DialogStateType.PROCESSING;
+    }
+
+    @Override
+    public Set<DialogStateType> dialogStates() {
+        return Set.of(DialogStateType.PROCESSING);
+    }
+
+    @Override
+    public SendMessage handle(Long chatId, String message) {
+        DialogStateData state = dialogStateService.getState(chatId);
+        if (state != null && state.getLastUpdated() != null
+                && state.getLastUpdated().isAfter(LocalDateTime.now().minus(STALE_AFTER))) {
+            return SendMessage.builder()
+                    .chatId(chatId.toString())
+                    .text(IN_PROGRESS_TEXT)
+                    .build();
+        }
+        dialogStateService.transition(chatId, DialogStateType.PROCESSING, null, null);
+        return SendMessage.builder()
+                .chatId(chatId.toString())
+                .text(INTERRUPTED_TEXT)
+                .replyMarkup(BotMessageService.buildStartKeyboard())
+                .build();
+    }
+}
@@ -0,0 +1,363 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.service.OutboundMessageSender;
+import com.example.demo.service.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous {@link OutboundMessageSender} that respects Telegram send limits.
+ * <p>
+ * Messages are queued per chat. A single worker thread picks ready chats, takes one message from each (global
+ * and per-chat token buckets permitting) and sends them concurrently through {@link AbsSender#executeAsync}.
+ * The Bot API has no multi-message endpoint, so a "batch" is a set of concurrent requests rather than one request.
+ * At most {@code batchSize} requests are in flight; answers are handled as they arrive, so a slow request only
+ * holds its own slot. A chat never has more than one message in flight, which keeps per-chat delivery order
+ * even when a message has to be retried.
+ * <p>
+ * A 429 answer pauses the chat for the {@code retry_after} period returned by Telegram and puts the message
+ * back at the head of its chat queue; it does not count towards {@code maxAttempts}. A request left without an
+ * answer for {@value #SEND_TIMEOUT_SECONDS} s is given up rather than resent, since it may have been delivered.
+ */
+@Slf4j
+public class RateLimitedMessageSender implements OutboundMessageSender {
+
+    private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long MAX_THROTTLE_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+    private static final long RETRY_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long SHUTDOWN_DRAIN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Send limits. Telegram documents roughly 30 messages per second overall and about one message
+     * per second per chat (short bursts are tolerated).
+     */
+    public record Limits(double globalPerSecond, double perChatPerSecond, int perChatBurst,
+                         int batchSize, int queueCapacity, int maxAttempts) {
+    }
+
+    private final AbsSender sender;
+    private final Limits limits;
+    private final TokenBucket globalBucket;
+    private final ConcurrentHashMap<String, ChatQueue> chats = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<ChatQueue> ready = new LinkedBlockingQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Semaphore inFlight;
+    private final long idleEvictNanos;
+
+    private final Counter sentCounter;
+    private final Counter throttledCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+
+    private volatile boolean running;
+    private volatile long stopRequestedAt;
+    private Thread worker;
+    private long lastSweep = System.nanoTime();
+
+    public RateLimitedMessageSender(AbsSender sender, Limits limits, MeterRegistry meterRegistry) {
+        this.sender = sender;
+        this.limits = limits;
+        this.inFlight = new Semaphore(limits.batchSize());
+        this.globalBucket = new TokenBucket(Math.max(1, limits.globalPerSecond()), limits.globalPerSecond(), System.nanoTime());
+        // a chat bucket left idle this long is full again, so dropping it loses no rate information
+        this.idleEvictNanos = (long) (limits.perChatBurst() / limits.perChatPerSecond() * 1_000_000_000d);
+
+        Gauge.builder("bot.outbound.queued", queued, AtomicInteger::get)
+                .description("Outbound messages waiting to be sent")
+                .register(meterRegistry);
+        this.sentCounter = Counter.builder("bot.outbound.sent").register(meterRegistry);
+        this.throttledCounter = Counter.builder("bot.outbound.throttled")
+                .description("Messages delayed by a rate limit or a retry_after answer")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("bot.outbound.failed").register(meterRegistry);
+        this.droppedCounter = Counter.builder("bot.outbound.dropped")
+                .description("Messages rejected because the outbound queue was full")
+                .register(meterRegistry);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::runLoop, "outbound-sender");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the worker after giving already queued messages a short time to go out.
+     */
+    public void shutdown() {
+        Thread w;
+        synchronized (this) {
+            stopRequestedAt = System.nanoTime();
+            running = false;
+            w = worker;
+        }
+        if (w == null) {
+            return;
+        }
+        try {
+            w.join(TimeUnit.NANOSECONDS.toMillis(SHUTDOWN_DRAIN_NANOS) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (queued.get() > 0) {
+            log.warn("Outbound sender stopped with {} undelivered messages", queued.get());
+        }
+    }
+
+    @Override
+    public void enqueue(SendMessage message) {
+        if (message == null || message.getChatId() == null) {
+            throw new IllegalArgumentException("message and chatId are required");
+        }
+        if (queued.incrementAndGet() > limits.queueCapacity()) {
+            queued.decrementAndGet();
+            droppedCounter.increment();
+            log.warn("Outbound queue is full ({}), dropping message for chat {}", limits.queueCapacity(), message.getChatId());
+            return;
+        }
+        Outgoing outgoing = new Outgoing(message);
+        while (true) {
+            ChatQueue q = chats.computeIfAbsent(message.getChatId(), this::newChatQueue);
+            synchronized (q) {
+                if (q.retired) {
+                    continue;
+                }
+                q.messages.addLast(outgoing);
+                q.lastActivity = System.nanoTime();
+                if (!q.scheduled) {
+                    q.scheduled = true;
+                    ready.add(q);
+                }
+                return;
+            }
+        }
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    private ChatQueue newChatQueue(String chatId) {
+        return new ChatQueue(chatId, new TokenBucket(limits.perChatBurst(), limits.perChatPerSecond(), System.nanoTime()));
+    }
+
+    private void runLoop() {
+        while (running || (queued.get() > 0 && System.nanoTime() - stopRequestedAt < SHUTDOWN_DRAIN_NANOS)) {
+            try {
+                drainOnce(IDLE_POLL_NANOS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Outbound sender loop failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * One worker cycle: pick ready chats for the free in-flight slots and send one message per chat.
+     * Answers are processed when they arrive, not within the cycle.
+     * @return number of messages handed to Telegram in this cycle
+     */
+    int drainOnce(long waitNanos) throws InterruptedException {
+        if (!inFlight.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)) {
+            return 0;
+        }
+        ChatQueue first = ready.poll(waitNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            inFlight.release();
+            sweepIdleChats(System.nanoTime());
+            return 0;
+        }
+        int slots = 1;
+        while (slots < limits.batchSize() && inFlight.tryAcquire()) {
+            slots++;
+        }
+        List<ChatQueue> candidates = new ArrayList<>(slots);
+        candidates.add(first);
+        ready.drainTo(candidates, slots - 1);
+
+        long now = System.nanoTime();
+        long nextWake = Long.MAX_VALUE;
+        List<ChatQueue> batchChats = new ArrayList<>(candidates.size());
+        List<Outgoing> batch = new ArrayList<>(candidates.size());
+        for (ChatQueue q : candidates) {
+            synchronized (q) {
+                long wait = Math.max(q.pausedUntil - now, q.bucket.nanosUntilAvailable(now));
+                if (wait <= 0 && !globalBucket.tryAcquire(now)) {
+                    wait = Math.max(1, globalBucket.nanosUntilAvailable(now));
+                }
+                if (wait > 0) {
+                    markThrottled(q.messages.peekFirst());
+                    nextWake = Math.min(nextWake, wait);
+                    ready.add(q);
+                    continue;
+                }
+                q.bucket.tryAcquire(now);
+                batchChats.add(q);
+                batch.add(q.messages.pollFirst());
+            }
+        }
+
+        inFlight.release(slots - batch.size());
+        if (batch.isEmpty()) {
+            LockSupport.parkNanos(Math.min(nextWake, MAX_THROTTLE_SLEEP_NANOS));
+            return 0;
+        }
+        send(batchChats, batch);
+        sweepIdleChats(System.nanoTime());
+        return batch.size();
+    }
+
+    private void send(List<ChatQueue> batchChats, List<Outgoing> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            ChatQueue q = batchChats.get(i);
+            Outgoing out = batch.get(i);
+            CompletableFuture<?> answer;
+            try {
+                answer = sender.executeAsync(out.message);
+            } catch (TelegramApiException e) {
+                answer = CompletableFuture.failedFuture(e);
+            }
+            answer.orTimeout(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS).whenComplete((result, error) -> {
+                try {
+                    if (error == null) {
+                        sentCounter.increment();
+                        completed(q);
+                    } else {
+                        failed(q, out, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    private void failed(ChatQueue q, Outgoing out, Throwable cause) {
+        if (cause instanceof TimeoutException) {
+            // the request may still have reached Telegram, sending it again could deliver the message twice
+            failedCounter.increment();
+            log.error("No answer from Telegram for chat {} within {} s, message is not resent", q.chatId, SEND_TIMEOUT_SECONDS);
+            completed(q);
+            return;
+        }
+        Integer retryAfter = null;
+        boolean retryable = true;
+        if (cause instanceof TelegramApiRequestException requestException) {
+            if (requestException.getParameters() != null) {
+                retryAfter = requestException.getParameters().getRetryAfter();
+            }
+            Integer code = requestException.getErrorCode();
+            retryable = code == null || code == 429 || code >= 500;
+        }
+        if (retryAfter != null) {
+            throttledCounter.increment();
+            log.warn("Telegram asked to retry chat {} after {} s", q.chatId, retryAfter);
+            retry(q, out, TimeUnit.SECONDS.toNanos(retryAfter));
+            return;
+        }
+        out.attempts++;
+        if (retryable && out.attempts < limits.maxAttempts()) {
+            retry(q, out, RETRY_BACKOFF_NANOS * out.attempts);
+            return;
+        }
+        failedCounter.increment();
+        log.error("Send to chat {} failed after {} attempt(s): {}", q.chatId, out.attempts, cause.getMessage());
+        completed(q);
+    }
+
+    private void retry(ChatQueue q, Outgoing out, long pauseNanos) {
+        synchronized (q) {
+            q.messages.addFirst(out);
+            q.pausedUntil = System.nanoTime() + pauseNanos;
+            ready.add(q);
+        }
+    }
+
+    private void completed(ChatQueue q) {
+        queued.decrementAndGet();
+        synchronized (q) {
+            q.lastActivity = System.nanoTime();
+            if (q.messages.isEmpty()) {
+                q.scheduled = false;
+            } else {
+                ready.add(q);
+            }
+        }
+    }
+
+    private void markThrottled(Outgoing head) {
+        if (head != null && !head.throttled) {
+            head.throttled = true;
+            throttledCounter.increment();
+        }
+    }
+
+    private void sweepIdleChats(long now) {
+        if (now - lastSweep < SWEEP_INTERVAL_NANOS) {
+            return;
+        }
+        lastSweep = now;
+        for (ChatQueue q : chats.values()) {
+            synchronized (q) {
+                if (!q.scheduled && q.messages.isEmpty() && now - q.lastActivity > idleEvictNanos && now - q.pausedUntil > 0) {
+                    q.retired = true;
+                    chats.remove(q.chatId, q);
+                }
+            }
+        }
+    }
+
+    private static final class ChatQueue {
+        private final String chatId;
+        private final TokenBucket bucket;
+        private final Deque<Outgoing> messages = new ArrayDeque<>();
+        private boolean scheduled;
+        private boolean retired;
+        private long pausedUntil = System.nanoTime();
+        private long lastActivity = System.nanoTime();
+
+        private ChatQueue(String chatId, TokenBucket bucket) {
+            this.chatId = chatId;
+            this.bucket = bucket;
+        }
+    }
+
+    private static final class Outgoing {
+        private final SendMessage message;
+        /** Failed sends so far; 429 answers with {@code retry_after} are not counted. */
+        private int attempts;
+        private boolean throttled;
+
+        private Outgoing(SendMessage message) {
+            this.message = message;
+        }
+    }
+}
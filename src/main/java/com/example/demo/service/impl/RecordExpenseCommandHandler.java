@@ -7,9 +7,9 @@ import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.BotMainMenuButton;
 import com.example.demo.model.enums.DialogStateType;
 import com.example.demo.service.*;
-import com.example.demo.service.util.CategoryKeyboardHelper;
 import com.example.demo.service.util.InlineCalendarUtil;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -31,6 +31,7 @@ import static com.example.demo.service.util.TelegramUpdateHelper.*;
  * Handles the main menu action "Record Expense" ("Записать расход").
  * When the user presses the corresponding reply keyboard button or types the same text, this handler is invoked.
  */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class RecordExpenseCommandHandler implements BotCommandHandler {
@@ -42,6 +43,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
     private static final String CATEGORY_PROMPT_TEXT = "Пожалуйста, выберите категорию, используя кнопки ниже.";
     private static final String CONFIRMATION_PROMPT_TEXT = "Подтвердите запись расхода в размере %s по категории %s с комментарием: \"%s\".\n\nЕсли всё верно, нажмите \"Подтвердить\", иначе \"Отменить\".";
     private static final String SUCCESS_PROMPT_TEXT = "Расход в размере %s по категории %s записан.";
+    private static final String SAVE_FAILED_TEXT = "Не удалось сохранить, попробуйте ещё раз.";
     private static final Pattern AMOUNT_PATTERN = Pattern.compile("^\\s*\\d+(?:[.,]\\d{1,2})?\\s*$");
     private static final Set<DialogStateType> SUPPORTED_STATES = Set.of(
             DialogStateType.AWAITING_AMOUNT,
@@ -71,6 +73,25 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
                 && SUPPORTED_STATES.contains(dialogStateService.getStateType(chatId)));
     }
 
+    @Override
+    public boolean supports(Update update, DialogStateData state) {
+        if (!isValid(update)) {
+            return false;
+        }
+        return getEffectiveText(update).equalsIgnoreCase(BotMainMenuButton.RECORD_EXPENSE.getText())
+                || (state != null && state.isExpense() && SUPPORTED_STATES.contains(state.getState()));
+    }
+
+    @Override
+    public Set<String> menuTexts() {
+        return Set.of(BotMainMenuButton.RECORD_EXPENSE.getText());
+    }
+
+    @Override
+    public Set<DialogStateType> dialogStates() {
+        return SUPPORTED_STATES;
+    }
+
     @Override
     public SendMessage handle(Long chatId, String message) {
         if (!StringUtils.hasText(message)) {
@@ -107,7 +128,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
         return SendMessage.builder()
                 .chatId(chatId.toString())
                 .text("Сумма записана: " + currentState.getAmount() + ". Пожалуйста выберите категорию расхода.")
-                .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(0, 6, categoryService.getCategoriesByType(CategoryType.EXPENSE)))
+                .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.EXPENSE, 0))
                 .build();
     }
 
@@ -117,7 +138,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
             return SendMessage.builder()
                     .chatId(chatId.toString())
                     .text(CATEGORY_PROMPT_TEXT)
-                    .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(page, 6, categoryService.getCategoriesByType(CategoryType.EXPENSE)))
+                    .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.EXPENSE, page))
                     .build();
         } else if(text.startsWith("category:")) {
             text = text.split(":")[1];
@@ -128,13 +149,13 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
                     return SendMessage.builder()
                             .chatId(chatId.toString())
                             .text("Категория \"" + text + "\" не является категорией расхода. Пожалуйста, выберите другую категорию.")
-                            .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(0, 6, categoryService.getCategoriesByType(CategoryType.EXPENSE)))
+                            .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.EXPENSE, 0))
                             .build();
                 }
-                currentState.setCategory(selectedCategory);
+                currentState.setCategoryId(selectedCategory.getId());
                 responseText = ACCOUNT_AND_DATE_PROMPT_TEXT;
             } else {
-                currentState.setCategory(categoryService.createCategory(text, "EXPENSE", chatId));
+                currentState.setCategoryId(categoryService.createCategory(text, "EXPENSE", chatId).getId());
                 responseText = "Категория \"" + text + "\" создана и выбрана. " + ACCOUNT_AND_DATE_PROMPT_TEXT;
             }
             currentState.setState(DialogStateType.AWAITING_ACCOUNT_AND_DATE);
@@ -150,7 +171,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
         return SendMessage.builder()
                 .chatId(chatId.toString())
                 .text(CATEGORY_PROMPT_TEXT)
-                .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(0, 6, categoryService.getCategoriesByType(CategoryType.EXPENSE)))
+                .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.EXPENSE, 0))
                 .build();
     }
 
@@ -162,7 +183,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
 
         return SendMessage.builder()
                 .chatId(chatId.toString())
-                .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), currentState.getCategory().getName(), comment))
+                .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), selectedCategory(currentState).getName(), comment))
                 .replyMarkup(buildConfirmationKeyboard())
                 .build();
     }
@@ -170,20 +191,39 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
     private SendMessage confirmationHandler(Long chatId, String message, DialogStateData currentState) {
         String text = message.trim().toLowerCase();
         if (text.equals("confirm")) {
-            Account defaultAccount = accountService.findOrCreateDefaultAccount(chatId);
-            transactionService.addExpense(
-                    chatId,
-                    currentState.getAmount(),
-                    currentState.getCategory(),
-                    currentState.getComment(),
-                    currentState.getTransactionDate() != null ? currentState.getTransactionDate().toString() : null,
-                    currentState.getAccount() != null ? currentState.getAccount() : defaultAccount
-            );
+            // the state is claimed atomically, so a repeated tap on "confirm" cannot record the expense twice;
+            // the draft is kept until the expense is saved and handed back with a reply if saving fails
+            if (!dialogStateService.transition(chatId, DialogStateType.AWAITING_CONFIRMATION, DialogStateType.PROCESSING, null)) {
+                return SendMessage.builder()
+                        .chatId(chatId.toString())
+                        .text("Эта операция уже обработана.")
+                        .build();
+            }
+            Category category;
+            try {
+                category = selectedCategory(currentState);
+                transactionService.addExpense(
+                        chatId,
+                        currentState.getAmount(),
+                        category,
+                        currentState.getComment(),
+                        currentState.getTransactionDate() != null ? currentState.getTransactionDate().toString() : null,
+                        selectedAccount(chatId, currentState)
+                );
+            } catch (RuntimeException e) {
+                log.error("Failed to record expense for chat {}: {}", chatId, e.getMessage(), e);
+                dialogStateService.transition(chatId, DialogStateType.PROCESSING, DialogStateType.AWAITING_CONFIRMATION, null);
+                return SendMessage.builder()
+                        .chatId(chatId.toString())
+                        .text(SAVE_FAILED_TEXT)
+                        .replyMarkup(buildConfirmationKeyboard())
+                        .build();
+            }
             dialogStateService.clearState(chatId);
 
             return SendMessage.builder()
                     .chatId(chatId.toString())
-                    .text(String.format(SUCCESS_PROMPT_TEXT, currentState.getAmount(), currentState.getCategory().getName()))
+                    .text(String.format(SUCCESS_PROMPT_TEXT, currentState.getAmount(), category.getName()))
                     .build();
         } else if (text.equals("cancel")) {
             dialogStateService.clearState(chatId);
@@ -194,7 +234,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
         } else {
             return SendMessage.builder()
                     .chatId(chatId.toString())
-                    .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), currentState.getCategory().getName(), currentState.getComment()))
+                    .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), selectedCategory(currentState).getName(), currentState.getComment()))
                     .build();
         }
     }
@@ -230,7 +270,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
             return null;
         }
         state.setTransactionDate(date);
-        state.setAccount(accountService.findById(accountId).orElse(accountService.findOrCreateDefaultAccount(chatId)));
+        state.setAccountId(accountService.findById(accountId).orElse(accountService.findOrCreateDefaultAccount(chatId)).getId());
         state.setState(DialogStateType.AWAITING_DESCRIPTION);
         dialogStateService.saveOrUpdate(state);
 
@@ -269,7 +309,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
         if (account == null) {
             return null;
         }
-        state.setAccount(account);
+        state.setAccountId(account.getId());
         dialogStateService.saveOrUpdate(state);
         return SendMessage.builder()
                 .chatId(chatId.toString())
@@ -298,7 +338,7 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
                 LocalDate selectedDate = LocalDate.parse(parts[2]);
                 state.setTransactionDate(selectedDate);
                 dialogStateService.saveOrUpdate(state);
-                Account account = state.getAccount() != null ? state.getAccount() : accountService.findOrCreateDefaultAccount(chatId);
+                Account account = selectedAccount(chatId, state);
                 return SendMessage.builder()
                         .chatId(chatId.toString())
                         .text(ACCOUNT_AND_DATE_PROMPT_TEXT)
@@ -316,6 +356,17 @@ public class RecordExpenseCommandHandler implements BotCommandHandler {
                 .build();
     }
 
+    private Category selectedCategory(DialogStateData state) {
+        return categoryService.getCategoryById(state.getCategoryId());
+    }
+
+    private Account selectedAccount(Long chatId, DialogStateData state) {
+        if (state.getAccountId() == null) {
+            return accountService.findOrCreateDefaultAccount(chatId);
+        }
+        return accountService.findById(state.getAccountId())
+                .orElseGet(() -> accountService.findOrCreateDefaultAccount(chatId));
+    }
 
     private SendMessage defaultHandler(Long chatId) {
         dialogStateService.clearState(chatId);
@@ -7,9 +7,9 @@ import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.BotMainMenuButton;
 import com.example.demo.model.enums.DialogStateType;
 import com.example.demo.service.*;
-import com.example.demo.service.util.CategoryKeyboardHelper;
 import com.example.demo.service.util.InlineCalendarUtil;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
@@ -28,6 +28,7 @@ import static com.example.demo.model.enums.DialogStateType.AWAITING_ACCOUNT_AND_
 import static com.example.demo.model.enums.DialogStateType.AWAITING_SOURCE_FOR_INCOME;
 import static com.example.demo.service.util.TelegramUpdateHelper.*;
 
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class RecordIncomeCommandHandler implements BotCommandHandler {
@@ -39,6 +40,7 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
     private static final String CONFIRMATION_PROMPT_TEXT = "Пожалуйста, подтвердите запись дохода:\nСумма: %s\nИсточник: %s\nОписание: %s";
     private static final String SUCCESS_PROMPT_TEXT = "Доход в размере %s успешно записан. Источник дохода - %s.";
     private static final String DEFAULT_PROMPT_TEXT = "Извините, что-то пошло не так. Пожалуйста, начните запись дохода заново.";
+    private static final String SAVE_FAILED_TEXT = "Не удалось сохранить, попробуйте ещё раз.";
     private static final Set<DialogStateType> SUPPORTED_STATES = Set.of(
             DialogStateType.AWAITING_AMOUNT,
             DialogStateType.AWAITING_DESCRIPTION,
@@ -66,6 +68,25 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
                 || (currentState.isIncome() && SUPPORTED_STATES.contains(currentState.getState()));
     }
 
+    @Override
+    public boolean supports(Update update, DialogStateData state) {
+        if (!isValid(update)) {
+            return false;
+        }
+        return getEffectiveText(update).equalsIgnoreCase(BotMainMenuButton.RECORD_INCOME.getText())
+                || (state != null && state.isIncome() && SUPPORTED_STATES.contains(state.getState()));
+    }
+
+    @Override
+    public Set<String> menuTexts() {
+        return Set.of(BotMainMenuButton.RECORD_INCOME.getText());
+    }
+
+    @Override
+    public Set<DialogStateType> dialogStates() {
+        return SUPPORTED_STATES;
+    }
+
     @Override
     public SendMessage handle(Long chatId, String message) {
         if (!StringUtils.hasText(message)) {
@@ -109,7 +130,7 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
         return SendMessage.builder()
                 .chatId(chatId.toString())
                 .text("Пожалуйста, выберите источник дохода:")
-                .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(0, 6, categoryService.getCategoriesByType(CategoryType.INCOME)))
+                .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.INCOME, 0))
                 .build();
     }
 
@@ -119,7 +140,7 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
             return SendMessage.builder()
                     .chatId(chatId.toString())
                     .text("Пожалуйста, выберите источник дохода:")
-                    .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(page, 6, categoryService.getCategoriesByType(CategoryType.INCOME)))
+                    .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.INCOME, page))
                     .build();
         } else if (message.startsWith("category:")) {
             message = message.split(":")[1];
@@ -130,14 +151,14 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
                     return SendMessage.builder()
                             .chatId(chatId.toString())
                             .text("Пожалуйста, выберите корректный источник дохода из списка.")
-                            .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(0, 6, categoryService.getCategoriesByType(CategoryType.INCOME)))
+                            .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.INCOME, 0))
                             .build();
                 }
-                currentState.setCategory(selectedSource);
+                currentState.setCategoryId(selectedSource.getId());
                 responseText = ACCOUNT_AND_DATE_PROMPT_TEXT;
             } else {
                 Category newSource = categoryService.createCategory(message, "INCOME", chatId);
-                currentState.setCategory(newSource);
+                currentState.setCategoryId(newSource.getId());
                 responseText = String.format("Создан новый источник дохода: %s\n\n%s", newSource.getName(), ACCOUNT_AND_DATE_PROMPT_TEXT);
             }
             currentState.setState(DialogStateType.AWAITING_ACCOUNT_AND_DATE);
@@ -152,7 +173,7 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
         return SendMessage.builder()
                 .chatId(chatId.toString())
                 .text("Пожалуйста, выберите источник дохода:")
-                .replyMarkup(CategoryKeyboardHelper.buildCategoryKeyboard(0, 6, categoryService.getCategoriesByType(CategoryType.INCOME)))
+                .replyMarkup(categoryService.getCategoryKeyboard(chatId, CategoryType.INCOME, 0))
                 .build();
     }
 
@@ -187,7 +208,7 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
         } catch (Exception ex) {
             return null;
         }
-        state.setAccount(accountService.findById(accountId).orElse(accountService.findOrCreateDefaultAccount(chatId)));
+        state.setAccountId(accountService.findById(accountId).orElse(accountService.findOrCreateDefaultAccount(chatId)).getId());
         state.setTransactionDate(date);
         state.setState(DialogStateType.AWAITING_DESCRIPTION);
         dialogStateService.saveOrUpdate(state);
@@ -227,7 +248,7 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
         if (account == null) {
             return null;
         }
-        state.setAccount(account);
+        state.setAccountId(account.getId());
         dialogStateService.saveOrUpdate(state);
         return SendMessage.builder()
                 .chatId(chatId.toString())
@@ -256,7 +277,10 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
                 LocalDate selectedDate = LocalDate.parse(parts[2]);
                 state.setTransactionDate(selectedDate);
                 dialogStateService.saveOrUpdate(state);
-                Account account = state.getAccount() != null ? state.getAccount() : accountService.findOrCreateDefaultAccount(chatId);
+                Account account = selectedAccount(state);
+                if (account == null) {
+                    account = accountService.findOrCreateDefaultAccount(chatId);
+                }
                 return SendMessage.builder()
                         .chatId(chatId.toString())
                         .text(ACCOUNT_AND_DATE_PROMPT_TEXT)
@@ -282,25 +306,49 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
 
         return SendMessage.builder()
                 .chatId(chatId.toString())
-                .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), currentState.getCategory().getName(), comment))
-                .replyMarkup(InlineKeyboardMarkup.builder()
-                        .keyboard(List.of(
-                                List.of(InlineKeyboardButton.builder().text("Подтвердить").callbackData("confirm").build()),
-                                List.of(InlineKeyboardButton.builder().text("Отменить").callbackData("cancel").build())
-                        ))
-                        .build())
+                .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), selectedSource(currentState).getName(), comment))
+                .replyMarkup(buildConfirmationKeyboard())
+                .build();
+    }
+
+    private InlineKeyboardMarkup buildConfirmationKeyboard() {
+        return InlineKeyboardMarkup.builder()
+                .keyboard(List.of(
+                        List.of(InlineKeyboardButton.builder().text("Подтвердить").callbackData("confirm").build()),
+                        List.of(InlineKeyboardButton.builder().text("Отменить").callbackData("cancel").build())
+                ))
                 .build();
     }
 
     private SendMessage confirmationHandler(Long chatId, String message, DialogStateData currentState) {
         String text = message.trim().toLowerCase();
         if (text.equals("confirm")) {
+            // the state is claimed atomically, so a repeated tap on "confirm" cannot record the income twice;
+            // the draft is kept until the income is saved and handed back with a reply if saving fails
+            if (!dialogStateService.transition(chatId, DialogStateType.AWAITING_CONFIRMATION, DialogStateType.PROCESSING, null)) {
+                return SendMessage.builder()
+                        .chatId(chatId.toString())
+                        .text("Эта операция уже обработана.")
+                        .build();
+            }
+            Category source;
+            try {
+                source = selectedSource(currentState);
+                transactionService.addIncome(chatId, currentState.getAmount(), source, currentState.getComment(), currentState.getTransactionDate() != null ? currentState.getTransactionDate().toString() : null, selectedAccount(currentState));
+            } catch (RuntimeException e) {
+                log.error("Failed to record income for chat {}: {}", chatId, e.getMessage(), e);
+                dialogStateService.transition(chatId, DialogStateType.PROCESSING, DialogStateType.AWAITING_CONFIRMATION, null);
+                return SendMessage.builder()
+                        .chatId(chatId.toString())
+                        .text(SAVE_FAILED_TEXT)
+                        .replyMarkup(buildConfirmationKeyboard())
+                        .build();
+            }
             dialogStateService.clearState(chatId);
-            transactionService.addIncome(chatId, currentState.getAmount(), currentState.getCategory(), currentState.getComment(), currentState.getTransactionDate() != null ? currentState.getTransactionDate().toString() : null, currentState.getAccount());
 
             return SendMessage.builder()
                     .chatId(chatId.toString())
-                    .text(String.format(SUCCESS_PROMPT_TEXT, currentState.getAmount(), currentState.getCategory().getName()))
+                    .text(String.format(SUCCESS_PROMPT_TEXT, currentState.getAmount(), source.getName()))
                     .build();
         } else if (text.equals("cancel")) {
             dialogStateService.clearState(chatId);
@@ -311,11 +359,19 @@ public class RecordIncomeCommandHandler implements BotCommandHandler {
         } else {
             return SendMessage.builder()
                     .chatId(chatId.toString())
-                    .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), currentState.getCategory().getName(), currentState.getComment()))
+                    .text(String.format(CONFIRMATION_PROMPT_TEXT, currentState.getAmount(), selectedSource(currentState).getName(), currentState.getComment()))
                     .build();
         }
     }
 
+    private Category selectedSource(DialogStateData state) {
+        return categoryService.getCategoryById(state.getCategoryId());
+    }
+
+    private Account selectedAccount(DialogStateData state) {
+        return state.getAccountId() != null ? accountService.findById(state.getAccountId()).orElse(null) : null;
+    }
+
     private SendMessage defaultHandler(Long chatId) {
         dialogStateService.clearState(chatId);
         return SendMessage.builder()
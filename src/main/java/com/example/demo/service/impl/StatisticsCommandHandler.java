@@ -1,14 +1,16 @@
 package com.example.demo.service.impl;
 
 import com.example.demo.model.entity.DialogStateData;
-import com.example.demo.model.entity.Transaction;
 import com.example.demo.model.entity.TransactionType;
 import com.example.demo.model.enums.BotMainMenuButton;
 import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.repository.TransactionRepository;
 import com.example.demo.service.BotCommandHandler;
 import com.example.demo.service.CategoryService;
 import com.example.demo.service.DialogStateService;
 import com.example.demo.service.TransactionService;
+import com.example.demo.service.cache.StatsReportCache;
+import com.example.demo.service.util.InlineCalendarUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
@@ -18,9 +20,13 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMa
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
 
 import static com.example.demo.service.util.TelegramUpdateHelper.*;
 
@@ -28,9 +34,16 @@ import static com.example.demo.service.util.TelegramUpdateHelper.*;
 @RequiredArgsConstructor
 public class StatisticsCommandHandler implements BotCommandHandler {
 
+    private static final String STATS_PERIOD_PREFIX = "stats_period:";
+    private static final int TOP_CATEGORIES = 5;
+    private static final String CUSTOM_PERIOD = "custom";
+    private static final String PICK_FIRST_DAY_TEXT = "Выберите первый день периода:";
+    private static final String PICK_LAST_DAY_TEXT = "Выберите последний день периода:";
+
     private final DialogStateService dialogStateService;
     private final TransactionService transactionService;
     private final CategoryService categoryService;
+    private final StatsReportCache statsReportCache;
 
     @Override
     public boolean supports(Update update) {
@@ -44,6 +57,30 @@ public class StatisticsCommandHandler implements BotCommandHandler {
                 DialogStateType.AWAITING_STATS_PERIOD.equals(currentState);
     }
 
+    @Override
+    public boolean supports(Update update, DialogStateData state) {
+        if (!isValid(update)) {
+            return false;
+        }
+        return getEffectiveText(update).equalsIgnoreCase(BotMainMenuButton.STATISTICS.getText()) ||
+                (state != null && DialogStateType.AWAITING_STATS_PERIOD.equals(state.getState()));
+    }
+
+    @Override
+    public Set<String> menuTexts() {
+        return Set.of(BotMainMenuButton.STATISTICS.getText());
+    }
+
+    @Override
+    public Set<String> callbackPrefixes() {
+        return Set.of(STATS_PERIOD_PREFIX);
+    }
+
+    @Override
+    public Set<DialogStateType> dialogStates() {
+        return Set.of(DialogStateType.AWAITING_STATS_PERIOD);
+    }
+
     @Override
     public SendMessage handle(Long chatId, String message) {
         if (!StringUtils.hasText(message)) {
@@ -56,7 +93,9 @@ public class StatisticsCommandHandler implements BotCommandHandler {
         }
         return switch (currentState.getState()) {
             case IDLE -> initHandler(chatId, message, currentState);
-            case AWAITING_STATS_PERIOD -> periodStatsHandler(chatId, message, currentState);
+            case AWAITING_STATS_PERIOD -> message.startsWith("date")
+                    ? customPeriodHandler(chatId, message, currentState)
+                    : periodStatsHandler(chatId, message, currentState);
             default -> SendMessage.builder()
                     .chatId(chatId.toString())
                     .text("Пожалуйста, используйте меню для навигации.")
@@ -66,7 +105,7 @@ public class StatisticsCommandHandler implements BotCommandHandler {
 
     private SendMessage initHandler(Long chatId, String message, DialogStateData currentState) {
         dialogStateService.setDialogStateType(chatId, DialogStateType.AWAITING_STATS_PERIOD);
-        LocalDate now = LocalDate.now();
+        LocalDate now = LocalDate.now(ZoneOffset.UTC);
         String statsMessage = buildStatsMessage(chatId, now.withDayOfMonth(1), now);
         return SendMessage.builder()
                 .chatId(chatId.toString())
@@ -76,9 +115,23 @@ public class StatisticsCommandHandler implements BotCommandHandler {
     }
 
     private SendMessage periodStatsHandler(Long chatId, String message, DialogStateData currentState) {
-        LocalDate now = LocalDate.now();
+        // days are UTC days, like in the reports
+        LocalDate now = LocalDate.now(ZoneOffset.UTC);
         LocalDate startDate;
-        String period = message.split(":")[1];
+        if (!message.startsWith(STATS_PERIOD_PREFIX)) {
+            return null;
+        }
+        String period = message.substring(STATS_PERIOD_PREFIX.length());
+        if (CUSTOM_PERIOD.equals(period)) {
+            // the first day picked is kept in transactionDate until the last one is picked
+            currentState.setTransactionDate(null);
+            dialogStateService.saveOrUpdate(currentState);
+            return SendMessage.builder()
+                    .chatId(chatId.toString())
+                    .text(PICK_FIRST_DAY_TEXT)
+                    .replyMarkup(InlineCalendarUtil.buildCalendar(YearMonth.now(), null))
+                    .build();
+        }
         String stats = switch (period) {
             case "today" -> buildStatsMessage(chatId, now, now);
             case "month" -> buildStatsMessage(chatId, now.withDayOfMonth(1), now);
@@ -101,7 +154,48 @@ public class StatisticsCommandHandler implements BotCommandHandler {
                 .build();
     }
 
+    private SendMessage customPeriodHandler(Long chatId, String message, DialogStateData currentState) {
+        // date:accept:<yyyy-MM-dd> | calendar navigation
+        LocalDate firstDay = currentState.getTransactionDate();
+        String prompt = firstDay == null ? PICK_FIRST_DAY_TEXT : "Начало периода: " + firstDay + ". " + PICK_LAST_DAY_TEXT;
+        if (!message.startsWith("date:accept:")) {
+            return SendMessage.builder()
+                    .chatId(chatId.toString())
+                    .text(prompt)
+                    .replyMarkup(InlineCalendarUtil.handleCalendarNavigation(message))
+                    .build();
+        }
+        LocalDate picked;
+        try {
+            picked = LocalDate.parse(message.substring("date:accept:".length()));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        if (firstDay == null) {
+            currentState.setTransactionDate(picked);
+            dialogStateService.saveOrUpdate(currentState);
+            return SendMessage.builder()
+                    .chatId(chatId.toString())
+                    .text("Начало периода: " + picked + ". " + PICK_LAST_DAY_TEXT)
+                    .replyMarkup(InlineCalendarUtil.buildCalendar(YearMonth.from(picked), null))
+                    .build();
+        }
+        currentState.setTransactionDate(null);
+        dialogStateService.saveOrUpdate(currentState);
+        LocalDate startDate = picked.isBefore(firstDay) ? picked : firstDay;
+        LocalDate endDate = picked.isBefore(firstDay) ? firstDay : picked;
+        return SendMessage.builder()
+                .chatId(chatId.toString())
+                .text(buildStatsMessage(chatId, startDate, endDate) + "\n\n\nВведите /start для возврата в главное меню.")
+                .replyMarkup(buildPeriodKeyboard())
+                .build();
+    }
+
     private String buildStatsMessage(Long chatId, LocalDate startDate, LocalDate endDate) {
+        return statsReportCache.get(chatId, startDate, endDate, () -> buildReport(chatId, startDate, endDate));
+    }
+
+    private String buildReport(Long chatId, LocalDate startDate, LocalDate endDate) {
         StringBuilder stats = new StringBuilder("\uD83D\uDCCA Статистика — ");
         stats.append(startDate.getMonth()).append(" ").append(startDate.getYear());
         if (endDate != null && !endDate.equals(startDate) && endDate.isAfter(startDate)) {
@@ -109,24 +203,23 @@ public class StatisticsCommandHandler implements BotCommandHandler {
         }
         stats.append("\n\n");
 
-        List<Transaction> allByPeriod = transactionService.getAllByPeriod(chatId, startDate, endDate);
-        stats.append("Всего транзакций: ").append(allByPeriod.size()).append("\n\n");
-
-        BigDecimal expenses = allByPeriod.stream()
-                .filter(t -> TransactionType.EXPENSE.equals(t.getType()))
-                .map(Transaction::getAmount)
-                .reduce(BigDecimal::add)
-                .orElse(BigDecimal.ZERO);
+        // sums and counts come aggregated from the database, nothing here grows with the number of transactions
+        long count = 0;
+        BigDecimal expenses = BigDecimal.ZERO;
+        BigDecimal incomes = BigDecimal.ZERO;
+        for (TransactionRepository.TypeTotal total : transactionService.getTotalsByType(chatId, startDate, endDate)) {
+            count += total.getCount();
+            if (TransactionType.EXPENSE.equals(total.getType())) {
+                expenses = total.getTotal();
+            } else if (TransactionType.INCOME.equals(total.getType())) {
+                incomes = total.getTotal();
+            }
+        }
+        stats.append("Всего транзакций: ").append(count).append("\n\n");
 
         stats.append("• Расходы: ").append(expenses)
                 .append(" PLN\n");
 
-        BigDecimal incomes = allByPeriod.stream()
-                .filter(t -> TransactionType.INCOME.equals(t.getType()))
-                .map(Transaction::getAmount)
-                .reduce(BigDecimal::add)
-                .orElse(BigDecimal.ZERO);
-
         stats.append("• Доходы: ").append(incomes)
                 .append(" PLN\n");
 
@@ -135,31 +228,19 @@ public class StatisticsCommandHandler implements BotCommandHandler {
 
         stats.append("Топ категорий (расходы):\n");
 
-        AtomicInteger topCategoriesCount = new AtomicInteger();
-        allByPeriod.stream()
-                .filter(t -> TransactionType.EXPENSE.equals(t.getType()))
-                .map(Transaction::getCategory)
-                .distinct()
-                .forEach(cat -> {
-                    if (topCategoriesCount.getAndIncrement() >= 5) {
-                        return;
-                    }
-                    BigDecimal total = allByPeriod.stream()
-                            .filter(t -> TransactionType.EXPENSE.equals(t.getType()) && t.getCategory().equals(cat))
-                            .map(Transaction::getAmount)
-                            .reduce(BigDecimal::add)
-                            .orElse(BigDecimal.ZERO);
-
-                    stats.append("• ")
-                            .append(cat.getName())
-                            .append(": ").append(total)
-                            .append(" PLN.(")
-                            .append(expenses.compareTo(BigDecimal.ZERO) > 0
-                                ? (total.multiply(BigDecimal.valueOf(100)).divide(expenses, 2, BigDecimal.ROUND_HALF_UP))
-                                : "0")
-                            .append("%)\n");
-
-                });
+        // top-level categories, the spending in their subcategories included
+        for (TransactionRepository.CategoryAmount category : transactionService.getTopCategories(
+                chatId, TransactionType.EXPENSE, startDate, endDate, TOP_CATEGORIES)) {
+            BigDecimal total = category.getTotal();
+            stats.append("• ")
+                    .append(category.getName())
+                    .append(": ").append(total)
+                    .append(" PLN.(")
+                    .append(expenses.compareTo(BigDecimal.ZERO) > 0
+                        ? (total.multiply(BigDecimal.valueOf(100)).divide(expenses, 2, RoundingMode.HALF_UP))
+                        : "0")
+                    .append("%)\n");
+        }
 
         stats.append("\n\n");
 
@@ -171,23 +252,27 @@ public class StatisticsCommandHandler implements BotCommandHandler {
                 .keyboard(List.of(List.of(
                         InlineKeyboardButton.builder()
                             .text("Сегодня")
-                            .callbackData("stats_period:today")
+                            .callbackData(STATS_PERIOD_PREFIX + "today")
                             .build(),
                         InlineKeyboardButton.builder()
                                 .text("Этот месяц")
-                                .callbackData("stats_period:month")
+                                .callbackData(STATS_PERIOD_PREFIX + "month")
                                 .build(),
                         InlineKeyboardButton.builder()
                                 .text("Прошлый месяц")
-                                .callbackData("stats_period:last_month")
+                                .callbackData(STATS_PERIOD_PREFIX + "last_month")
                                 .build(),
                         InlineKeyboardButton.builder()
                                 .text("Этот год")
-                                .callbackData("stats_period:year")
+                                .callbackData(STATS_PERIOD_PREFIX + "year")
                                 .build(),
                         InlineKeyboardButton.builder()
                                 .text("Прошлый год")
-                                .callbackData("stats_period:last_year")
+                                .callbackData(STATS_PERIOD_PREFIX + "last_year")
+                                .build()),
+                        List.of(InlineKeyboardButton.builder()
+                                .text("Свой период")
+                                .callbackData(STATS_PERIOD_PREFIX + CUSTOM_PERIOD)
                                 .build())))
                 .build();
 
@@ -0,0 +1,82 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.repository.TransactionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps monthly partitions of {@code transactions} created ahead of time.
+ * <p>
+ * On start and then every {@code checkInterval} the partitions from the current month to {@code monthsAhead}
+ * months later are created if missing. Transactions of a month without a partition still land in the default
+ * partition and are moved out when the month's partition is created, so a missed run only costs pruning.
+ */
+@Slf4j
+public class TransactionPartitionMaintainer {
+
+    private final TransactionRepository transactionRepository;
+    private final int monthsAhead;
+    private final Duration checkInterval;
+    private final Clock clock;
+    private final Counter created;
+    private ScheduledExecutorService scheduler;
+
+    public TransactionPartitionMaintainer(TransactionRepository transactionRepository, int monthsAhead,
+                                          Duration checkInterval, Clock clock, MeterRegistry meterRegistry) {
+        if (monthsAhead < 0) {
+            throw new IllegalArgumentException("monthsAhead must not be negative");
+        }
+        this.transactionRepository = transactionRepository;
+        this.monthsAhead = monthsAhead;
+        this.checkInterval = checkInterval;
+        this.clock = clock;
+        this.created = Counter.builder("transactions.partitions.created")
+                .description("Monthly transaction partitions created ahead of time")
+                .register(meterRegistry);
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "transaction-partitions");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::ensurePartitionsQuietly, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the missing partitions up to {@code monthsAhead} months from now.
+     * @return number of created partitions
+     */
+    int ensurePartitions() {
+        LocalDate thisMonth = LocalDate.now(clock).withDayOfMonth(1);
+        int count = transactionRepository.ensurePartitions(thisMonth, thisMonth.plusMonths(monthsAhead));
+        created.increment(count);
+        return count;
+    }
+
+    private void ensurePartitionsQuietly() {
+        try {
+            int count = ensurePartitions();
+            if (count > 0) {
+                log.info("Created {} transaction partitions", count);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Transaction partitions not created, retrying in {}: {}", checkInterval, e.getMessage());
+        }
+    }
+}
@@ -8,14 +8,20 @@ import com.example.demo.service.AccountService;
 import com.example.demo.service.CategoryService;
 import com.example.demo.service.TransactionService;
 import com.example.demo.service.UserService;
+import com.example.demo.service.cache.StatsReportCache;
+import com.example.demo.service.cache.TransactionColumnStore;
+import com.example.demo.service.util.TransactionHooks;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 
 @Service
@@ -26,7 +32,13 @@ public class TransactionServiceImpl implements TransactionService {
     private final AccountService accountService;
     private final TransactionRepository transactionRepository;
     private final CategoryService categoryService;
+    private final StatsReportCache statsReportCache;
+    private final TransactionColumnStore transactionColumnStore;
 
+    /** Cached once true: until the backfill has completed, daily totals may miss older transactions. */
+    private volatile boolean dailyTotalsBackfilled;
+
+    private static final int AMOUNT_SCALE = 4;
     private static final DateTimeFormatter[] DATE_PATTERNS = new DateTimeFormatter[]{
             DateTimeFormatter.ofPattern("yyyy-MM-dd"),
             DateTimeFormatter.ofPattern("dd.MM.yyyy"),
@@ -55,6 +67,34 @@ public class TransactionServiceImpl implements TransactionService {
         );
     }
 
+    @Override
+    public List<TransactionRepository.TypeTotal> getTotalsByType(Long chatId, LocalDate startDate, LocalDate endDate) {
+        if (chatId == null) throw new IllegalArgumentException("chatId is required");
+        if (transactionColumnStore.isEnabled()) {
+            return transactionColumnStore.totalsByType(chatId, startDate, endDate);
+        }
+        if (!dailyTotalsReady()) {
+            return transactionRepository.sumTransactionsByType(chatId, startOfDay(startDate), startOfDay(endDate.plusDays(1)));
+        }
+        return transactionRepository.sumByType(chatId, startDate, endDate);
+    }
+
+    @Override
+    public List<TransactionRepository.CategoryAmount> getTopCategories(Long chatId, TransactionType type,
+                                                                       LocalDate startDate, LocalDate endDate, int limit) {
+        if (chatId == null) throw new IllegalArgumentException("chatId is required");
+        if (type == null) throw new IllegalArgumentException("type is required");
+        if (limit <= 0) throw new IllegalArgumentException("limit must be positive");
+        if (transactionColumnStore.isEnabled()) {
+            return transactionColumnStore.topCategories(chatId, type, startDate, endDate, limit);
+        }
+        if (!dailyTotalsReady()) {
+            return transactionRepository.findTopTransactionCategorySubtrees(chatId, type.name(), startOfDay(startDate),
+                    startOfDay(endDate.plusDays(1)), PageRequest.of(0, limit));
+        }
+        return transactionRepository.findTopCategorySubtrees(chatId, type.name(), startDate, endDate, PageRequest.of(0, limit));
+    }
+
     @Override
     public String getTodayStats(Long chatId) {
         return "Функция пока не реализована";
@@ -83,28 +123,55 @@ public class TransactionServiceImpl implements TransactionService {
         if (transactions.isEmpty()) {
             throw new NotFoundException("Нет транзакций для удаления");
         }
-        transactionRepository.delete(transactions.get(0));
+        Transaction last = transactions.get(0);
+        transactionRepository.addToDailyTotals(last.getId(), last.getOperationTime(), -1);
+        transactionRepository.deleteEmptyDailyTotals(last.getId(), last.getOperationTime());
+        transactionRepository.deleteByIdAndOperationTime(last.getId(), last.getOperationTime());
+        TransactionHooks.afterCommit(() -> {
+            statsReportCache.invalidate(chatId);
+            transactionColumnStore.invalidate(chatId);
+        });
     }
 
     /* ===================== Internal helpers ===================== */
 
     private void addTransaction(Long chatId, BigDecimal amount, Category category, String comment, String dateStr, TransactionType type, Account account) {
-        User user = findUserByChatId(chatId);
-        Instant opTime = parseDateOrNow(dateStr);
+        if (chatId == null) throw new IllegalArgumentException("chatId is required");
+        if (amount == null) throw new IllegalArgumentException("amount is required");
+        // the partition key is later matched exactly, keep no more precision than the column stores
+        Instant opTime = parseDateOrNow(dateStr).truncatedTo(ChronoUnit.MICROS);
 
         Transaction trx = new Transaction();
-        trx.setOwner(user);
+        trx.setOwner(userService.getOwnerReference(chatId));
         trx.setType(type);
         trx.setStatus(TransactionStatus.POSTED);
         trx.setAccount(account);
-        trx.setAmount(amount);
+        // stored as numeric(19,4): round here so the entity, the caches and the row hold the same amount
+        trx.setAmount(amount.setScale(AMOUNT_SCALE, RoundingMode.HALF_UP));
         trx.setCurrency(account.getCurrency());
         trx.setDescription(comment != null && !comment.isBlank() ? truncate(comment) : null);
         trx.setOperationTime(opTime);
         trx.setPostedTime(Instant.now());
         trx.setCategory(category);
         transactionRepository.save(trx);
-        categoryService.incrementCategoryUsage(category);
+        // same database transaction as the insert, reports never see one without the other
+        transactionRepository.addToDailyTotals(trx.getId(), trx.getOperationTime(), 1);
+        categoryService.incrementCategoryUsage(chatId, category);
+        TransactionHooks.afterCommit(() -> {
+            statsReportCache.invalidate(chatId);
+            transactionColumnStore.append(chatId, trx);
+        });
+    }
+
+    private boolean dailyTotalsReady() {
+        if (!dailyTotalsBackfilled) {
+            dailyTotalsBackfilled = transactionRepository.isDailyTotalsBackfilled();
+        }
+        return dailyTotalsBackfilled;
+    }
+
+    private static Instant startOfDay(LocalDate day) {
+        return day.atStartOfDay().toInstant(ZoneOffset.UTC);
     }
 
     private User findUserByChatId(Long chatId) {
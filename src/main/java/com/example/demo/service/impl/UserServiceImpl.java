@@ -4,7 +4,10 @@ import com.example.demo.exception.NotFoundException;
 import com.example.demo.model.entity.User;
 import com.example.demo.repository.UserRepository;
 import com.example.demo.service.UserService;
+import com.example.demo.service.cache.ChatIdRegistry;
+import com.example.demo.service.cache.UserIdentityCache;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -16,6 +19,8 @@ import java.util.Optional;
 public class UserServiceImpl implements UserService {
 
     private final UserRepository userRepository;
+    private final ChatIdRegistry chatIdRegistry;
+    private final UserIdentityCache userIdentityCache;
 
     @Override
     @Transactional
@@ -45,6 +50,23 @@ public class UserServiceImpl implements UserService {
         userRepository.save(user);
     }
 
+    @Override
+    public void ensureRegistered(String username, String firstName, String lastName, Long chatId) {
+        if (chatId == null) {
+            throw new IllegalArgumentException("chatId is required");
+        }
+        if (chatIdRegistry.isKnown(chatId)) {
+            return;
+        }
+        try {
+            userRepository.insertIfAbsent(trimToNull(username), trimToNull(firstName), trimToNull(lastName), chatId);
+        } catch (DataIntegrityViolationException e) {
+            // chat_id conflicts are absorbed by the upsert, so this is the username constraint
+            throw new IllegalArgumentException("User with username already exists: " + username, e);
+        }
+        chatIdRegistry.confirm(chatId);
+    }
+
     @Override
     public Optional<User> findById(Long id) {
         return userRepository.findById(id);
@@ -67,14 +89,27 @@ public class UserServiceImpl implements UserService {
                 .orElseThrow(() -> new NotFoundException("User not found with chatId: " + chatId));
     }
 
+    @Override
+    public User getOwnerReference(Long chatId) {
+        if (chatId == null) throw new IllegalArgumentException("chatId is required");
+        Long userId = userIdentityCache.get(chatId);
+        if (userId == null) {
+            userId = userRepository.findIdByChatId(chatId)
+                    .orElseThrow(() -> new NotFoundException("User not found with chatId: " + chatId));
+            userIdentityCache.put(chatId, userId);
+        }
+        return userRepository.getReferenceById(userId);
+    }
+
     @Override
     @Transactional
     public void deleteUser(Long userId) {
         if (userId == null) throw new IllegalArgumentException("userId is required");
-        if (!userRepository.existsById(userId)) {
-            throw new NotFoundException("User not found: " + userId);
-        }
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new NotFoundException("User not found: " + userId));
         userRepository.deleteById(userId);
+        userIdentityCache.evict(user.getChatId());
+        chatIdRegistry.forget(user.getChatId());
     }
 
     @Override
@@ -88,4 +123,8 @@ public class UserServiceImpl implements UserService {
         if (chatId == null) return false;
         return userRepository.existsByChatId(chatId);
     }
+
+    private static String trimToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
 }
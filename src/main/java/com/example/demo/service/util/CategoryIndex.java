@@ -0,0 +1,32 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Category;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory lookups over one chat's visible categories of a type, built together from one query.
+ *
+ * @param ranked all categories by global usage, then name; sorted once when the index is built
+ * @param byId   the same categories by id
+ */
+public record CategoryIndex(CategoryMatcher matcher, CategorySuggester suggester, List<Category> ranked,
+                            Map<Long, Category> byId) {
+
+    public static CategoryIndex of(List<Category> categories) {
+        List<Category> ranked = categories.stream()
+                .sorted(Comparator.comparing(Category::getUsageCount).reversed()
+                        .thenComparing(Category::getName, String.CASE_INSENSITIVE_ORDER))
+                .toList();
+        Map<Long, Category> byId = new HashMap<>();
+        for (Category category : categories) {
+            if (category.getId() != null) {
+                byId.put(category.getId(), category);
+            }
+        }
+        return new CategoryIndex(CategoryMatcher.of(categories), CategorySuggester.of(categories), ranked, Map.copyOf(byId));
+    }
+}
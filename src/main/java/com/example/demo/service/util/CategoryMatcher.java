@@ -0,0 +1,216 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Category;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over category names for finding a category inside a free-form message.
+ * <p>
+ * Names and message are compared case-insensitively with runs of whitespace collapsed to one space. The message
+ * tokens are fed through the automaton once; at the end of every token the patterns ending there are checked for
+ * alignment with token boundaries, so "такси" matches the token "такси" but not "автотакси". The longest match
+ * wins, on equal length the leftmost one. When a user category and a global one have the same name, the user's
+ * own is kept. Instances are immutable and safe to share.
+ */
+public final class CategoryMatcher {
+
+    private static final char SEPARATOR = ' ';
+    private static final int NONE = -1;
+
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    /** Pattern ending in this node, or {@link #NONE}. */
+    private final int[] pattern;
+    /** Nearest node on the failure chain that ends a pattern, or {@link #NONE}. */
+    private final int[] outputLink;
+    private final Category[] categories;
+    private final int[] lengths;
+    private final int[] separators;
+
+    public record Match(Category category, int startToken, int endToken) {
+    }
+
+    private CategoryMatcher(char[][] labels, int[][] targets, int[] fail, int[] pattern, int[] outputLink,
+                            Category[] categories, int[] lengths, int[] separators) {
+        this.labels = labels;
+        this.targets = targets;
+        this.fail = fail;
+        this.pattern = pattern;
+        this.outputLink = outputLink;
+        this.categories = categories;
+        this.lengths = lengths;
+        this.separators = separators;
+    }
+
+    public static CategoryMatcher of(Collection<Category> candidates) {
+        Map<String, Category> byName = byNormalizedName(candidates);
+
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> terminal = new ArrayList<>();
+        children.add(new TreeMap<>());
+        terminal.add(NONE);
+        Category[] categories = new Category[byName.size()];
+        int[] lengths = new int[byName.size()];
+        int[] separators = new int[byName.size()];
+        int index = 0;
+        for (Map.Entry<String, Category> e : byName.entrySet()) {
+            String name = e.getKey();
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                Integer next = children.get(node).get(name.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    terminal.add(NONE);
+                    children.get(node).put(name.charAt(i), next);
+                }
+                node = next;
+            }
+            terminal.set(node, index);
+            categories[index] = e.getValue();
+            lengths[index] = name.length();
+            separators[index] = (int) name.chars().filter(c -> c == SEPARATOR).count();
+            index++;
+        }
+
+        int size = children.size();
+        char[][] labels = new char[size][];
+        int[][] targets = new int[size][];
+        int[] pattern = new int[size];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> edges = children.get(node);
+            labels[node] = new char[edges.size()];
+            targets[node] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                labels[node][i] = edge.getKey();
+                targets[node][i] = edge.getValue();
+                i++;
+            }
+            pattern[node] = terminal.get(node);
+        }
+
+        int[] fail = new int[size];
+        int[] outputLink = new int[size];
+        Arrays.fill(outputLink, NONE);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < labels[node].length; i++) {
+                int child = targets[node][i];
+                int f = fail[node];
+                int next;
+                while ((next = transition(labels, targets, f, labels[node][i])) == NONE && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = next != NONE ? next : 0;
+                outputLink[child] = pattern[fail[child]] != NONE ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+        return new CategoryMatcher(labels, targets, fail, pattern, outputLink, categories, lengths, separators);
+    }
+
+    /**
+     * Longest category spelled by whole tokens, considering tokens from {@code fromToken} on.
+     */
+    public Optional<Match> longestMatch(List<String> tokens, int fromToken) {
+        int state = 0;
+        int offset = 0;
+        int[] tokenStart = new int[tokens.size()];
+        Match best = null;
+        int bestLength = 0;
+        for (int t = fromToken; t < tokens.size(); t++) {
+            if (t > fromToken) {
+                state = step(state, SEPARATOR);
+                offset++;
+            }
+            tokenStart[t] = offset;
+            String token = tokens.get(t);
+            for (int i = 0; i < token.length(); i++) {
+                state = step(state, Character.toLowerCase(token.charAt(i)));
+            }
+            offset += token.length();
+            // patterns on the output chain get shorter, so the first aligned one is the longest ending here
+            for (int node = pattern[state] != NONE ? state : outputLink[state]; node != NONE; node = outputLink[node]) {
+                int p = pattern[node];
+                int startToken = t - separators[p];
+                if (startToken >= fromToken && tokenStart[startToken] == offset - lengths[p]) {
+                    if (lengths[p] > bestLength) {
+                        best = new Match(categories[p], startToken, t);
+                        bestLength = lengths[p];
+                    }
+                    break;
+                }
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    public int size() {
+        return categories.length;
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            int next = transition(labels, targets, state, c);
+            if (next != NONE) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private static int transition(char[][] labels, int[][] targets, int node, char c) {
+        int i = Arrays.binarySearch(labels[node], c);
+        return i >= 0 ? targets[node][i] : NONE;
+    }
+
+    /** One category per normalized name, the user's own winning over a global one. */
+    static Map<String, Category> byNormalizedName(Collection<Category> candidates) {
+        Map<String, Category> byName = new HashMap<>();
+        for (Category category : candidates) {
+            String name = normalize(category.getName());
+            if (!name.isEmpty()) {
+                byName.merge(name, category, (kept, other) -> kept.getOwner() == null && other.getOwner() != null ? other : kept);
+            }
+        }
+        return byName;
+    }
+
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        String[] parts = name.trim().split("\\s+");
+        StringBuilder sb = new StringBuilder(name.length());
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            for (int i = 0; i < part.length(); i++) {
+                sb.append(Character.toLowerCase(part.charAt(i)));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trigram index of category names for "did you mean" suggestions, tolerant to typos such as "прдукты".
+ * <p>
+ * Names are normalized like in {@link CategoryMatcher} and padded pg_trgm style (two spaces in front, one
+ * behind); of a global and an own category with the same name only the own one is kept. A candidate's similarity is the mean of the Jaccard index of both trigram sets and the share of the
+ * query's trigrams found in the name; the latter keeps a short prefix like "прод" close to "Продукты и хозтовары".
+ * Candidates below {@link #MIN_SIMILARITY} are dropped, the rest are ranked by similarity plus a bounded usage
+ * bonus. Instances are immutable and safe to share.
+ */
+public final class CategorySuggester {
+
+    static final double MIN_SIMILARITY = 0.3;
+    private static final double USAGE_WEIGHT = 0.1;
+    private static final double USAGE_HALF = 20;
+
+    private final Category[] categories;
+    private final int[] trigramCounts;
+    private final Map<Long, int[]> postings;
+
+    private CategorySuggester(Category[] categories, int[] trigramCounts, Map<Long, int[]> postings) {
+        this.categories = categories;
+        this.trigramCounts = trigramCounts;
+        this.postings = postings;
+    }
+
+    public static CategorySuggester of(Collection<Category> candidates) {
+        Category[] categories = CategoryMatcher.byNormalizedName(candidates).values().toArray(new Category[0]);
+        int[] trigramCounts = new int[categories.length];
+        Map<Long, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < categories.length; i++) {
+            long[] trigrams = trigrams(CategoryMatcher.normalize(categories[i].getName()));
+            trigramCounts[i] = trigrams.length;
+            for (long trigram : trigrams) {
+                lists.computeIfAbsent(trigram, k -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<Long, int[]> postings = new HashMap<>(lists.size() * 2);
+        lists.forEach((trigram, ids) -> postings.put(trigram, ids.stream().mapToInt(Integer::intValue).toArray()));
+        return new CategorySuggester(categories, trigramCounts, postings);
+    }
+
+    /** Up to {@code limit} categories similar to {@code query}, best first. */
+    public List<Category> suggest(String query, int limit) {
+        long[] queryTrigrams = trigrams(CategoryMatcher.normalize(query));
+        if (queryTrigrams.length == 0 || limit <= 0) {
+            return List.of();
+        }
+        int[] shared = new int[categories.length];
+        for (long trigram : queryTrigrams) {
+            int[] ids = postings.get(trigram);
+            if (ids != null) {
+                for (int id : ids) {
+                    shared[id]++;
+                }
+            }
+        }
+        List<Scored> scored = new ArrayList<>();
+        for (int i = 0; i < categories.length; i++) {
+            if (shared[i] == 0) {
+                continue;
+            }
+            double jaccard = (double) shared[i] / (queryTrigrams.length + trigramCounts[i] - shared[i]);
+            double coverage = (double) shared[i] / queryTrigrams.length;
+            double similarity = (jaccard + coverage) / 2;
+            if (similarity >= MIN_SIMILARITY) {
+                scored.add(new Scored(categories[i], similarity + usageBonus(categories[i])));
+            }
+        }
+        scored.sort(Comparator.comparingDouble(Scored::score).reversed()
+                .thenComparing(s -> s.category().getName(), String.CASE_INSENSITIVE_ORDER));
+        List<Category> result = new ArrayList<>(Math.min(limit, scored.size()));
+        for (int i = 0; i < scored.size() && i < limit; i++) {
+            result.add(scored.get(i).category());
+        }
+        return result;
+    }
+
+    private static double usageBonus(Category category) {
+        long usage = category.getUsageCount() != null ? category.getUsageCount() : 0;
+        return USAGE_WEIGHT * usage / (usage + USAGE_HALF);
+    }
+
+    /** Distinct trigrams of the padded, normalized text, each packed into a long. */
+    static long[] trigrams(String normalized) {
+        if (normalized.isEmpty()) {
+            return new long[0];
+        }
+        String padded = "  " + normalized + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        return Arrays.stream(trigrams).distinct().toArray();
+    }
+
+    private record Scored(Category category, double score) {
+    }
+}
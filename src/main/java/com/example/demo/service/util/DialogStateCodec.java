@@ -0,0 +1,260 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary format for {@link DialogStateData}.
+ * <pre>
+ * byte    version (currently 1)
+ * byte    flags: bit0 = body is deflated
+ * body:
+ *   byte    presence bits: state, amount, categoryId, accountId, transactionDate, comment, lastUpdated
+ *   byte    booleans: bit0 = expense, bit1 = income
+ *   varlong chatId (zig-zag, group chats are negative)
+ *   [byte   state ordinal]
+ *   [varint scale, varint length, bytes unscaled two's complement]  amount
+ *   [varlong categoryId] [varlong accountId]
+ *   [varlong epoch day] [varint length, UTF-8 bytes] comment
+ *   [varlong epoch millis, UTC]  lastUpdated (millisecond precision)
+ * </pre>
+ * A typical state is 10-25 bytes. Bodies larger than {@code compressAbove} bytes (long comments) are deflated
+ * when that actually makes them smaller.
+ */
+public class DialogStateCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final int FLAG_DEFLATED = 1;
+
+    private static final int HAS_STATE = 1;
+    private static final int HAS_AMOUNT = 1 << 1;
+    private static final int HAS_CATEGORY = 1 << 2;
+    private static final int HAS_ACCOUNT = 1 << 3;
+    private static final int HAS_DATE = 1 << 4;
+    private static final int HAS_COMMENT = 1 << 5;
+    private static final int HAS_LAST_UPDATED = 1 << 6;
+
+    private static final int EXPENSE = 1;
+    private static final int INCOME = 1 << 1;
+
+    private static final DialogStateType[] STATES = DialogStateType.values();
+
+    private final int compressAbove;
+
+    /**
+     * @param compressAbove body size in bytes above which deflate is tried; negative disables compression
+     */
+    public DialogStateCodec(int compressAbove) {
+        this.compressAbove = compressAbove;
+    }
+
+    public byte[] encode(DialogStateData data) {
+        if (data == null || data.getChatId() == null) {
+            throw new IllegalArgumentException("dialogStateData or chatId cannot be null");
+        }
+        Writer body = new Writer();
+        int presence = (data.getState() != null ? HAS_STATE : 0)
+                | (data.getAmount() != null ? HAS_AMOUNT : 0)
+                | (data.getCategoryId() != null ? HAS_CATEGORY : 0)
+                | (data.getAccountId() != null ? HAS_ACCOUNT : 0)
+                | (data.getTransactionDate() != null ? HAS_DATE : 0)
+                | (data.getComment() != null ? HAS_COMMENT : 0)
+                | (data.getLastUpdated() != null ? HAS_LAST_UPDATED : 0);
+        body.write(presence);
+        body.write((data.isExpense() ? EXPENSE : 0) | (data.isIncome() ? INCOME : 0));
+        body.writeSignedVarLong(data.getChatId());
+        if (data.getState() != null) {
+            body.write(data.getState().ordinal());
+        }
+        if (data.getAmount() != null) {
+            body.writeSignedVarLong(data.getAmount().scale());
+            body.writeLengthPrefixed(data.getAmount().unscaledValue().toByteArray());
+        }
+        if (data.getCategoryId() != null) {
+            body.writeSignedVarLong(data.getCategoryId());
+        }
+        if (data.getAccountId() != null) {
+            body.writeSignedVarLong(data.getAccountId());
+        }
+        if (data.getTransactionDate() != null) {
+            body.writeSignedVarLong(data.getTransactionDate().toEpochDay());
+        }
+        if (data.getComment() != null) {
+            body.writeLengthPrefixed(data.getComment().getBytes(StandardCharsets.UTF_8));
+        }
+        if (data.getLastUpdated() != null) {
+            body.writeSignedVarLong(data.getLastUpdated().toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        byte[] raw = body.toByteArray();
+        int flags = 0;
+        if (compressAbove >= 0 && raw.length > compressAbove) {
+            byte[] deflated = deflate(raw);
+            if (deflated.length < raw.length) {
+                raw = deflated;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+        byte[] out = new byte[raw.length + 2];
+        out[0] = VERSION;
+        out[1] = (byte) flags;
+        System.arraycopy(raw, 0, out, 2, raw.length);
+        return out;
+    }
+
+    public DialogStateData decode(byte[] bytes) {
+        if (bytes == null || bytes.length < 2) {
+            throw new IllegalArgumentException("Dialog state payload is too short");
+        }
+        if (bytes[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported dialog state format version: " + bytes[0]);
+        }
+        byte[] raw = Arrays.copyOfRange(bytes, 2, bytes.length);
+        if ((bytes[1] & FLAG_DEFLATED) != 0) {
+            raw = inflate(raw);
+        }
+        Reader in = new Reader(raw);
+        int presence = in.read();
+        int booleans = in.read();
+        DialogStateData data = new DialogStateData();
+        data.setChatId(in.readSignedVarLong());
+        data.setExpense((booleans & EXPENSE) != 0);
+        data.setIncome((booleans & INCOME) != 0);
+        if ((presence & HAS_STATE) != 0) {
+            int ordinal = in.read();
+            if (ordinal >= STATES.length) {
+                throw new IllegalArgumentException("Unknown dialog state ordinal: " + ordinal);
+            }
+            data.setState(STATES[ordinal]);
+        }
+        if ((presence & HAS_AMOUNT) != 0) {
+            int scale = (int) in.readSignedVarLong();
+            data.setAmount(new BigDecimal(new BigInteger(in.readBytes()), scale));
+        }
+        if ((presence & HAS_CATEGORY) != 0) {
+            data.setCategoryId(in.readSignedVarLong());
+        }
+        if ((presence & HAS_ACCOUNT) != 0) {
+            data.setAccountId(in.readSignedVarLong());
+        }
+        if ((presence & HAS_DATE) != 0) {
+            data.setTransactionDate(LocalDate.ofEpochDay(in.readSignedVarLong()));
+        }
+        if ((presence & HAS_COMMENT) != 0) {
+            data.setComment(new String(in.readBytes(), StandardCharsets.UTF_8));
+        }
+        if ((presence & HAS_LAST_UPDATED) != 0) {
+            data.setLastUpdated(LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readSignedVarLong()), ZoneOffset.UTC));
+        }
+        return data;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+            byte[] buffer = new byte[256];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 2);
+            byte[] buffer = new byte[256];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed dialog state");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted compressed dialog state", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+        Writer() {
+            super(32);
+        }
+
+        void writeSignedVarLong(long value) {
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void writeLengthPrefixed(byte[] bytes) {
+            writeSignedVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int read() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("Truncated dialog state payload");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readSignedVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (v >>> 1) ^ -(v & 1);
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in dialog state payload");
+        }
+
+        byte[] readBytes() {
+            int length = (int) readSignedVarLong();
+            if (length < 0 || length > buf.length - pos) {
+                throw new IllegalArgumentException("Truncated dialog state payload");
+            }
+            byte[] bytes = Arrays.copyOfRange(buf, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.demo.service.util;
+
+/**
+ * Sums of {@code long} values at positions {@code 0 .. size - 1} (binary indexed tree): adding to a position and
+ * the sum of any range both take O(log size). Not thread-safe.
+ */
+public class FenwickTree {
+
+    /** One-based: {@code tree[i]} holds the sum of the {@code i & -i} positions ending at {@code i - 1}. */
+    private final long[] tree;
+
+    public FenwickTree(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.tree = new long[size + 1];
+    }
+
+    /** A tree over the given values, built in O(size). */
+    public static FenwickTree of(long[] values) {
+        FenwickTree result = new FenwickTree(values.length);
+        long[] tree = result.tree;
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += values[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return tree.length - 1;
+    }
+
+    public void add(int index, long delta) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + " outside 0.." + (size() - 1));
+        }
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /** Sum of positions {@code 0 .. index}; 0 for a negative index, the total for one past the end or beyond. */
+    public long prefixSum(int index) {
+        long sum = 0;
+        for (int i = Math.min(index + 1, size()); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /** Sum of positions {@code from .. to}, both included; the part outside the tree counts as 0. */
+    public long rangeSum(int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        return prefixSum(to) - prefixSum(from - 1);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.demo.service.util;
+
+/**
+ * Classic token bucket: holds at most {@code capacity} permits and refills continuously at
+ * {@code permitsPerSecond}. Time is passed in explicitly (nanoseconds, {@link System#nanoTime()} scale)
+ * so callers can evaluate many buckets against a single clock reading.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double permitsPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double capacity, double permitsPerSecond, long now) {
+        if (capacity < 1 || permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("capacity must be >= 1 and rate must be positive");
+        }
+        this.capacity = capacity;
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /** Takes one permit if available. */
+    public synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /** Nanoseconds until the next permit becomes available (0 if one is available now). */
+    public synchronized long nanosUntilAvailable(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / permitsPerNano);
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * permitsPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.demo.service.util;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@Slf4j
+@UtilityClass
+public class TransactionHooks {
+
+    /**
+     * Runs the action once the surrounding transaction committed, so a cache reloaded in between cannot see the old
+     * rows; runs it right away outside a transaction. The write is done by then, so a failing action is logged
+     * rather than reported to the caller as a failed write.
+     */
+    public void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runLogged(action);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runLogged(action);
+            }
+        });
+    }
+
+    private void runLogged(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.error("After-commit action failed", e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+-- liquibase formatted sql
+--changeset system:005-category-owner-type-index context:ddl
+
+-- 005: Составной индекс (owner_id, type) для выборки глобальных и собственных категорий пользователя по типу.
+-- Покрывает и запросы только по owner_id, поэтому idx_category_owner больше не нужен.
+CREATE INDEX IF NOT EXISTS idx_category_owner_type ON categories(owner_id, type);
+DROP INDEX IF EXISTS idx_category_owner;
+
+--rollback CREATE INDEX IF NOT EXISTS idx_category_owner ON categories(owner_id);
+--rollback DROP INDEX IF EXISTS idx_category_owner_type;
@@ -0,0 +1,31 @@
+-- liquibase formatted sql
+--changeset system:006-category-closure context:ddl
+
+-- 006: Таблица замыкания иерархии категорий: пара (предок, потомок) для каждого пути в дереве, включая
+-- путь длины 0 от категории к самой себе. Отчёты сворачивают траты подкатегорий в родителей одним JOIN
+-- без рекурсивных CTE. Поддерживается CategoryService при создании и удалении категорий.
+CREATE TABLE IF NOT EXISTS category_closure (
+    ancestor_id   BIGINT NOT NULL,
+    descendant_id BIGINT NOT NULL,
+    depth         INT NOT NULL,
+    CONSTRAINT pk_category_closure PRIMARY KEY (ancestor_id, descendant_id)
+);
+CREATE INDEX IF NOT EXISTS idx_category_closure_descendant ON category_closure(descendant_id, ancestor_id);
+ALTER TABLE category_closure
+    ADD CONSTRAINT fk_category_closure_ancestor FOREIGN KEY (ancestor_id) REFERENCES categories(id) ON DELETE CASCADE;
+ALTER TABLE category_closure
+    ADD CONSTRAINT fk_category_closure_descendant FOREIGN KEY (descendant_id) REFERENCES categories(id) ON DELETE CASCADE;
+
+-- Заполнение для уже существующих категорий (включая подкатегории из 004)
+WITH RECURSIVE paths (ancestor_id, descendant_id, depth) AS (
+    SELECT id, id, 0 FROM categories
+    UNION ALL
+    SELECT p.ancestor_id, c.id, p.depth + 1
+      FROM paths p
+      JOIN categories c ON c.parent_id = p.descendant_id
+)
+INSERT INTO category_closure (ancestor_id, descendant_id, depth)
+SELECT ancestor_id, descendant_id, depth FROM paths
+ON CONFLICT DO NOTHING;
+
+--rollback DROP TABLE IF EXISTS category_closure;
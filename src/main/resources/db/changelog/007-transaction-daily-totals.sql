@@ -0,0 +1,31 @@
+-- liquibase formatted sql
+--changeset system:007-transaction-daily-totals context:ddl
+
+-- 007: Дневные итоги транзакций по (владелец, день, категория, тип, валюта). Обновляются в той же транзакции БД,
+-- что и запись или удаление транзакции; отчёт за год читает не больше 366 дней по каждой категории вместо всех
+-- транзакций периода. Существующие данные заполняет фоновый DailyTotalsBackfill, по владельцам; пока он не
+-- завершён, отчёты считаются по самим транзакциям.
+CREATE TABLE IF NOT EXISTS transaction_daily_totals (
+    owner_id    BIGINT NOT NULL,
+    day         DATE NOT NULL,
+    category_id BIGINT,
+    type        VARCHAR(16) NOT NULL,
+    currency    CHAR(3) NOT NULL,
+    total       NUMERIC(19,4) NOT NULL,
+    tx_count    INT NOT NULL,
+    CONSTRAINT uq_trx_daily_totals UNIQUE NULLS NOT DISTINCT (owner_id, day, category_id, type, currency)
+);
+ALTER TABLE transaction_daily_totals
+    ADD CONSTRAINT fk_trx_daily_totals_owner FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE;
+-- Без внешнего ключа на categories: после удаления категории её строки продолжают учитываться в суммах по типу,
+-- как и транзакции с category_id = NULL, а из разбивки по категориям выпадают при JOIN.
+
+-- Отметка о завершении первичного заполнения
+CREATE TABLE IF NOT EXISTS transaction_rollup_backfill (
+    id           INT PRIMARY KEY,
+    completed_at TIMESTAMP
+);
+INSERT INTO transaction_rollup_backfill (id, completed_at) VALUES (1, NULL) ON CONFLICT DO NOTHING;
+
+--rollback DROP TABLE IF EXISTS transaction_rollup_backfill;
+--rollback DROP TABLE IF EXISTS transaction_daily_totals;
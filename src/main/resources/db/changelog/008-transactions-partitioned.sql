@@ -0,0 +1,123 @@
+-- liquibase formatted sql
+
+--changeset system:008-transaction-partition-functions context:ddl splitStatements:false
+-- 008: Секционирование transactions по месяцам operation_time.
+-- ensure_transaction_partitions создаёт недостающие месячные секции transactions_YYYY_MM с from_month по to_month
+-- включительно и возвращает их число. Строки, попавшие в transactions_default до появления своего месяца
+-- (например, дата далеко в будущем), переносятся в новую секцию: иначе ATTACH отклонил бы её. Вызывается
+-- миграцией и периодически TransactionPartitionMaintainer на несколько месяцев вперёд.
+CREATE OR REPLACE FUNCTION ensure_transaction_partitions(from_month DATE, to_month DATE) RETURNS INT AS $$
+DECLARE
+    month_start DATE := date_trunc('month', from_month)::date;
+    month_end   DATE;
+    part_name   TEXT;
+    created     INT := 0;
+BEGIN
+    -- несколько экземпляров приложения не создают одну секцию одновременно
+    PERFORM pg_advisory_xact_lock(hashtext('ensure_transaction_partitions'));
+    WHILE month_start <= to_month LOOP
+        month_end := (month_start + INTERVAL '1 month')::date;
+        part_name := 'transactions_' || to_char(month_start, 'YYYY_MM');
+        IF to_regclass(part_name) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I (LIKE transactions)', part_name);
+            EXECUTE format('WITH moved AS (DELETE FROM transactions_default WHERE operation_time >= %L AND operation_time < %L '
+                               'RETURNING *) INSERT INTO %I SELECT * FROM moved', month_start, month_end, part_name);
+            EXECUTE format('ALTER TABLE transactions ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                           part_name, month_start, month_end);
+            created := created + 1;
+        END IF;
+        month_start := month_end;
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Внешний ключ на секционированную таблицу должен включать ключ секционирования, поэтому attachments и
+-- transaction_splits вместо ON DELETE CASCADE чистит триггер уровня оператора по таблице удалённых строк — без
+-- поиска по transactions, который без operation_time обходил бы все секции. Переезд строки в другую секцию
+-- (UPDATE operation_time или перенос из DEFAULT прямо в секции) не является DELETE по transactions и его не вызывает.
+CREATE OR REPLACE FUNCTION transactions_delete_children() RETURNS TRIGGER AS $$
+BEGIN
+    DELETE FROM attachments a USING deleted d WHERE a.transaction_id = d.id;
+    DELETE FROM transaction_splits s USING deleted d WHERE s.transaction_id = d.id;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+--rollback DROP FUNCTION IF EXISTS transactions_delete_children();
+--rollback DROP FUNCTION IF EXISTS ensure_transaction_partitions(DATE, DATE);
+
+--changeset system:008-transactions-partitioned context:ddl
+-- Таблица пересоздаётся секционированной и заполняется из старой. Первичный ключ (id, operation_time) — id
+-- по-прежнему выдаёт transactions_id_seq. Индекс (owner_id, operation_time) есть в каждой секции, отчёты за период
+-- читают только секции своих месяцев, а старый месяц можно отсоединить через DETACH PARTITION.
+ALTER TABLE transaction_splits DROP CONSTRAINT IF EXISTS fk_split_trx;
+ALTER TABLE attachments DROP CONSTRAINT IF EXISTS fk_attachment_trx;
+
+ALTER TABLE transactions RENAME TO transactions_unpartitioned;
+ALTER SEQUENCE transactions_id_seq OWNED BY NONE;
+
+CREATE TABLE transactions (
+    id              BIGINT NOT NULL DEFAULT nextval('transactions_id_seq'),
+    owner_id        BIGINT NOT NULL,
+    type            VARCHAR(16) NOT NULL,
+    status          VARCHAR(16) NOT NULL,
+    account_id      BIGINT NOT NULL,
+    amount          NUMERIC(19,4) NOT NULL,
+    currency        CHAR(3) NOT NULL,
+    exchange_rate   NUMERIC(19,8),
+    description     VARCHAR(512),
+    note            VARCHAR(1024),
+    operation_time  TIMESTAMP NOT NULL DEFAULT NOW(),
+    posted_time     TIMESTAMP,
+    external_ref    VARCHAR(128),
+    category_id     BIGINT,
+    created_at      TIMESTAMP NOT NULL DEFAULT NOW(),
+    updated_at      TIMESTAMP NOT NULL DEFAULT NOW()
+) PARTITION BY RANGE (operation_time);
+ALTER SEQUENCE transactions_id_seq OWNED BY transactions.id;
+CREATE TABLE transactions_default PARTITION OF transactions DEFAULT;
+
+-- Секции для месяцев с данными и на три месяца вперёд
+SELECT ensure_transaction_partitions(m.month, m.month)
+FROM (SELECT DISTINCT date_trunc('month', operation_time)::date AS month FROM transactions_unpartitioned) m;
+SELECT ensure_transaction_partitions(CURRENT_DATE, (CURRENT_DATE + INTERVAL '3 months')::date);
+
+INSERT INTO transactions (id, owner_id, type, status, account_id, amount, currency, exchange_rate, description, note,
+                          operation_time, posted_time, external_ref, category_id, created_at, updated_at)
+SELECT id, owner_id, type, status, account_id, amount, currency, exchange_rate, description, note,
+       operation_time, posted_time, external_ref, category_id, created_at, updated_at
+FROM transactions_unpartitioned;
+DROP TABLE transactions_unpartitioned;
+
+-- Индексы после заполнения; создаются в каждой секции, в том числе в будущих при ATTACH
+ALTER TABLE transactions ADD CONSTRAINT transactions_pkey PRIMARY KEY (id, operation_time);
+CREATE INDEX IF NOT EXISTS idx_trx_owner_time ON transactions(owner_id, operation_time);
+CREATE INDEX IF NOT EXISTS idx_trx_account ON transactions(account_id);
+CREATE INDEX IF NOT EXISTS idx_trx_status ON transactions(status);
+ALTER TABLE transactions
+    ADD CONSTRAINT fk_trx_owner FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE;
+ALTER TABLE transactions
+    ADD CONSTRAINT fk_trx_account FOREIGN KEY (account_id) REFERENCES accounts(id) ON DELETE CASCADE;
+ALTER TABLE transactions
+    ADD CONSTRAINT fk_trx_category FOREIGN KEY (category_id) REFERENCES categories(id) ON DELETE SET NULL;
+CREATE TRIGGER trg_transactions_delete_children
+    AFTER DELETE ON transactions REFERENCING OLD TABLE AS deleted
+    FOR EACH STATEMENT EXECUTE FUNCTION transactions_delete_children();
+
+--rollback DROP TRIGGER IF EXISTS trg_transactions_delete_children ON transactions;
+--rollback ALTER TABLE transactions RENAME TO transactions_partitioned;
+--rollback ALTER SEQUENCE transactions_id_seq OWNED BY NONE;
+--rollback CREATE TABLE transactions (LIKE transactions_partitioned INCLUDING DEFAULTS);
+--rollback INSERT INTO transactions SELECT * FROM transactions_partitioned;
+--rollback ALTER SEQUENCE transactions_id_seq OWNED BY transactions.id;
+--rollback DROP TABLE transactions_partitioned CASCADE;
+--rollback ALTER TABLE transactions ADD CONSTRAINT transactions_pkey PRIMARY KEY (id);
+--rollback CREATE INDEX IF NOT EXISTS idx_trx_account ON transactions(account_id);
+--rollback CREATE INDEX IF NOT EXISTS idx_trx_owner ON transactions(owner_id);
+--rollback CREATE INDEX IF NOT EXISTS idx_trx_status ON transactions(status);
+--rollback ALTER TABLE transactions ADD CONSTRAINT fk_trx_owner FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE;
+--rollback ALTER TABLE transactions ADD CONSTRAINT fk_trx_account FOREIGN KEY (account_id) REFERENCES accounts(id) ON DELETE CASCADE;
+--rollback ALTER TABLE transactions ADD CONSTRAINT fk_trx_category FOREIGN KEY (category_id) REFERENCES categories(id) ON DELETE SET NULL;
+--rollback ALTER TABLE transaction_splits ADD CONSTRAINT fk_split_trx FOREIGN KEY (transaction_id) REFERENCES transactions(id) ON DELETE CASCADE;
+--rollback ALTER TABLE attachments ADD CONSTRAINT fk_attachment_trx FOREIGN KEY (transaction_id) REFERENCES transactions(id) ON DELETE CASCADE;
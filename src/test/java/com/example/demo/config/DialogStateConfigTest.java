@@ -0,0 +1,54 @@
+package com.example.demo.config;
+
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.repository.InMemoryDialogStateStore;
+import com.example.demo.service.DialogStateService;
+import com.example.demo.service.cache.DialogStateNearCache;
+import com.example.demo.service.impl.DialogStateServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DialogStateConfigTest {
+
+    /** Dialog state wiring with the real auto-configuration, minus the database. */
+    @Configuration(proxyBeanMethods = false)
+    @EnableAutoConfiguration(exclude = {DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class,
+            LiquibaseAutoConfiguration.class})
+    @Import({DialogStateConfig.class, DialogStateServiceImpl.class})
+    static class DialogStateApp {
+    }
+
+    @Test
+    void memoryModeStartsWithoutRedis() {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(DialogStateApp.class)
+                .web(WebApplicationType.NONE)
+                .run("--dialog.state.store=memory")) {
+            assertThat(context.getBeansOfType(RedisConnectionFactory.class)).isEmpty();
+            assertThat(context.getBeansOfType(RedisTemplate.class)).isEmpty();
+            assertThat(context.getBeansOfType(RedisMessageListenerContainer.class)).isEmpty();
+            assertThat(context.getBeansOfType(DialogStateNearCache.class)).isEmpty();
+            assertThat(context.getBean(InMemoryDialogStateStore.class)).isNotNull();
+
+            DialogStateService dialogStates = context.getBean(DialogStateService.class);
+            dialogStates.setDialogStateType(1L, DialogStateType.AWAITING_AMOUNT);
+            assertThat(dialogStates.getStateType(1L)).isEqualTo(DialogStateType.AWAITING_AMOUNT);
+
+            assertThat(context.getBean(HealthEndpoint.class).health().getStatus()).isEqualTo(Status.UP);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.telegram.AccountantTelegramBot;
+import com.example.demo.service.BotMessageService;
+import com.example.demo.service.UpdateDispatcher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TelegramWebhookControllerTest {
+
+    @Mock
+    AccountantTelegramBot bot;
+    @Mock
+    BotMessageService botMessageService;
+
+    private Update buildUpdate(Long chatId, String text) {
+        Update u = new Update();
+        Message m = new Message();
+        Chat c = new Chat();
+        c.setId(chatId);
+        m.setChat(c);
+        m.setText(text);
+        u.setMessage(m);
+        return u;
+    }
+
+    @Test
+    void webhookPassesUpdateToBotWhenSecretMatches() {
+        TelegramWebhookController controller = new TelegramWebhookController(bot, "s3cr3t");
+        Update upd = buildUpdate(1L, "hi");
+        ResponseEntity<Void> resp = controller.onUpdate("s3cr3t", upd);
+        assertThat(resp.getStatusCode()).isEqualTo(HttpStatus.OK);
+        verify(bot).onUpdateReceived(upd);
+    }
+
+    @Test
+    void webhookRejectsWrongSecret() {
+        TelegramWebhookController controller = new TelegramWebhookController(bot, "s3cr3t");
+        ResponseEntity<Void> resp = controller.onUpdate("other", buildUpdate(1L, "hi"));
+        assertThat(resp.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        verifyNoInteractions(bot);
+    }
+
+    @Test
+    void webhookRejectsMissingSecretHeader() {
+        TelegramWebhookController controller = new TelegramWebhookController(bot, "s3cr3t");
+        assertThat(controller.onUpdate(null, buildUpdate(1L, "hi")).getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        verifyNoInteractions(bot);
+    }
+
+    @Test
+    void webhookModeRequiresSecret() {
+        assertThatThrownBy(() -> new TelegramWebhookController(bot, "")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new TelegramWebhookController(bot, null)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void localEndpointReturnsReplyInsteadOfSendingIt() throws Exception {
+        LocalUpdateController controller = new LocalUpdateController(UpdateDispatcher.direct(), botMessageService);
+        Update upd = buildUpdate(2L, "stats");
+        SendMessage reply = new SendMessage("2", "ok");
+        when(botMessageService.handleUpdate(upd)).thenReturn(Optional.of(reply));
+        ResponseEntity<SendMessage> resp = controller.onUpdate(upd).get();
+        assertThat(resp.getBody()).isSameAs(reply);
+    }
+
+    @Test
+    void localEndpointReturnsNoContentWhenNothingToSend() throws Exception {
+        LocalUpdateController controller = new LocalUpdateController(UpdateDispatcher.direct(), botMessageService);
+        Update upd = buildUpdate(3L, "x");
+        when(botMessageService.handleUpdate(upd)).thenReturn(Optional.empty());
+        assertThat(controller.onUpdate(upd).get().getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+    }
+
+    @Test
+    void localEndpointAnswersUnavailableWhenDispatcherRejects() throws Exception {
+        UpdateDispatcher rejecting = mock(UpdateDispatcher.class);
+        doThrow(new RejectedExecutionException("shut down")).when(rejecting).dispatch(any(), any());
+        LocalUpdateController controller = new LocalUpdateController(rejecting, botMessageService);
+
+        CompletableFuture<ResponseEntity<SendMessage>> resp = controller.onUpdate(buildUpdate(4L, "x"));
+
+        assertThat(resp).isDone();
+        assertThat(resp.get().getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        verifyNoInteractions(botMessageService);
+    }
+}
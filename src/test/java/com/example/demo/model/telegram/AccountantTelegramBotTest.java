@@ -1,6 +1,8 @@
 package com.example.demo.model.telegram;
 
 import com.example.demo.service.BotMessageService;
+import com.example.demo.service.OutboundMessageSender;
+import com.example.demo.service.UpdateDispatcher;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -19,6 +21,7 @@ import java.util.Optional;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -75,6 +78,29 @@ class AccountantTelegramBotTest {
         assertDoesNotThrow(() -> bot.onUpdateReceived(upd));
     }
 
+    @Test
+    void onUpdateReceivedHandsUpdateToDispatcherWithChatId() {
+        UpdateDispatcher dispatcher = mock(UpdateDispatcher.class);
+        AccountantTelegramBot bot = new AccountantTelegramBot("u", "t", botMessageService, dispatcher);
+        Update upd = buildUpdate(5L, "hi");
+        bot.onUpdateReceived(upd);
+        verify(dispatcher).dispatch(eq(5L), any(Runnable.class));
+        verifyNoInteractions(botMessageService);
+    }
+
+    @Test
+    void onUpdateReceivedEnqueuesReplyWhenOutboundSenderConfigured() throws Exception {
+        OutboundMessageSender outbound = mock(OutboundMessageSender.class);
+        AccountantTelegramBot bot = Mockito.spy(new AccountantTelegramBot("u", "t", botMessageService,
+                UpdateDispatcher.direct(), outbound));
+        Update upd = buildUpdate(6L, "hi");
+        SendMessage reply = new SendMessage("6", "hello");
+        when(botMessageService.handleUpdate(upd)).thenReturn(Optional.of(reply));
+        bot.onUpdateReceived(upd);
+        verify(outbound).enqueue(reply);
+        verify(bot, never()).execute(any(SendMessage.class));
+    }
+
     @Test
     void onUpdateReceivedCatchesServiceException() {
         AccountantTelegramBot bot = new AccountantTelegramBot("u","t", botMessageService);
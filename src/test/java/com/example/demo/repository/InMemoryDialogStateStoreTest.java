@@ -0,0 +1,172 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.service.util.DialogStateCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryDialogStateStoreTest {
+
+    private static final Duration TTL = Duration.ofMinutes(30);
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+
+    private InMemoryDialogStateStore store(Path snapshot) {
+        return new InMemoryDialogStateStore(new DialogStateCodec(96), TTL, Duration.ofSeconds(1), snapshot,
+                Duration.ofMinutes(1), 2, new SimpleMeterRegistry(), clock);
+    }
+
+    private static DialogStateData state(long chatId, DialogStateType type) {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(chatId);
+        d.setState(type);
+        return d;
+    }
+
+    @Test
+    void expiredStateIsInvisibleAndReclaimedByWheel() {
+        InMemoryDialogStateStore store = store(null);
+        store.save(state(1L, DialogStateType.AWAITING_AMOUNT));
+        clock.advance(TTL.minusSeconds(1));
+        store.save(state(2L, DialogStateType.IDLE));
+
+        assertThat(store.findByChatId(1L)).isPresent();
+        clock.advance(Duration.ofSeconds(1));
+        assertThat(store.findByChatId(1L)).isEmpty();
+
+        assertThat(store.expire(clock.millis())).isEqualTo(1);
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.findByChatId(2L)).get().extracting(DialogStateData::getState).isEqualTo(DialogStateType.IDLE);
+    }
+
+    @Test
+    void saveRestartsTtlAndOldSlotDoesNotEvict() {
+        InMemoryDialogStateStore store = store(null);
+        store.save(state(1L, DialogStateType.AWAITING_AMOUNT));
+        clock.advance(Duration.ofMinutes(20));
+        store.save(state(1L, DialogStateType.AWAITING_DESCRIPTION));
+
+        clock.advance(Duration.ofMinutes(15));
+        assertThat(store.expire(clock.millis())).isZero();
+        assertThat(store.findByChatId(1L)).isPresent();
+
+        clock.advance(Duration.ofMinutes(15));
+        assertThat(store.expire(clock.millis())).isEqualTo(1);
+    }
+
+    @Test
+    void compareAndSetOnlyReplacesExpectedValue() {
+        InMemoryDialogStateStore store = store(null);
+        DialogStateData stored = store.save(state(1L, DialogStateType.AWAITING_CONFIRMATION));
+
+        assertThat(store.compareAndSet(1L, null, state(1L, DialogStateType.IDLE))).isFalse();
+        assertThat(store.compareAndSet(1L, state(1L, DialogStateType.IDLE), null)).isFalse();
+        assertThat(store.compareAndSet(1L, stored, null)).isTrue();
+        assertThat(store.findByChatId(1L)).isEmpty();
+        assertThat(store.compareAndSet(1L, null, state(1L, DialogStateType.IDLE))).isTrue();
+    }
+
+    @Test
+    void snapshotIsRestoredWithoutExpiredStates(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("dialog-states.bin");
+        InMemoryDialogStateStore first = store(file);
+        first.save(state(1L, DialogStateType.AWAITING_AMOUNT));
+        clock.advance(Duration.ofMinutes(20));
+        first.save(state(-100L, DialogStateType.IDLE));
+        first.snapshot();
+
+        clock.advance(Duration.ofMinutes(15));
+        InMemoryDialogStateStore second = store(file);
+        second.restore();
+
+        assertThat(second.findByChatId(1L)).isEmpty();
+        assertThat(second.findByChatId(-100L)).get().extracting(DialogStateData::getState).isEqualTo(DialogStateType.IDLE);
+        assertThat(second.size()).isEqualTo(1);
+    }
+
+    @Test
+    void forEachBatchYieldsLiveStatesInBoundedBatches() {
+        InMemoryDialogStateStore store = store(null);
+        for (long id = 1; id <= 5; id++) {
+            store.save(state(id, DialogStateType.IDLE));
+        }
+        clock.advance(Duration.ofMinutes(1));
+        store.deleteById(5L);
+        List<Integer> sizes = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+
+        store.forEachBatch(batch -> {
+            sizes.add(batch.size());
+            batch.forEach(d -> seen.add(d.getChatId()));
+        });
+
+        assertThat(sizes).containsExactly(2, 2);
+        assertThat(seen).containsExactlyInAnyOrder(1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void readAndWriteLatency() {
+        InMemoryDialogStateStore store = new InMemoryDialogStateStore(new DialogStateCodec(96), TTL, Duration.ofSeconds(1),
+                null, Duration.ofMinutes(1), 500, new SimpleMeterRegistry(), Clock.systemUTC());
+        int chats = 100_000;
+        for (long i = 0; i < chats; i++) {
+            store.save(state(i, DialogStateType.AWAITING_AMOUNT));
+        }
+        int ops = 2_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            store.findByChatId((long) (i % chats));
+        }
+        long readNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            store.save(state(i % chats, DialogStateType.AWAITING_DESCRIPTION));
+        }
+        long writeNanos = System.nanoTime() - start;
+        System.out.printf("in-memory dialog state store: read %d ns/op, write %d ns/op%n", readNanos / ops, writeNanos / ops);
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
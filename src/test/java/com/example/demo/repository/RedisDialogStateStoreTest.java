@@ -0,0 +1,151 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.service.util.DialogStateCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RedisDialogStateStoreTest {
+
+    private static final Long CHAT_ID = 42L;
+
+    @Mock
+    RedisTemplate<String, byte[]> redisTemplate;
+    @Mock
+    StringRedisTemplate stringRedisTemplate;
+    @Mock
+    ValueOperations<String, byte[]> valueOps;
+    @Mock
+    HashOperations<String, Object, Object> hashOps;
+    @Mock
+    SetOperations<String, String> setOps;
+    @Mock
+    Cursor<String> cursor;
+
+    private final DialogStateCodec codec = new DialogStateCodec(96);
+
+    private RedisDialogStateStore store() {
+        return new RedisDialogStateStore(redisTemplate, stringRedisTemplate, codec, Duration.ofHours(12), true, 2);
+    }
+
+    private static Map<String, String> legacyHash() {
+        return Map.of(
+                "_class", "com.example.demo.model.entity.DialogStateData",
+                "chatId", "42",
+                "state", "AWAITING_DESCRIPTION",
+                "amount", "99.90",
+                "category.id", "7",
+                "category.name", "Еда",
+                "account.id", "3",
+                "transactionDate", "2025-02-01",
+                "lastUpdated", "2025-02-01T10:15:30.5",
+                "isExpense", "1");
+    }
+
+    @Test
+    void legacyHashFieldsAreMappedToIds() {
+        DialogStateData state = RedisDialogStateStore.fromLegacyHash(CHAT_ID, legacyHash());
+
+        assertThat(state.getState()).isEqualTo(DialogStateType.AWAITING_DESCRIPTION);
+        assertThat(state.getAmount()).isEqualByComparingTo(new BigDecimal("99.90"));
+        assertThat(state.getCategoryId()).isEqualTo(7L);
+        assertThat(state.getAccountId()).isEqualTo(3L);
+        assertThat(state.getTransactionDate()).isEqualTo(LocalDate.of(2025, 2, 1));
+        assertThat(state.getLastUpdated()).isEqualTo(LocalDateTime.of(2025, 2, 1, 10, 15, 30, 500_000_000));
+        assertThat(state.isExpense()).isTrue();
+        assertThat(state.isIncome()).isFalse();
+    }
+
+    @Test
+    void missingKeyIsMigratedFromLegacyHashKeepingItsTtl() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(valueOps.get("dialog:state:42")).thenReturn(null);
+        when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOps);
+        when(hashOps.entries("DialogStateData:42")).thenReturn(Map.copyOf(legacyHash()));
+        when(stringRedisTemplate.getExpire("DialogStateData:42", TimeUnit.MILLISECONDS)).thenReturn(60_000L);
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOps);
+
+        Optional<DialogStateData> found = store().findByChatId(CHAT_ID);
+
+        assertThat(found).isPresent();
+        assertThat(found.get().getCategoryId()).isEqualTo(7L);
+        verify(valueOps).set(eq("dialog:state:42"), any(byte[].class), eq(Duration.ofMillis(60_000)));
+        verify(stringRedisTemplate).delete("DialogStateData:42");
+        verify(setOps).remove("DialogStateData", "42");
+    }
+
+    @Test
+    void storedBlobIsDecodedWithoutTouchingLegacyKeys() {
+        DialogStateData state = new DialogStateData();
+        state.setChatId(CHAT_ID);
+        state.setState(DialogStateType.IDLE);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(valueOps.get("dialog:state:42")).thenReturn(codec.encode(state));
+
+        assertThat(store().findByChatId(CHAT_ID)).get().extracting(DialogStateData::getState).isEqualTo(DialogStateType.IDLE);
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void compareAndSetSendsEncodedExpectedAndNewValue() {
+        DialogStateData expected = new DialogStateData();
+        expected.setChatId(CHAT_ID);
+        expected.setState(DialogStateType.AWAITING_CONFIRMATION);
+        when(redisTemplate.execute(ArgumentMatchers.<RedisScript<Long>>any(), eq(List.of("dialog:state:42")), any(), any(), any()))
+                .thenReturn(1L);
+
+        assertThat(store().compareAndSet(CHAT_ID, expected, null)).isTrue();
+
+        verify(redisTemplate).execute(ArgumentMatchers.<RedisScript<Long>>any(), eq(List.of("dialog:state:42")),
+                eq(codec.encode(expected)), eq(new byte[0]), eq("43200000".getBytes()));
+    }
+
+    @Test
+    void forEachBatchScansIncrementallyAndFetchesEachBatchWithOneMget() {
+        when(cursor.hasNext()).thenReturn(true, true, true, false);
+        when(cursor.next()).thenReturn("dialog:state:1", "dialog:state:2", "dialog:state:3");
+        when(redisTemplate.scan(any(ScanOptions.class))).thenReturn(cursor);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        DialogStateData one = new DialogStateData();
+        one.setChatId(1L);
+        DialogStateData three = new DialogStateData();
+        three.setChatId(3L);
+        // key 2 expired between SCAN and MGET
+        when(valueOps.multiGet(List.of("dialog:state:1", "dialog:state:2"))).thenReturn(java.util.Arrays.asList(codec.encode(one), null));
+        when(valueOps.multiGet(List.of("dialog:state:3"))).thenReturn(List.of(codec.encode(three)));
+        List<List<Long>> batches = new ArrayList<>();
+
+        store().forEachBatch(batch -> batches.add(batch.stream().map(DialogStateData::getChatId).toList()));
+
+        assertThat(batches).containsExactly(List.of(1L), List.of(3L));
+        verify(cursor).close();
+    }
+}
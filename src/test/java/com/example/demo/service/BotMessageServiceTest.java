@@ -1,7 +1,16 @@
 package com.example.demo.service;
 
+import com.example.demo.model.entity.Account;
+import com.example.demo.model.entity.Category;
 import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.repository.InMemoryDialogStateStore;
+import com.example.demo.service.impl.BotCommandRegistryImpl;
+import com.example.demo.service.impl.DialogStateServiceImpl;
+import com.example.demo.service.impl.ProcessingStateCommandHandler;
+import com.example.demo.service.impl.RecordExpenseCommandHandler;
+import com.example.demo.service.util.DialogStateCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -10,12 +19,18 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Chat;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.User;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
 
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.*;
@@ -31,6 +46,12 @@ class BotMessageServiceTest {
     UserService userService;
     @Mock
     DialogStateService dialogStateService;
+    @Mock
+    TransactionService transactionService;
+    @Mock
+    CategoryService categoryService;
+    @Mock
+    AccountService accountService;
 
     @InjectMocks
     BotMessageService botMessageService;
@@ -54,11 +75,91 @@ class BotMessageServiceTest {
         return u;
     }
 
+    private Update buildCallbackUpdate(Long chatId, String data) {
+        User user = new User();
+        user.setId(chatId);
+        user.setUserName("user" + chatId);
+        CallbackQuery cq = new CallbackQuery();
+        cq.setId("1");
+        cq.setFrom(user);
+        cq.setData(data);
+        Update u = new Update();
+        u.setCallbackQuery(cq);
+        return u;
+    }
+
+    private InMemoryDialogStateStore memoryStore() {
+        return new InMemoryDialogStateStore(new DialogStateCodec(96), Duration.ofHours(12), Duration.ofSeconds(1), null,
+                Duration.ofMinutes(1), 500, new SimpleMeterRegistry(), Clock.systemUTC());
+    }
+
+    /** The real registry, dialog state service and handlers, so the whole update path is exercised. */
+    private BotMessageService expenseFlow(DialogStateService dialogStates) {
+        RecordExpenseCommandHandler expenses = new RecordExpenseCommandHandler(dialogStates, transactionService,
+                categoryService, accountService);
+        ProcessingStateCommandHandler processing = new ProcessingStateCommandHandler(dialogStates);
+        return new BotMessageService(new BotCommandRegistryImpl(List.of(expenses, processing), dialogStates),
+                userService, dialogStates);
+    }
+
+    private DialogStateData expenseDraft(Long chatId, DialogStateType type) {
+        DialogStateData draft = new DialogStateData();
+        draft.setChatId(chatId);
+        draft.setState(type);
+        draft.setExpense(true);
+        draft.setAmount(new BigDecimal("5"));
+        draft.setCategoryId(3L);
+        return draft;
+    }
+
+    @Test
+    void failedSaveKeepsDraftThroughTheWholeUpdate() {
+        DialogStateServiceImpl dialogStates = new DialogStateServiceImpl(memoryStore(), null);
+        BotMessageService service = expenseFlow(dialogStates);
+        dialogStates.saveOrUpdate(expenseDraft(600L, DialogStateType.AWAITING_CONFIRMATION));
+        Category groceries = new Category();
+        groceries.setName("Продукты");
+        Account account = new Account();
+        account.setCurrency("RUB");
+        when(categoryService.getCategoryById(3L)).thenReturn(groceries);
+        when(accountService.findOrCreateDefaultAccount(600L)).thenReturn(account);
+        doThrow(new IllegalStateException("db down")).doNothing()
+                .when(transactionService).addExpense(eq(600L), any(), any(), any(), any(), any());
+
+        Optional<SendMessage> failed = service.handleUpdate(buildCallbackUpdate(600L, "confirm"));
+
+        assertThat(failed).get().extracting(SendMessage::getText).isEqualTo("Не удалось сохранить, попробуйте ещё раз.");
+        DialogStateData kept = dialogStates.getState(600L);
+        assertThat(kept.getState()).isEqualTo(DialogStateType.AWAITING_CONFIRMATION);
+        assertThat(kept.getAmount()).isEqualByComparingTo("5");
+
+        Optional<SendMessage> retried = service.handleUpdate(buildCallbackUpdate(600L, "confirm"));
+
+        assertThat(retried).get().extracting(SendMessage::getText).asString().contains("записан");
+        assertThat(dialogStates.getState(600L)).isNull();
+        verify(transactionService, times(2)).addExpense(eq(600L), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void chatLeftProcessingByCrashCanStartOver() {
+        InMemoryDialogStateStore store = memoryStore();
+        DialogStateServiceImpl dialogStates = new DialogStateServiceImpl(store, null);
+        BotMessageService service = expenseFlow(dialogStates);
+        DialogStateData stuck = expenseDraft(700L, DialogStateType.PROCESSING);
+        stuck.setLastUpdated(LocalDateTime.now().minusMinutes(5));
+        store.save(stuck);
+
+        Optional<SendMessage> reply = service.handleUpdate(buildCallbackUpdate(700L, "confirm"));
+
+        assertThat(reply).get().extracting(SendMessage::getText).asString().startsWith("Сохранение предыдущей операции было прервано.");
+        assertThat(dialogStates.getState(700L)).isNull();
+        verifyNoInteractions(transactionService);
+    }
+
     @Test
     void startCommandBuildsMenuClearsStateAndInitializesUserAndDialog() {
         Update upd = buildTextUpdate(123L, " /start  ", true);
         when(dialogStateService.getState(123L)).thenReturn(null); // triggers initialization
-        when(userService.existsByChatId(123L)).thenReturn(false);
         Optional<SendMessage> respOpt = botMessageService.handleUpdate(upd);
         assertThat(respOpt).isPresent();
         SendMessage resp = respOpt.get();
@@ -68,7 +169,7 @@ class BotMessageServiceTest {
         assertThat(km.getKeyboard()).hasSize(3);
         verify(dialogStateService).clearState(123L);
         verify(dialogStateService).setDialogStateType(123L, DialogStateType.IDLE);
-        verify(userService).createUser(eq("user123"), eq("First123"), eq("Last123"), eq(123L));
+        verify(userService).ensureRegistered(eq("user123"), eq("First123"), eq("Last123"), eq(123L));
         verify(commandRegistry, never()).process(any());
     }
 
@@ -77,26 +178,44 @@ class BotMessageServiceTest {
         Update upd = buildTextUpdate(200L, "stats", true);
         // existing dialog state => not null => skip init setDialogStateType
         when(dialogStateService.getState(200L)).thenReturn(new DialogStateData());
-        when(userService.existsByChatId(200L)).thenReturn(true);
         SendMessage handlerMsg = new SendMessage("200", "handled");
         when(commandRegistry.process(upd)).thenReturn(Optional.of(handlerMsg));
         Optional<SendMessage> respOpt = botMessageService.handleUpdate(upd);
         assertThat(respOpt).containsSame(handlerMsg);
         verify(dialogStateService, never()).setDialogStateType(anyLong(), any());
         verify(dialogStateService, never()).clearState(anyLong());
+        verify(userService).ensureRegistered("user200", "First200", "Last200", 200L);
         verify(commandRegistry).process(upd);
+        verify(dialogStateService).flush(any(UpdateContext.class));
     }
 
     @Test
     void nonStartNoHandlerResponseReturnsEmpty() {
         Update upd = buildTextUpdate(300L, "unknown", true);
         when(dialogStateService.getState(300L)).thenReturn(new DialogStateData());
-        when(userService.existsByChatId(300L)).thenReturn(true);
         when(commandRegistry.process(upd)).thenReturn(Optional.empty());
         Optional<SendMessage> respOpt = botMessageService.handleUpdate(upd);
         assertThat(respOpt).isNotEmpty();
     }
 
+    @Test
+    void failedRegistrationStagesNoStateAndIsRetriedOnNextUpdate() {
+        Update upd = buildTextUpdate(500L, "stats", true);
+        doThrow(new IllegalArgumentException("User with username already exists: user500"))
+                .doNothing()
+                .when(userService).ensureRegistered("user500", "First500", "Last500", 500L);
+
+        assertThatThrownBy(() -> botMessageService.handleUpdate(upd)).isInstanceOf(IllegalArgumentException.class);
+        verify(dialogStateService, never()).setDialogStateType(anyLong(), any());
+        verify(commandRegistry, never()).process(any());
+
+        when(commandRegistry.process(upd)).thenReturn(Optional.of(new SendMessage("500", "handled")));
+        botMessageService.handleUpdate(upd);
+
+        verify(userService, times(2)).ensureRegistered("user500", "First500", "Last500", 500L);
+        verify(dialogStateService).setDialogStateType(500L, DialogStateType.IDLE);
+    }
+
     @Test
     void invalidUpdateReturnsEmptyWithoutInteractions() {
         Update invalid = new Update();
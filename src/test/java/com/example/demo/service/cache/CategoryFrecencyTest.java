@@ -0,0 +1,73 @@
+package com.example.demo.service.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CategoryFrecencyTest {
+
+    private static final Instant NOW = Instant.parse("2025-06-01T12:00:00Z");
+    private static final Long CHAT_ID = 7L;
+
+    private static CategoryFrecency frecency(int maxPerChat) {
+        return new CategoryFrecency(100, maxPerChat, Duration.ofDays(14), new SimpleMeterRegistry(),
+                Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private static CategoryFrecency.Use use(long categoryId, int daysAgo) {
+        return new CategoryFrecency.Use(categoryId, NOW.minus(Duration.ofDays(daysAgo)));
+    }
+
+    @Test
+    void recentUsesOutweighOldFrequentOnes() {
+        CategoryFrecency frecency = frecency(10);
+
+        // 8 uses two months ago decay to 8/16 = 0.5; 2 uses this week stay close to 2
+        List<Long> ranking = frecency.seed(CHAT_ID, List.of(
+                use(1, 56), use(1, 56), use(1, 56), use(1, 56), use(1, 56), use(1, 56), use(1, 56), use(1, 56),
+                use(2, 2), use(2, 3)));
+
+        assertThat(ranking).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void recordReordersSeededChatOnly() {
+        CategoryFrecency frecency = frecency(10);
+        frecency.record(CHAT_ID, 5L);
+        assertThat(frecency.ranking(CHAT_ID)).isNull();
+
+        frecency.seed(CHAT_ID, List.of(use(1, 1), use(2, 3)));
+        frecency.record(CHAT_ID, 2L);
+
+        assertThat(frecency.ranking(CHAT_ID)).containsExactly(2L, 1L);
+    }
+
+    @Test
+    void rankingIsOnlyReplacedWhenOrderChanges() {
+        CategoryFrecency frecency = frecency(10);
+        List<Long> seeded = frecency.seed(CHAT_ID, List.of(use(1, 1), use(2, 3)));
+
+        frecency.record(CHAT_ID, 1L);
+        assertThat(frecency.ranking(CHAT_ID)).isSameAs(seeded);
+
+        frecency.record(CHAT_ID, 3L);
+        assertThat(frecency.ranking(CHAT_ID)).isNotSameAs(seeded).containsExactly(1L, 3L, 2L);
+    }
+
+    @Test
+    void weakestCategoryMakesRoomWhenFull() {
+        CategoryFrecency frecency = frecency(2);
+        frecency.seed(CHAT_ID, List.of(use(1, 1), use(1, 2), use(2, 30)));
+
+        frecency.record(CHAT_ID, 3L);
+
+        assertThat(frecency.ranking(CHAT_ID)).containsExactly(1L, 3L);
+    }
+}
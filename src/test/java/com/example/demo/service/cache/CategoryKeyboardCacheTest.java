@@ -0,0 +1,103 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import com.example.demo.service.util.CategoryIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CategoryKeyboardCacheTest {
+
+    private static final Long CHAT_ID = 7L;
+
+    private final CategoryKeyboardCache cache = new CategoryKeyboardCache(100, 2, new SimpleMeterRegistry());
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private static List<Category> categories(String... names) {
+        List<Category> result = new ArrayList<>();
+        for (String name : names) {
+            Category c = new Category();
+            c.setName(name);
+            c.setType(CategoryType.EXPENSE);
+            result.add(c);
+        }
+        return result;
+    }
+
+    private Supplier<List<Category>> loader(List<Category> categories) {
+        return () -> {
+            loads.incrementAndGet();
+            return categories;
+        };
+    }
+
+    private static List<String> callbacks(InlineKeyboardMarkup markup) {
+        return markup.getKeyboard().stream().flatMap(List::stream).map(InlineKeyboardButton::getCallbackData).toList();
+    }
+
+    @Test
+    void pagesAreBuiltOnceForTheSameVersion() {
+        List<Category> categories = categories("A", "B", "C");
+        CategoryIndex index = CategoryIndex.of(categories);
+        List<Long> ranking = List.of();
+
+        InlineKeyboardMarkup first = cache.page(CHAT_ID, CategoryType.EXPENSE, index, ranking, 1, loader(categories));
+        InlineKeyboardMarkup again = cache.page(CHAT_ID, CategoryType.EXPENSE, index, ranking, 1, loader(categories));
+        InlineKeyboardMarkup other = cache.page(CHAT_ID, CategoryType.EXPENSE, index, ranking, 0, loader(categories));
+
+        assertThat(again).isSameAs(first);
+        assertThat(callbacks(first)).containsExactly("category:C", "category_page:0");
+        assertThat(callbacks(other)).containsExactly("category:A", "category:B", "category_page:1");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void newIndexOrRankingRebuildsPages() {
+        List<Category> categories = categories("A", "B", "C");
+        CategoryIndex index = CategoryIndex.of(categories);
+        List<Long> ranking = List.of();
+        InlineKeyboardMarkup first = cache.page(CHAT_ID, CategoryType.EXPENSE, index, ranking, 0, loader(categories));
+
+        List<Long> reordered = List.of(3L);
+        InlineKeyboardMarkup afterReorder = cache.page(CHAT_ID, CategoryType.EXPENSE, index, reordered, 0,
+                loader(List.of(categories.get(2), categories.get(0), categories.get(1))));
+        InlineKeyboardMarkup afterCreate = cache.page(CHAT_ID, CategoryType.EXPENSE, CategoryIndex.of(categories),
+                reordered, 0, loader(categories));
+
+        assertThat(callbacks(afterReorder)).containsExactly("category:C", "category:A", "category_page:1");
+        assertThat(afterCreate).isNotSameAs(first);
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void typesAndChatsAreCachedSeparately() {
+        List<Category> categories = categories("A");
+        CategoryIndex index = CategoryIndex.of(categories);
+
+        cache.page(CHAT_ID, CategoryType.EXPENSE, index, List.of(), 0, loader(categories));
+        cache.page(CHAT_ID, CategoryType.INCOME, index, List.of(), 0, loader(categories));
+        cache.page(8L, CategoryType.EXPENSE, index, List.of(), 0, loader(categories));
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void pageBeyondTheLastOneKeepsBackButton() {
+        List<Category> categories = categories("A", "B", "C");
+
+        InlineKeyboardMarkup markup = cache.page(CHAT_ID, CategoryType.EXPENSE, CategoryIndex.of(categories),
+                List.of(), 3, loader(categories));
+
+        assertThat(callbacks(markup)).containsExactly("category_page:2");
+    }
+}
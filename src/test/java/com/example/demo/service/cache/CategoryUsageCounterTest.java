@@ -0,0 +1,74 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.repository.CategoryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CategoryUsageCounterTest {
+
+    @Mock
+    CategoryRepository categoryRepository;
+
+    private CategoryUsageCounter counter() {
+        return new CategoryUsageCounter(categoryRepository, Duration.ofSeconds(10), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void flushAddsAllDeltasInOneOrderedUpdate() throws Exception {
+        CategoryUsageCounter counter = counter();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 1000; i++) {
+            long id = i % 2 == 0 ? 17L : 3L;
+            pool.execute(() -> counter.increment(id));
+        }
+        pool.shutdown();
+        assertThat(pool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(counter.flush()).isEqualTo(2);
+
+        verify(categoryRepository).addUsage("{3,17}", "{500,500}");
+        assertThat(counter.flush()).isZero();
+        verifyNoMoreInteractions(categoryRepository);
+    }
+
+    @Test
+    void failedFlushKeepsDeltasForNextAttempt() {
+        CategoryUsageCounter counter = counter();
+        counter.increment(5L);
+        when(categoryRepository.addUsage(anyString(), anyString()))
+                .thenThrow(new QueryTimeoutException("timeout"))
+                .thenReturn(1);
+
+        assertThatThrownBy(counter::flush).isInstanceOf(QueryTimeoutException.class);
+        counter.increment(5L);
+        counter.flush();
+
+        verify(categoryRepository).addUsage("{5}", "{2}");
+    }
+
+    @Test
+    void shutdownFlushesPendingIncrements() {
+        CategoryUsageCounter counter = counter();
+        counter.start();
+        counter.increment(9L);
+
+        counter.shutdown();
+
+        verify(categoryRepository).addUsage("{9}", "{1}");
+    }
+}
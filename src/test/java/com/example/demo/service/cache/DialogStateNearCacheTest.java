@@ -0,0 +1,161 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class DialogStateNearCacheTest {
+
+    private static final Long CHAT_ID = 7L;
+
+    @Mock
+    StringRedisTemplate redisTemplate;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private DialogStateNearCache cache(int maxSize, Clock clock) {
+        return new DialogStateNearCache(true, maxSize, Duration.ofSeconds(43200), Duration.ofSeconds(5), redisTemplate,
+                registry, clock);
+    }
+
+    private DialogStateData state(Long chatId, DialogStateType type, LocalDateTime lastUpdated) {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(chatId);
+        d.setState(type);
+        d.setLastUpdated(lastUpdated);
+        return d;
+    }
+
+    @Test
+    void loadedStateIsServedAsCopyAndCountedAsHit() {
+        DialogStateNearCache cache = cache(10, Clock.systemDefaultZone());
+        DialogStateData loaded = state(CHAT_ID, DialogStateType.IDLE, LocalDateTime.now());
+        assertThat(cache.get(CHAT_ID)).isNull();
+        cache.putLoaded(cache.beginLoad(), CHAT_ID, loaded);
+
+        DialogStateData first = cache.get(CHAT_ID);
+        first.setState(DialogStateType.AWAITING_AMOUNT);
+
+        assertThat(cache.get(CHAT_ID).getState()).isEqualTo(DialogStateType.IDLE);
+        assertThat(registry.get("dialog.state.cache.hit.ratio").gauge().value()).isEqualTo(2.0 / 3);
+    }
+
+    @Test
+    void entryExpiresWithRedisKey() {
+        Instant now = Instant.parse("2025-01-01T12:00:00Z");
+        Clock clock = Clock.fixed(now, ZoneId.systemDefault());
+        DialogStateNearCache cache = cache(10, clock);
+        LocalDateTime savedLongAgo = LocalDateTime.ofInstant(now.minusSeconds(43200), ZoneId.systemDefault());
+
+        cache.putLoaded(cache.beginLoad(), CHAT_ID, state(CHAT_ID, DialogStateType.IDLE, savedLongAgo));
+
+        assertThat(cache.get(CHAT_ID)).isNull();
+    }
+
+    @Test
+    void entryIsReloadedAfterMaxAgeEvenWithoutInvalidation() {
+        MutableClock clock = new MutableClock(Instant.parse("2025-01-01T12:00:00Z"));
+        DialogStateNearCache cache = cache(10, clock);
+        LocalDateTime savedNow = LocalDateTime.ofInstant(clock.instant(), ZoneId.systemDefault());
+        cache.putLoaded(cache.beginLoad(), CHAT_ID, state(CHAT_ID, DialogStateType.IDLE, savedNow));
+        cache.written(8L, state(8L, DialogStateType.AWAITING_AMOUNT, savedNow));
+
+        clock.advance(Duration.ofSeconds(4));
+        assertThat(cache.get(CHAT_ID)).isNotNull();
+        assertThat(cache.get(8L)).isNotNull();
+
+        // another node's write whose invalidation never arrived is seen no later than this
+        clock.advance(Duration.ofSeconds(1));
+        assertThat(cache.get(CHAT_ID)).isNull();
+        assertThat(cache.get(8L)).isNull();
+    }
+
+    @Test
+    void localWritePublishesInvalidationWithNodeId() {
+        DialogStateNearCache cache = cache(10, Clock.systemDefaultZone());
+        cache.written(CHAT_ID, state(CHAT_ID, DialogStateType.AWAITING_AMOUNT, LocalDateTime.now()));
+
+        ArgumentCaptor<String> payload = ArgumentCaptor.forClass(String.class);
+        verify(redisTemplate).convertAndSend(eq(DialogStateNearCache.CHANNEL), payload.capture());
+        assertThat(payload.getValue()).startsWith(cache.getNodeId() + "|7|");
+        assertThat(cache.get(CHAT_ID).getState()).isEqualTo(DialogStateType.AWAITING_AMOUNT);
+    }
+
+    @Test
+    void remoteInvalidationEvictsAndBlocksOlderLoad() {
+        DialogStateNearCache cache = cache(10, Clock.systemDefaultZone());
+        cache.putLoaded(cache.beginLoad(), CHAT_ID, state(CHAT_ID, DialogStateType.IDLE, LocalDateTime.now()));
+        long loadStartedBeforeInvalidation = cache.beginLoad();
+
+        cache.onInvalidation("other-node|7|" + (System.currentTimeMillis() - 5));
+        cache.putLoaded(loadStartedBeforeInvalidation, CHAT_ID, state(CHAT_ID, DialogStateType.IDLE, LocalDateTime.now()));
+
+        assertThat(cache.get(CHAT_ID)).isNull();
+        assertThat(registry.get("dialog.state.cache.invalidations").counter().count()).isEqualTo(1);
+        assertThat(registry.get("dialog.state.cache.invalidation.lag").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void ownInvalidationEchoIsIgnored() {
+        DialogStateNearCache cache = cache(10, Clock.systemDefaultZone());
+        cache.putLoaded(cache.beginLoad(), CHAT_ID, state(CHAT_ID, DialogStateType.IDLE, LocalDateTime.now()));
+
+        cache.onInvalidation(cache.getNodeId() + "|7|" + System.currentTimeMillis());
+
+        assertThat(cache.get(CHAT_ID)).isNotNull();
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedWhenFull() {
+        DialogStateNearCache cache = cache(2, Clock.systemDefaultZone());
+        for (long chatId = 1; chatId <= 3; chatId++) {
+            cache.putLoaded(cache.beginLoad(), chatId, state(chatId, DialogStateType.IDLE, LocalDateTime.now()));
+        }
+        assertThat(cache.get(1L)).isNull();
+        assertThat(cache.get(3L)).isNotNull();
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.systemDefault();
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
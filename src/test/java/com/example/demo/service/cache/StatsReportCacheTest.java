@@ -0,0 +1,116 @@
+package com.example.demo.service.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatsReportCacheTest {
+
+    private static final Long CHAT_ID = 5L;
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+    private static final LocalDate END = LocalDate.of(2025, 1, 31);
+
+    private final AtomicInteger builds = new AtomicInteger();
+
+    private static StatsReportCache cache(int maxChats, Duration ttl) {
+        return new StatsReportCache(maxChats, ttl, new SimpleMeterRegistry(), Clock.systemUTC());
+    }
+
+    private Supplier<String> report(String text) {
+        return () -> {
+            builds.incrementAndGet();
+            return text;
+        };
+    }
+
+    @Test
+    void samePeriodIsBuiltOnce() {
+        StatsReportCache cache = cache(10, Duration.ofMinutes(5));
+
+        assertThat(cache.get(CHAT_ID, START, END, report("январь"))).isEqualTo("январь");
+        assertThat(cache.get(CHAT_ID, START, END, report("другой"))).isEqualTo("январь");
+        assertThat(cache.get(CHAT_ID, START, START, report("первое"))).isEqualTo("первое");
+        assertThat(builds).hasValue(2);
+    }
+
+    @Test
+    void invalidateDropsOnlyThatChat() {
+        StatsReportCache cache = cache(10, Duration.ofMinutes(5));
+        cache.get(CHAT_ID, START, END, report("старый"));
+        cache.get(6L, START, END, report("соседний"));
+
+        cache.invalidate(CHAT_ID);
+
+        assertThat(cache.get(CHAT_ID, START, END, report("новый"))).isEqualTo("новый");
+        assertThat(cache.get(6L, START, END, report("другой"))).isEqualTo("соседний");
+        assertThat(builds).hasValue(3);
+    }
+
+    @Test
+    void buildRacingWithWriteIsNotCached() {
+        StatsReportCache cache = cache(10, Duration.ofMinutes(5));
+        cache.get(CHAT_ID, START, START, report("прогрев"));
+
+        String racing = cache.get(CHAT_ID, START, END, () -> {
+            cache.invalidate(CHAT_ID);
+            return "до записи";
+        });
+
+        assertThat(racing).isEqualTo("до записи");
+        assertThat(cache.get(CHAT_ID, START, END, report("после записи"))).isEqualTo("после записи");
+    }
+
+    @Test
+    void expiredReportIsRebuilt() {
+        StatsReportCache cache = cache(10, Duration.ZERO);
+
+        cache.get(CHAT_ID, START, END, report("первый"));
+        assertThat(cache.get(CHAT_ID, START, END, report("второй"))).isEqualTo("второй");
+    }
+
+    @Test
+    void expiredReportsAreDroppedWhenAnotherIsCached() {
+        StatsReportCache cache = cache(10, Duration.ZERO);
+
+        for (int day = 1; day <= 5; day++) {
+            cache.get(CHAT_ID, START, START.plusDays(day), report("за " + day));
+        }
+
+        assertThat(cache.reports()).isEqualTo(1);
+    }
+
+    @Test
+    void leastRecentlyUsedPeriodIsEvictedFromFullChat() {
+        StatsReportCache cache = cache(10, Duration.ofMinutes(5));
+        for (int day = 0; day < StatsReportCache.MAX_REPORTS_PER_CHAT; day++) {
+            cache.get(CHAT_ID, START, START.plusDays(day), report("за " + day));
+        }
+        cache.get(CHAT_ID, START, START, report("первый день"));
+
+        cache.get(CHAT_ID, START, END, report("январь"));
+
+        assertThat(cache.reports()).isEqualTo(StatsReportCache.MAX_REPORTS_PER_CHAT);
+        assertThat(cache.get(CHAT_ID, START, START, report("заново"))).isEqualTo("за 0");
+        assertThat(cache.get(CHAT_ID, START, START.plusDays(1), report("заново"))).isEqualTo("заново");
+    }
+
+    @Test
+    void leastRecentlyUsedChatIsEvicted() {
+        StatsReportCache cache = cache(2, Duration.ofMinutes(5));
+        cache.get(1L, START, END, report("1"));
+        cache.get(2L, START, END, report("2"));
+        cache.get(1L, START, END, report("1"));
+        cache.get(3L, START, END, report("3"));
+
+        assertThat(cache.size()).isEqualTo(2);
+        cache.get(1L, START, END, report("снова"));
+        assertThat(builds).hasValue(3);
+    }
+}
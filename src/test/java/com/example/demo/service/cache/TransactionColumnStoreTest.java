@@ -0,0 +1,306 @@
+package com.example.demo.service.cache;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.Transaction;
+import com.example.demo.model.entity.TransactionType;
+import com.example.demo.repository.TransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionColumnStoreTest {
+
+    private static final Long CHAT_ID = 9L;
+    private static final LocalDate JAN_1 = LocalDate.of(2025, 1, 1);
+    private static final LocalDate JAN_31 = LocalDate.of(2025, 1, 31);
+
+    @Mock
+    TransactionRepository transactionRepository;
+
+    private record Fact(Long id, Long categoryId, String categoryName, TransactionType type, BigDecimal amount,
+                        Instant operationTime) implements TransactionRepository.TransactionFact {
+        public Long getId() {
+            return id;
+        }
+
+        public Long getCategoryId() {
+            return categoryId;
+        }
+
+        public String getCategoryName() {
+            return categoryName;
+        }
+
+        public TransactionType getType() {
+            return type;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public Instant getOperationTime() {
+            return operationTime;
+        }
+    }
+
+    private record Root(Long categoryId, Long rootId, String rootName) implements TransactionRepository.CategoryRoot {
+        public Long getCategoryId() {
+            return categoryId;
+        }
+
+        public Long getRootId() {
+            return rootId;
+        }
+
+        public String getRootName() {
+            return rootName;
+        }
+    }
+
+    private TransactionColumnStore store(long maxBytes) {
+        return new TransactionColumnStore(transactionRepository, true, maxBytes, Duration.ofMinutes(10),
+                new SimpleMeterRegistry(), Clock.systemUTC());
+    }
+
+    private static Fact fact(long id, Long categoryId, String name, TransactionType type, String amount, String day) {
+        return new Fact(id, categoryId, name, type, new BigDecimal(amount), Instant.parse(day + "T12:00:00Z"));
+    }
+
+    private static Transaction transaction(long id, long categoryId, String name, String amount, String day) {
+        Category category = new Category();
+        ReflectionTestUtils.setField(category, "id", categoryId);
+        category.setName(name);
+        Transaction t = new Transaction();
+        ReflectionTestUtils.setField(t, "id", id);
+        t.setCategory(category);
+        t.setType(TransactionType.EXPENSE);
+        t.setAmount(new BigDecimal(amount));
+        t.setOperationTime(Instant.parse(day + "T12:00:00Z"));
+        return t;
+    }
+
+    private static List<String> totals(List<TransactionRepository.TypeTotal> totals) {
+        return totals.stream().map(t -> t.getType() + " " + t.getTotal().stripTrailingZeros().toPlainString()
+                + " x" + t.getCount()).toList();
+    }
+
+    @Test
+    void totalsAndTopCategoriesCoverOnlyThePeriod() {
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of(
+                fact(1, 1L, "Продукты", TransactionType.EXPENSE, "10.50", "2025-01-03"),
+                fact(2, 2L, "Такси", TransactionType.EXPENSE, "30.00", "2025-01-31"),
+                fact(3, 1L, "Продукты", TransactionType.EXPENSE, "25.00", "2025-01-20"),
+                fact(4, null, null, TransactionType.EXPENSE, "5.00", "2025-01-10"),
+                fact(5, 3L, "Зарплата", TransactionType.INCOME, "1000.00", "2025-01-15"),
+                fact(6, 2L, "Такси", TransactionType.EXPENSE, "99.00", "2025-02-01")));
+        TransactionColumnStore store = store(1 << 20);
+
+        assertThat(totals(store.totalsByType(CHAT_ID, JAN_1, JAN_31))).containsExactly("EXPENSE 70.5 x4", "INCOME 1000 x1");
+        assertThat(store.topCategories(CHAT_ID, TransactionType.EXPENSE, JAN_1, JAN_31, 5))
+                .extracting(TransactionRepository.CategoryAmount::getName, c -> c.getTotal().stripTrailingZeros().toPlainString())
+                .containsExactly(tuple("Продукты", "35.5"), tuple("Такси", "30"));
+        assertThat(store.topCategories(CHAT_ID, TransactionType.EXPENSE, JAN_1, JAN_31, 1)).hasSize(1);
+        verify(transactionRepository, times(1)).findFacts(CHAT_ID);
+    }
+
+    @Test
+    void appendedTransactionCountsOnce() {
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of(
+                fact(1, 1L, "Продукты", TransactionType.EXPENSE, "10.00", "2025-01-03")));
+        TransactionColumnStore store = store(1 << 20);
+        store.totalsByType(CHAT_ID, JAN_1, JAN_31);
+
+        store.append(CHAT_ID, transaction(2, 2L, "Кафе", "4.00", "2025-01-05"));
+        store.append(CHAT_ID, transaction(1, 1L, "Продукты", "10.00", "2025-01-03"));
+
+        assertThat(totals(store.totalsByType(CHAT_ID, JAN_1, JAN_31))).containsExactly("EXPENSE 14 x2");
+        assertThat(store.topCategories(CHAT_ID, TransactionType.EXPENSE, JAN_1, JAN_31, 5))
+                .extracting(TransactionRepository.CategoryAmount::getName).containsExactly("Продукты", "Кафе");
+    }
+
+    @Test
+    void subcategoriesRollUpToTheirRoot() {
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of(
+                fact(1, 1L, "Продукты", TransactionType.EXPENSE, "10.00", "2025-01-03"),
+                fact(2, 11L, "Фрукты", TransactionType.EXPENSE, "4.00", "2025-01-04"),
+                fact(3, 2L, "Такси", TransactionType.EXPENSE, "12.00", "2025-01-05")));
+        when(transactionRepository.findCategoryRoots(CHAT_ID)).thenReturn(List.of(
+                new Root(1L, 1L, "Продукты"), new Root(11L, 1L, "Продукты"), new Root(2L, 2L, "Такси")));
+        TransactionColumnStore store = store(1 << 20);
+        store.totalsByType(CHAT_ID, JAN_1, JAN_31);
+
+        Transaction sweets = transaction(4, 12L, "Сладости", "3.00", "2025-01-06");
+        Category groceries = new Category();
+        ReflectionTestUtils.setField(groceries, "id", 1L);
+        groceries.setName("Продукты");
+        sweets.getCategory().setParent(groceries);
+        store.append(CHAT_ID, sweets);
+
+        assertThat(store.topCategories(CHAT_ID, TransactionType.EXPENSE, JAN_1, JAN_31, 5))
+                .extracting(TransactionRepository.CategoryAmount::getName, c -> c.getTotal().stripTrailingZeros().toPlainString())
+                .containsExactly(tuple("Продукты", "17"), tuple("Такси", "12"));
+    }
+
+    @Test
+    void daysAreUtcDaysWhateverTheServerZone() {
+        TimeZone serverZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Moscow"));
+        try {
+            Instant lateEvening = OffsetDateTime.parse("2025-01-31T23:30:00+03:00").toInstant();
+            Instant afterMidnight = OffsetDateTime.parse("2025-02-01T01:30:00+03:00").toInstant();
+            when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of(
+                    new Fact(1L, 1L, "Продукты", TransactionType.EXPENSE, new BigDecimal("10.00"), lateEvening),
+                    new Fact(2L, 1L, "Продукты", TransactionType.EXPENSE, new BigDecimal("5.00"), afterMidnight)));
+            TransactionColumnStore store = store(1 << 20);
+
+            // 22:30 UTC on January 31st is still January, as in the daily totals and the fallback queries
+            assertThat(totals(store.totalsByType(CHAT_ID, JAN_31, JAN_31))).containsExactly("EXPENSE 15 x2");
+            assertThat(store.totalsByType(CHAT_ID, LocalDate.of(2025, 2, 1), LocalDate.of(2025, 2, 1))).isEmpty();
+        } finally {
+            TimeZone.setDefault(serverZone);
+        }
+    }
+
+    @Test
+    void transactionCommittedDuringLoadIsMerged() {
+        TransactionColumnStore store = store(1 << 20);
+        when(transactionRepository.findFacts(CHAT_ID)).thenAnswer(inv -> {
+            store.append(CHAT_ID, transaction(1, 1L, "Продукты", "10.00", "2025-01-03"));
+            store.append(CHAT_ID, transaction(2, 1L, "Продукты", "7.00", "2025-01-04"));
+            return List.of(fact(1, 1L, "Продукты", TransactionType.EXPENSE, "10.00", "2025-01-03"));
+        });
+
+        assertThat(totals(store.totalsByType(CHAT_ID, JAN_1, JAN_31))).containsExactly("EXPENSE 17 x2");
+    }
+
+    @Test
+    void appendOutsideIndexedDaysIsCounted() {
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of(
+                fact(1, 1L, "Продукты", TransactionType.EXPENSE, "10.00", "2025-01-03")));
+        TransactionColumnStore store = store(1 << 20);
+        store.totalsByType(CHAT_ID, JAN_1, JAN_31);
+
+        store.append(CHAT_ID, transaction(2, 1L, "Продукты", "3.00", "2019-06-01"));
+        store.append(CHAT_ID, transaction(3, 2L, "Кафе", "4.00", "2040-06-01"));
+
+        assertThat(totals(store.totalsByType(CHAT_ID, LocalDate.of(2019, 1, 1), LocalDate.of(2040, 12, 31))))
+                .containsExactly("EXPENSE 17 x3");
+        assertThat(store.topCategories(CHAT_ID, TransactionType.EXPENSE, LocalDate.of(2019, 1, 1), JAN_31, 5))
+                .extracting(TransactionRepository.CategoryAmount::getName, c -> c.getTotal().stripTrailingZeros().toPlainString())
+                .containsExactly(tuple("Продукты", "13"));
+    }
+
+    @Test
+    void appendForChatNotHeldIsIgnored() {
+        TransactionColumnStore store = store(1 << 20);
+
+        store.append(CHAT_ID, transaction(1, 1L, "Продукты", "12.34567", "2025-01-03"));
+
+        assertThat(store.bytes()).isZero();
+        verifyNoInteractions(transactionRepository);
+    }
+
+    @Test
+    void appendToDisabledStoreIsIgnored() {
+        TransactionColumnStore store = new TransactionColumnStore(transactionRepository, false, 1 << 20,
+                Duration.ofMinutes(10), new SimpleMeterRegistry(), Clock.systemUTC());
+
+        assertThatCode(() -> store.append(CHAT_ID, transaction(1, 1L, "Продукты", "12.34567", "2025-01-03")))
+                .doesNotThrowAnyException();
+        assertThat(store.bytes()).isZero();
+    }
+
+    @Test
+    void amountsAreRoundedToTheColumnScale() {
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of(
+                fact(1, 1L, "Продукты", TransactionType.EXPENSE, "10.00005", "2025-01-03")));
+        TransactionColumnStore store = store(1 << 20);
+        store.totalsByType(CHAT_ID, JAN_1, JAN_31);
+
+        store.append(CHAT_ID, transaction(2, 1L, "Продукты", "12.34564", "2025-01-05"));
+
+        assertThat(totals(store.totalsByType(CHAT_ID, JAN_1, JAN_31))).containsExactly("EXPENSE 22.3457 x2");
+    }
+
+    @Test
+    void invalidatedChatIsReloaded() {
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(List.of());
+        TransactionColumnStore store = store(1 << 20);
+        store.totalsByType(CHAT_ID, JAN_1, JAN_31);
+
+        store.invalidate(CHAT_ID);
+        store.totalsByType(CHAT_ID, JAN_1, JAN_31);
+
+        verify(transactionRepository, times(2)).findFacts(CHAT_ID);
+    }
+
+    @Test
+    void leastRecentlyQueriedChatIsDroppedOverBudget() {
+        when(transactionRepository.findFacts(anyLong())).thenReturn(List.of());
+        TransactionColumnStore store = store(40_000);
+        store.totalsByType(1L, JAN_1, JAN_31);
+        store.totalsByType(2L, JAN_1, JAN_31);
+        store.totalsByType(1L, JAN_1, JAN_31);
+        store.totalsByType(3L, JAN_1, JAN_31);
+
+        assertThat(store.bytes()).isLessThanOrEqualTo(40_000);
+        store.totalsByType(1L, JAN_1, JAN_31);
+        store.totalsByType(2L, JAN_1, JAN_31);
+        verify(transactionRepository, times(1)).findFacts(1L);
+        verify(transactionRepository, times(2)).findFacts(2L);
+    }
+
+    /** A year report over five years of history, 100k transactions across 40 categories. */
+    @Test
+    @Tag("benchmark")
+    void yearReportOverHundredThousandTransactions() {
+        Random random = new Random(42);
+        List<TransactionRepository.TransactionFact> facts = new ArrayList<>();
+        Instant first = Instant.parse("2021-01-01T00:00:00Z");
+        for (int i = 0; i < 100_000; i++) {
+            long category = random.nextInt(40);
+            facts.add(new Fact((long) i, category, "категория" + category,
+                    i % 10 == 0 ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    BigDecimal.valueOf(random.nextInt(100_000), 2), first.plusSeconds(i * 1_577L)));
+        }
+        when(transactionRepository.findFacts(CHAT_ID)).thenReturn(facts);
+        TransactionColumnStore store = store(64L << 20);
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        LocalDate end = LocalDate.of(2024, 12, 31);
+
+        long sink = 0;
+        for (int r = 0; r < 10_000; r++) {
+            sink += store.totalsByType(CHAT_ID, start, end).size();
+            sink += store.topCategories(CHAT_ID, TransactionType.EXPENSE, start, end, 5).size();
+        }
+        int rounds = 5_000;
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            sink += store.totalsByType(CHAT_ID, start, end).size();
+            sink += store.topCategories(CHAT_ID, TransactionType.EXPENSE, start, end, 5).size();
+        }
+        long nanos = (System.nanoTime() - begin) / rounds;
+        System.out.printf("year report over %d transactions in memory: %d us, %d KB held (%d)%n",
+                facts.size(), nanos / 1_000, store.bytes() >> 10, sink % 10);
+    }
+}
@@ -202,10 +202,10 @@ class AccountServiceImplTest {
     @Test
     void findOrCreateDefaultAccountReturnsExistingFirst() {
         Account existing = new Account(); existing.setName("Primary"); existing.setCurrency("USD"); setId(existing, 70L);
-        when(userRepository.findByChatId(100L)).thenReturn(Optional.of(owner));
         when(accountRepository.findByOwnerChatIdAndArchivedFalse(100L)).thenReturn(List.of(existing));
         Account result = service.findOrCreateDefaultAccount(100L);
         assertThat(result).isSameAs(existing);
+        verify(userRepository, never()).findByChatId(any());
     }
 
     @Test
@@ -214,6 +214,7 @@ class AccountServiceImplTest {
         when(accountRepository.findByOwnerChatIdAndArchivedFalse(100L)).thenReturn(List.of());
         when(accountRepository.save(any(Account.class))).thenAnswer(inv -> { Account a = inv.getArgument(0); setId(a, 99L); return a; });
         Account created = service.findOrCreateDefaultAccount(100L);
+        verify(userRepository, times(1)).findByChatId(100L);
         assertThat(created.getName()).isEqualTo("Alex's CASH Account");
         assertThat(created.getCurrency()).isEqualTo("PLN");
         assertThat(created.getType()).isEqualTo(AccountType.CASH);
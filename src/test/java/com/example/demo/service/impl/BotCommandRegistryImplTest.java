@@ -1,16 +1,22 @@
 package com.example.demo.service.impl;
 
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
 import com.example.demo.service.BotCommandHandler;
+import com.example.demo.service.DialogStateService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Chat;
 import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -96,5 +102,75 @@ class BotCommandRegistryImplTest {
         verify(h1, never()).handle(anyLong(), any());
         verify(h2, never()).handle(anyLong(), any());
     }
-}
 
+    private DialogStateData state(DialogStateType type) {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(123L);
+        d.setState(type);
+        return d;
+    }
+
+    @Test
+    void indexedRoutingReadsStateOnceAndAsksOnlyMatchingHandlers() {
+        DialogStateService dialogStateService = mock(DialogStateService.class);
+        BotCommandHandler stats = mock(BotCommandHandler.class);
+        BotCommandHandler expense = mock(BotCommandHandler.class);
+        when(stats.menuTexts()).thenReturn(Set.of("Статистика"));
+        when(expense.dialogStates()).thenReturn(Set.of(DialogStateType.AWAITING_AMOUNT));
+        DialogStateData idle = state(DialogStateType.IDLE);
+        when(dialogStateService.getState(123L)).thenReturn(idle);
+        when(stats.supports(any(), eq(idle))).thenReturn(true);
+        when(stats.handle(123L, "статистика")).thenReturn(new SendMessage("123", "stats"));
+
+        BotCommandRegistryImpl registry = new BotCommandRegistryImpl(List.of(expense, stats), dialogStateService);
+        Optional<SendMessage> result = registry.process(validUpdate("статистика"));
+
+        assertThat(result).map(SendMessage::getText).contains("stats");
+        verify(dialogStateService, times(1)).getState(123L);
+        verifyNoMoreInteractions(dialogStateService);
+        verify(expense, never()).supports(any(), any());
+        verify(expense, never()).supports(any());
+    }
+
+    @Test
+    void ambiguousMatchesAreTriedInHandlerOrder() {
+        DialogStateService dialogStateService = mock(DialogStateService.class);
+        BotCommandHandler expense = mock(BotCommandHandler.class);
+        BotCommandHandler income = mock(BotCommandHandler.class);
+        when(expense.dialogStates()).thenReturn(Set.of(DialogStateType.AWAITING_AMOUNT));
+        when(income.dialogStates()).thenReturn(Set.of(DialogStateType.AWAITING_AMOUNT));
+        DialogStateData awaitingAmount = state(DialogStateType.AWAITING_AMOUNT);
+        when(dialogStateService.getState(123L)).thenReturn(awaitingAmount);
+        when(expense.supports(any(), eq(awaitingAmount))).thenReturn(false);
+        when(income.supports(any(), eq(awaitingAmount))).thenReturn(true);
+        when(income.handle(123L, "100")).thenReturn(new SendMessage("123", "income"));
+
+        BotCommandRegistryImpl registry = new BotCommandRegistryImpl(List.of(expense, income), dialogStateService);
+        Optional<SendMessage> result = registry.process(validUpdate("100"));
+
+        assertThat(result).map(SendMessage::getText).contains("income");
+        var order = inOrder(expense, income);
+        order.verify(expense).supports(any(), eq(awaitingAmount));
+        order.verify(income).supports(any(), eq(awaitingAmount));
+    }
+
+    @Test
+    void callbackIsRoutedByDataPrefix() {
+        DialogStateService dialogStateService = mock(DialogStateService.class);
+        BotCommandHandler stats = mock(BotCommandHandler.class);
+        when(stats.callbackPrefixes()).thenReturn(Set.of("stats_period:"));
+        when(stats.supports(any(), any())).thenReturn(true);
+        when(stats.handle(123L, "stats_period:today")).thenReturn(new SendMessage("123", "today"));
+        Update update = new Update();
+        CallbackQuery cq = new CallbackQuery();
+        User from = new User();
+        from.setId(123L);
+        cq.setFrom(from);
+        cq.setData("stats_period:today");
+        update.setCallbackQuery(cq);
+
+        BotCommandRegistryImpl registry = new BotCommandRegistryImpl(List.of(stats), dialogStateService);
+
+        assertThat(registry.process(update)).map(SendMessage::getText).contains("today");
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import com.example.demo.model.entity.User;
+import com.example.demo.repository.CategoryRepository;
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.repository.UserRepository;
+import com.example.demo.service.cache.CategoryFrecency;
+import com.example.demo.service.cache.CategoryIndexCache;
+import com.example.demo.service.cache.CategoryUsageCounter;
+import com.example.demo.service.cache.StatsReportCache;
+import com.example.demo.service.cache.TransactionColumnStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.*;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CategoryServiceImplTest {
+
+    private static final Long CHAT_ID = 42L;
+
+    @Mock
+    CategoryRepository categoryRepository;
+
+    @Mock
+    UserRepository userRepository;
+
+    @Mock
+    TransactionRepository transactionRepository;
+
+    @Spy
+    CategoryIndexCache categoryIndexCache = new CategoryIndexCache(100, Duration.ofMinutes(10), new SimpleMeterRegistry(),
+            Clock.systemUTC());
+
+    @Spy
+    StatsReportCache statsReportCache = new StatsReportCache(100, Duration.ofMinutes(5), new SimpleMeterRegistry(),
+            Clock.systemUTC());
+
+    @Mock
+    TransactionColumnStore transactionColumnStore;
+
+    @Mock
+    CategoryUsageCounter categoryUsageCounter;
+
+    @Mock
+    CategoryFrecency categoryFrecency;
+
+    @InjectMocks
+    CategoryServiceImpl categoryService;
+
+    private static Category category(String name, CategoryType type) {
+        Category c = new Category();
+        c.setName(name);
+        c.setType(type);
+        return c;
+    }
+
+    private static Category saved(Category category, long id) {
+        ReflectionTestUtils.setField(category, "id", id);
+        return category;
+    }
+
+    private static User user(long chatId) {
+        User u = new User();
+        u.setChatId(chatId);
+        return u;
+    }
+
+    @Test
+    void getAllCategoryNamesReadsOnlyVisibleNames() {
+        when(categoryRepository.findVisibleNames(CHAT_ID)).thenReturn(List.of("такси", "Аптека", "кафе"));
+
+        assertThat(categoryService.getAllCategoryNames(CHAT_ID)).containsExactly("Аптека", "кафе", "такси");
+        verify(categoryRepository, never()).findAll();
+    }
+
+    @Test
+    void getAllCategoriesReadsOnlyVisibleCategories() {
+        when(categoryRepository.findVisible(CHAT_ID)).thenReturn(List.of(
+                category("Зарплата", CategoryType.INCOME), category("аптека", CategoryType.EXPENSE)));
+
+        assertThat(categoryService.getAllCategories(CHAT_ID)).extracting(Category::getName)
+                .containsExactly("аптека", "Зарплата");
+        verify(categoryRepository, never()).findAll();
+    }
+
+    @Test
+    void getAllCategoriesRequiresChatId() {
+        assertThatThrownBy(() -> categoryService.getAllCategories(null)).isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(categoryRepository);
+    }
+
+    @Test
+    void getCategoriesByTypeReturnsGlobalCategoriesByUsage() {
+        Category rare = category("Рыбалка", CategoryType.EXPENSE);
+        Category popular = category("Продукты", CategoryType.EXPENSE);
+        popular.setUsageCount(10L);
+        when(categoryRepository.findByTypeAndOwnerIsNull(CategoryType.EXPENSE)).thenReturn(List.of(rare, popular));
+
+        assertThat(categoryService.getCategoriesByType(CategoryType.EXPENSE)).containsExactly(popular, rare);
+    }
+
+    @Test
+    void visibleCategoriesOfTypeAreLoadedOncePerChat() {
+        when(categoryRepository.findVisibleByType(CategoryType.EXPENSE, CHAT_ID))
+                .thenReturn(List.of(category("Такси", CategoryType.EXPENSE)));
+
+        categoryService.getCategoryMatcher(CHAT_ID, CategoryType.EXPENSE);
+        categoryService.getCategoryMatcher(CHAT_ID, CategoryType.EXPENSE);
+
+        verify(categoryRepository, times(1)).findVisibleByType(any(), any());
+    }
+
+    @Test
+    void createCategoryAddsRootClosureRow() {
+        when(categoryRepository.save(any())).thenAnswer(inv -> saved(inv.getArgument(0), 10L));
+
+        categoryService.createCategory("Хобби", "expense", null);
+
+        verify(categoryRepository).insertClosure(10L, null);
+    }
+
+    @Test
+    void deleteCategoryDetachesSubtreeAndPromotesChildrenBeforeDeleting() {
+        Category category = saved(category("Продукты", CategoryType.EXPENSE), 3L);
+        when(categoryRepository.existsById(3L)).thenReturn(true);
+
+        categoryService.deleteCategory(category);
+
+        InOrder inOrder = inOrder(categoryRepository);
+        inOrder.verify(categoryRepository).detachSubtree(3L);
+        inOrder.verify(categoryRepository).promoteChildren(3L);
+        inOrder.verify(categoryRepository).delete(category);
+        verify(statsReportCache).invalidateAll();
+        verify(transactionColumnStore).invalidateAll();
+    }
+
+    @Test
+    void deleteCategoryByNamePromotesChildrenOfEveryMatch() {
+        when(categoryRepository.findIdsByName("Транспорт")).thenReturn(List.of(3L, 8L));
+
+        categoryService.deleteCategoryByName(" Транспорт ");
+
+        InOrder inOrder = inOrder(categoryRepository);
+        inOrder.verify(categoryRepository).detachSubtree(3L);
+        inOrder.verify(categoryRepository).promoteChildren(3L);
+        inOrder.verify(categoryRepository).detachSubtree(8L);
+        inOrder.verify(categoryRepository).promoteChildren(8L);
+        inOrder.verify(categoryRepository).deleteByName("Транспорт");
+    }
+
+    @Test
+    void usageIsCountedOnlyAfterCommit() {
+        Category groceries = saved(category("Продукты", CategoryType.EXPENSE), 5L);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            categoryService.incrementCategoryUsage(CHAT_ID, groceries);
+            verifyNoInteractions(categoryUsageCounter, categoryFrecency);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(categoryUsageCounter).increment(5L);
+        verify(categoryFrecency).record(CHAT_ID, 5L);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.demo.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatOrderedUpdateDispatcherTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private ChatOrderedUpdateDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    void updatesOfSameChatRunInSubmissionOrder() throws Exception {
+        dispatcher = new ChatOrderedUpdateDispatcher(4, 2, Duration.ofSeconds(10), registry);
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 200; i++) {
+            int n = i;
+            dispatcher.dispatch(1L, () -> {
+                seen.add(n);
+                done.countDown();
+            });
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(seen).isSorted().hasSize(200);
+    }
+
+    @Test
+    void slowChatDoesNotBlockOtherChats() throws Exception {
+        dispatcher = new ChatOrderedUpdateDispatcher(2, 16, Duration.ofSeconds(10), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+        dispatcher.dispatch(1L, () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.dispatch(2L, otherDone::countDown);
+        assertThat(otherDone.await(2, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+    }
+
+    @Test
+    void failingTaskDoesNotStopLane() throws Exception {
+        dispatcher = new ChatOrderedUpdateDispatcher(1, 16, Duration.ofSeconds(10), registry);
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch(5L, () -> {
+            throw new IllegalStateException("boom");
+        });
+        dispatcher.dispatch(5L, done::countDown);
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void reportsQueueDepthAndWaitTime() throws Exception {
+        dispatcher = new ChatOrderedUpdateDispatcher(1, 16, Duration.ofSeconds(10), registry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        AtomicInteger ran = new AtomicInteger();
+        dispatcher.dispatch(7L, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        dispatcher.dispatch(7L, () -> { ran.incrementAndGet(); done.countDown(); });
+        dispatcher.dispatch(8L, () -> { ran.incrementAndGet(); done.countDown(); });
+        // the single worker is busy, two updates are waiting
+        assertThat(dispatcher.getQueueDepth()).isEqualTo(2);
+        assertThat(registry.get("bot.dispatcher.queue.depth").gauge().value()).isEqualTo(2.0);
+        release.countDown();
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(ran.get()).isEqualTo(2);
+        assertThat(dispatcher.getQueueDepth()).isZero();
+        assertThat(registry.get("bot.dispatcher.wait").timer().count()).isEqualTo(3);
+    }
+
+    @Test
+    void dispatchAfterShutdownIsRejected() {
+        dispatcher = new ChatOrderedUpdateDispatcher(1, 2, Duration.ofSeconds(10), registry);
+        dispatcher.shutdown();
+
+        assertThatThrownBy(() -> dispatcher.dispatch(1L, () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(dispatcher.getQueueDepth()).isZero();
+    }
+
+    @Test
+    void updatesQueuedBeforeShutdownStillRun() throws Exception {
+        dispatcher = new ChatOrderedUpdateDispatcher(1, 2, Duration.ofSeconds(10), registry);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        dispatcher.dispatch(1L, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(1L, ran::incrementAndGet);
+        }
+
+        Thread stopper = new Thread(dispatcher::shutdown);
+        stopper.start();
+        release.countDown();
+        stopper.join(5_000);
+
+        assertThat(ran).hasValue(5);
+    }
+}
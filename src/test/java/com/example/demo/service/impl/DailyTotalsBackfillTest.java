@@ -0,0 +1,78 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.*;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DailyTotalsBackfillTest {
+
+    @Mock
+    TransactionRepository transactionRepository;
+    @Mock
+    UserRepository userRepository;
+    @Mock
+    PlatformTransactionManager transactionManager;
+
+    private DailyTotalsBackfill backfill() {
+        return new DailyTotalsBackfill(transactionRepository, userRepository, new TransactionTemplate(transactionManager),
+                3, 2, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void everyOwnerIsRebuiltUnderItsLockAcrossPages() throws Exception {
+        when(userRepository.findIdsAfter(0L, PageRequest.of(0, 2))).thenReturn(List.of(1L, 2L));
+        when(userRepository.findIdsAfter(2L, PageRequest.of(0, 2))).thenReturn(List.of(5L));
+        when(userRepository.findIdsAfter(5L, PageRequest.of(0, 2))).thenReturn(List.of());
+        when(userRepository.lockById(anyLong())).thenAnswer(inv -> Optional.of(inv.getArgument(0)));
+
+        assertThat(backfill().run()).isEqualTo(3);
+
+        for (long ownerId : new long[]{1L, 2L, 5L}) {
+            InOrder inOrder = inOrder(userRepository, transactionRepository);
+            inOrder.verify(userRepository).lockById(ownerId);
+            inOrder.verify(transactionRepository).deleteDailyTotals(ownerId);
+            inOrder.verify(transactionRepository).rebuildDailyTotals(ownerId);
+        }
+        verify(transactionManager, times(3)).commit(any());
+    }
+
+    @Test
+    void ownerDeletedMeanwhileIsSkipped() throws Exception {
+        when(userRepository.findIdsAfter(0L, PageRequest.of(0, 2))).thenReturn(List.of(1L));
+        when(userRepository.findIdsAfter(1L, PageRequest.of(0, 2))).thenReturn(List.of());
+        when(userRepository.lockById(1L)).thenReturn(Optional.empty());
+
+        backfill().run();
+
+        verify(transactionRepository, never()).rebuildDailyTotals(any());
+    }
+
+    @Test
+    void failedOwnerFailsTheRunAfterTheOthersAreDone() {
+        when(userRepository.findIdsAfter(0L, PageRequest.of(0, 2))).thenReturn(List.of(1L, 2L));
+        when(userRepository.findIdsAfter(2L, PageRequest.of(0, 2))).thenReturn(List.of());
+        when(userRepository.lockById(anyLong())).thenAnswer(inv -> Optional.of(inv.getArgument(0)));
+        when(transactionRepository.rebuildDailyTotals(1L)).thenThrow(new IllegalStateException("boom"));
+
+        assertThatThrownBy(() -> backfill().run()).isInstanceOf(ExecutionException.class);
+
+        verify(transactionRepository).rebuildDailyTotals(2L);
+        verify(transactionRepository, never()).markDailyTotalsBackfilled();
+    }
+}
@@ -2,7 +2,9 @@ package com.example.demo.service.impl;
 
 import com.example.demo.model.entity.DialogStateData;
 import com.example.demo.model.enums.DialogStateType;
-import com.example.demo.repository.DialogStateDataRepository;
+import com.example.demo.repository.DialogStateStore;
+import com.example.demo.service.UpdateContext;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
@@ -19,7 +21,7 @@ import static org.mockito.Mockito.*;
 class DialogStateServiceImplTest {
 
     @Mock
-    DialogStateDataRepository repository;
+    DialogStateStore repository;
 
     @InjectMocks
     DialogStateServiceImpl service;
@@ -38,6 +40,11 @@ class DialogStateServiceImplTest {
     @Captor
     ArgumentCaptor<DialogStateData> captor;
 
+    @AfterEach
+    void closeContext() {
+        UpdateContext.close();
+    }
+
     @Test
     void getStateTypeReturnsExistingState() {
         when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.of(state(DialogStateType.AWAITING_AMOUNT)));
@@ -122,10 +129,113 @@ class DialogStateServiceImplTest {
         assertThat(service.findAll()).containsExactly(d1, d2);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void forEachStateVisitsEveryStateOfEveryBatch() {
+        DialogStateData d1 = state(DialogStateType.IDLE);
+        DialogStateData d2 = state(DialogStateType.SUCCESS);
+        DialogStateData d3 = state(DialogStateType.AWAITING_AMOUNT);
+        doAnswer(inv -> {
+            java.util.function.Consumer<List<DialogStateData>> action = inv.getArgument(0);
+            action.accept(List.of(d1, d2));
+            action.accept(List.of(d3));
+            return null;
+        }).when(repository).forEachBatch(any());
+        List<DialogStateData> visited = new java.util.ArrayList<>();
+
+        service.forEachState(visited::add);
+
+        assertThat(visited).containsExactly(d1, d2, d3);
+    }
+
     @Test
     void clearStateDeletesById() {
         service.clearState(CHAT_ID);
         verify(repository).deleteById(CHAT_ID);
     }
-}
 
+    @Test
+    void openContextReadsStateOnceAndWritesOnceOnFlush() {
+        DialogStateData existing = state(DialogStateType.IDLE);
+        when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.of(existing));
+        UpdateContext context = UpdateContext.open(CHAT_ID, null);
+
+        assertThat(service.getState(CHAT_ID)).isSameAs(existing);
+        assertThat(service.getStateType(CHAT_ID)).isEqualTo(DialogStateType.IDLE);
+        service.setDialogStateType(CHAT_ID, DialogStateType.AWAITING_AMOUNT);
+        existing.setComment("note");
+        service.saveOrUpdate(existing);
+        verify(repository, never()).save(any());
+
+        service.flush(context);
+
+        verify(repository, times(1)).findByChatId(CHAT_ID);
+        verify(repository, times(1)).save(existing);
+        assertThat(existing.getState()).isEqualTo(DialogStateType.AWAITING_AMOUNT);
+        assertThat(context.isDirty()).isFalse();
+    }
+
+    @Test
+    void clearedStateInContextIsDeletedOnFlushAndReadsAsAbsent() {
+        when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.of(state(DialogStateType.IDLE)));
+        UpdateContext context = UpdateContext.open(CHAT_ID, null);
+        service.getState(CHAT_ID);
+
+        service.clearState(CHAT_ID);
+
+        assertThat(service.getState(CHAT_ID)).isNull();
+        verify(repository, never()).deleteById(any());
+        service.flush(context);
+        verify(repository).deleteById(CHAT_ID);
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void contextOfAnotherChatIsIgnored() {
+        when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.empty());
+        UpdateContext.open(1L, null);
+        service.setDialogStateType(CHAT_ID, DialogStateType.IDLE);
+        verify(repository).save(any(DialogStateData.class));
+    }
+
+    @Test
+    void transitionAppliesChangesToCopyAndWritesWithCompareAndSet() {
+        DialogStateData stored = state(DialogStateType.AWAITING_AMOUNT);
+        when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.of(stored));
+        when(repository.compareAndSet(eq(CHAT_ID), same(stored), any())).thenReturn(true);
+
+        boolean moved = service.transition(CHAT_ID, DialogStateType.AWAITING_AMOUNT, DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE,
+                d -> d.setComment("note"));
+
+        assertThat(moved).isTrue();
+        verify(repository).compareAndSet(eq(CHAT_ID), same(stored), captor.capture());
+        assertThat(captor.getValue().getState()).isEqualTo(DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE);
+        assertThat(captor.getValue().getComment()).isEqualTo("note");
+        assertThat(stored.getState()).isEqualTo(DialogStateType.AWAITING_AMOUNT);
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void transitionFromUnexpectedStateWritesNothing() {
+        when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.empty());
+
+        assertThat(service.transition(CHAT_ID, DialogStateType.AWAITING_CONFIRMATION, null, null)).isFalse();
+        verify(repository, never()).compareAndSet(any(), any(), any());
+    }
+
+    @Test
+    void transitionRetriesWhenStateChangedConcurrentlyAndUpdatesContext() {
+        DialogStateData first = state(DialogStateType.AWAITING_CONFIRMATION);
+        DialogStateData second = state(DialogStateType.AWAITING_CONFIRMATION);
+        second.setComment("edited elsewhere");
+        when(repository.findByChatId(CHAT_ID)).thenReturn(Optional.of(first)).thenReturn(Optional.of(second));
+        when(repository.compareAndSet(CHAT_ID, first, null)).thenReturn(false);
+        when(repository.compareAndSet(CHAT_ID, second, null)).thenReturn(true);
+        UpdateContext context = UpdateContext.open(CHAT_ID, null);
+
+        assertThat(service.transition(CHAT_ID, DialogStateType.AWAITING_CONFIRMATION, null, null)).isTrue();
+        assertThat(service.getState(CHAT_ID)).isNull();
+        assertThat(context.isDirty()).isFalse();
+        verify(repository, times(2)).findByChatId(CHAT_ID);
+    }
+}
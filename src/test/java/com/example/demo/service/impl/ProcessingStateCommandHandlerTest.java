@@ -0,0 +1,69 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.service.DialogStateService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProcessingStateCommandHandlerTest {
+
+    private static final Long CHAT_ID = 12345L;
+
+    @Mock
+    DialogStateService dialogStateService;
+
+    @InjectMocks
+    ProcessingStateCommandHandler handler;
+
+    private DialogStateData processingSince(LocalDateTime lastUpdated) {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(CHAT_ID);
+        d.setState(DialogStateType.PROCESSING);
+        d.setLastUpdated(lastUpdated);
+        return d;
+    }
+
+    @Test
+    void supportsOnlyProcessingState() {
+        assertThat(handler.supports(new Update(), processingSince(LocalDateTime.now()))).isTrue();
+        DialogStateData idle = processingSince(LocalDateTime.now());
+        idle.setState(DialogStateType.IDLE);
+        assertThat(handler.supports(new Update(), idle)).isFalse();
+        assertThat(handler.supports(new Update(), null)).isFalse();
+    }
+
+    @Test
+    void saveInProgressIsLeftAlone() {
+        when(dialogStateService.getState(CHAT_ID)).thenReturn(processingSince(LocalDateTime.now()));
+
+        SendMessage resp = handler.handle(CHAT_ID, "confirm");
+
+        assertThat(resp.getText()).isEqualTo("Операция ещё сохраняется, подождите немного.");
+        verify(dialogStateService, never()).transition(anyLong(), any(), any(), any());
+    }
+
+    @Test
+    void interruptedSaveIsClearedWithoutHandingDraftBack() {
+        LocalDateTime longAgo = LocalDateTime.now().minus(ProcessingStateCommandHandler.STALE_AFTER).minusSeconds(1);
+        when(dialogStateService.getState(CHAT_ID)).thenReturn(processingSince(longAgo));
+
+        SendMessage resp = handler.handle(CHAT_ID, "confirm");
+
+        assertThat(resp.getText()).startsWith("Сохранение предыдущей операции было прервано.");
+        assertThat(resp.getReplyMarkup()).isNotNull();
+        verify(dialogStateService).transition(CHAT_ID, DialogStateType.PROCESSING, null, null);
+    }
+}
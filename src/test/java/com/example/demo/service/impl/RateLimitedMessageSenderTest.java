@@ -0,0 +1,170 @@
+package com.example.demo.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.ApiResponse;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RateLimitedMessageSenderTest {
+
+    private static final long WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Mock
+    AbsSender absSender;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private RateLimitedMessageSender sender(double perChatPerSecond, int queueCapacity) {
+        return new RateLimitedMessageSender(absSender,
+                new RateLimitedMessageSender.Limits(30, perChatPerSecond, 1, 10, queueCapacity, 3), registry);
+    }
+
+    private double counter(String name) {
+        return registry.counter(name).count();
+    }
+
+    private static TelegramApiRequestException apiError(int code, Integer retryAfter) {
+        @SuppressWarnings("unchecked")
+        ApiResponse<Object> response = mock(ApiResponse.class);
+        when(response.getErrorCode()).thenReturn(code);
+        when(response.getParameters()).thenReturn(retryAfter == null ? null : new ResponseParameters(null, retryAfter));
+        return new TelegramApiRequestException("error", response);
+    }
+
+    @Test
+    void sendsOneMessagePerChatConcurrentlyInOneCycle() throws Exception {
+        doReturn(CompletableFuture.completedFuture(new Message())).when(absSender).executeAsync(any(SendMessage.class));
+        RateLimitedMessageSender sender = sender(1, 100);
+        sender.enqueue(new SendMessage("1", "a"));
+        sender.enqueue(new SendMessage("2", "b"));
+        sender.enqueue(new SendMessage("3", "c"));
+
+        assertThat(sender.drainOnce(WAIT)).isEqualTo(3);
+        assertThat(counter("bot.outbound.sent")).isEqualTo(3);
+        assertThat(sender.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void perChatBucketHoldsBackSecondMessageOfSameChat() throws Exception {
+        doReturn(CompletableFuture.completedFuture(new Message())).when(absSender).executeAsync(any(SendMessage.class));
+        RateLimitedMessageSender sender = sender(0.001, 100);
+        sender.enqueue(new SendMessage("1", "first"));
+        sender.enqueue(new SendMessage("1", "second"));
+
+        assertThat(sender.drainOnce(WAIT)).isEqualTo(1);
+        assertThat(sender.drainOnce(WAIT)).isZero();
+        assertThat(sender.drainOnce(WAIT)).isZero();
+        assertThat(sender.getQueuedCount()).isEqualTo(1);
+        assertThat(counter("bot.outbound.throttled")).isEqualTo(1);
+    }
+
+    @Test
+    void retryAfterPutsMessageBackAtHeadOfItsChat() throws Exception {
+        doReturn(CompletableFuture.failedFuture(apiError(429, 0)))
+                .doReturn(CompletableFuture.completedFuture(new Message()))
+                .when(absSender).executeAsync(any(SendMessage.class));
+        RateLimitedMessageSender sender = sender(1_000_000, 100);
+        sender.enqueue(new SendMessage("1", "first"));
+        sender.enqueue(new SendMessage("1", "second"));
+
+        sender.drainOnce(WAIT);
+        sender.drainOnce(WAIT);
+        sender.drainOnce(WAIT);
+
+        ArgumentCaptor<SendMessage> captor = ArgumentCaptor.forClass(SendMessage.class);
+        verify(absSender, times(3)).executeAsync(captor.capture());
+        assertThat(captor.getAllValues()).extracting(SendMessage::getText).containsExactly("first", "first", "second");
+        assertThat(counter("bot.outbound.throttled")).isEqualTo(1);
+        assertThat(counter("bot.outbound.sent")).isEqualTo(2);
+    }
+
+    @Test
+    void clientErrorIsNotRetried() throws Exception {
+        doReturn(CompletableFuture.failedFuture(apiError(403, null)))
+                .when(absSender).executeAsync(any(SendMessage.class));
+        RateLimitedMessageSender sender = sender(1_000_000, 100);
+        sender.enqueue(new SendMessage("1", "blocked"));
+
+        sender.drainOnce(WAIT);
+
+        assertThat(sender.drainOnce(WAIT)).isZero();
+        assertThat(counter("bot.outbound.failed")).isEqualTo(1);
+        assertThat(sender.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void retryAfterDoesNotUseUpAttempts() throws Exception {
+        TelegramApiRequestException tooManyRequests = apiError(429, 0);
+        doReturn(CompletableFuture.failedFuture(tooManyRequests), CompletableFuture.failedFuture(tooManyRequests),
+                CompletableFuture.failedFuture(tooManyRequests), CompletableFuture.failedFuture(tooManyRequests))
+                .doReturn(CompletableFuture.completedFuture(new Message()))
+                .when(absSender).executeAsync(any(SendMessage.class));
+        RateLimitedMessageSender sender = sender(1_000_000, 100);
+        sender.enqueue(new SendMessage("1", "throttled"));
+
+        for (int i = 0; i < 5; i++) {
+            sender.drainOnce(WAIT);
+        }
+
+        assertThat(counter("bot.outbound.sent")).isEqualTo(1);
+        assertThat(counter("bot.outbound.failed")).isZero();
+    }
+
+    @Test
+    void unansweredRequestIsNotResent() throws Exception {
+        doReturn(CompletableFuture.failedFuture(new TimeoutException()))
+                .when(absSender).executeAsync(any(SendMessage.class));
+        RateLimitedMessageSender sender = sender(1_000_000, 100);
+        sender.enqueue(new SendMessage("1", "maybe delivered"));
+
+        sender.drainOnce(WAIT);
+
+        assertThat(sender.drainOnce(WAIT)).isZero();
+        verify(absSender, times(1)).executeAsync(any(SendMessage.class));
+        assertThat(counter("bot.outbound.failed")).isEqualTo(1);
+        assertThat(sender.getQueuedCount()).isZero();
+    }
+
+    @Test
+    void slowRequestDoesNotHoldBackOtherChats() throws Exception {
+        SendMessage slow = new SendMessage("1", "slow");
+        doReturn(new CompletableFuture<Message>()).when(absSender).executeAsync(slow);
+        doReturn(CompletableFuture.completedFuture(new Message())).when(absSender).executeAsync(new SendMessage("2", "fast"));
+        RateLimitedMessageSender sender = sender(1_000_000, 100);
+        sender.enqueue(slow);
+        sender.drainOnce(WAIT);
+
+        sender.enqueue(new SendMessage("2", "fast"));
+
+        assertThat(sender.drainOnce(WAIT)).isEqualTo(1);
+        assertThat(counter("bot.outbound.sent")).isEqualTo(1);
+        assertThat(sender.getQueuedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void fullQueueDropsMessage() {
+        RateLimitedMessageSender sender = sender(1, 1);
+        sender.enqueue(new SendMessage("1", "kept"));
+        sender.enqueue(new SendMessage("2", "dropped"));
+
+        assertThat(sender.getQueuedCount()).isEqualTo(1);
+        assertThat(counter("bot.outbound.dropped")).isEqualTo(1);
+    }
+}
@@ -11,10 +11,12 @@ import com.example.demo.service.AccountService;
 import com.example.demo.service.CategoryService;
 import com.example.demo.service.DialogStateService;
 import com.example.demo.service.TransactionService;
+import com.example.demo.service.util.CategoryKeyboardHelper;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.*;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
@@ -74,6 +76,10 @@ class RecordExpenseCommandHandlerTest {
         }
     }
 
+    private static Answer<InlineKeyboardMarkup> keyboardOf(List<Category> categories) {
+        return invocation -> CategoryKeyboardHelper.buildCategoryKeyboard(invocation.getArgument(2), 6, categories);
+    }
+
     private Category newCategory(String name) {
         Category c = new Category();
         c.setName(name);
@@ -168,7 +174,7 @@ class RecordExpenseCommandHandlerTest {
     void handleValidAmountTransitionsToCategorySelection() {
         DialogStateData state = newState(DialogStateType.AWAITING_AMOUNT);
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
-        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
+        when(categoryService.getCategoryKeyboard(any(), any(), anyInt())).thenAnswer(keyboardOf(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"))));
         SendMessage resp = handler.handle(CHAT_ID, "123.45");
         assertThat(resp.getText()).contains("Сумма записана: 123.45");
         verify(dialogStateService).saveOrUpdate(stateCaptor.capture());
@@ -184,7 +190,7 @@ class RecordExpenseCommandHandlerTest {
 //        when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
 //        when(accountService.findDefaultAccount(CHAT_ID)).thenReturn(defaultAccount());
 //        when(categoryService.categoryExists(any(), CHAT_ID)).thenReturn(true);
-//        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
+//        when(categoryService.getCategoriesByType(any(), any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
 //        SendMessage resp = handler.handle(CHAT_ID, "category:TRANSPORTATION");
 //        assertThat(resp.getText()).contains("Пожалуйста, выберите счёт и дату");
 //        verify(dialogStateService).saveOrUpdate(stateCaptor.capture());
@@ -207,6 +213,7 @@ class RecordExpenseCommandHandlerTest {
         DialogStateData state = newState(DialogStateType.AWAITING_ACCOUNT_AND_DATE);
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
         Account def = defaultAccount();
+        setId(def, 1L);
         when(accountService.findById(999L)).thenReturn(Optional.empty());
         when(accountService.findOrCreateDefaultAccount(CHAT_ID)).thenReturn(def);
         LocalDate date = LocalDate.now();
@@ -214,7 +221,7 @@ class RecordExpenseCommandHandlerTest {
         assertThat(resp.getText()).contains("Если хотите, можете добавить комментарий");
         verify(dialogStateService).saveOrUpdate(stateCaptor.capture());
         DialogStateData saved = stateCaptor.getValue();
-        assertThat(saved.getAccount()).isSameAs(def);
+        assertThat(saved.getAccountId()).isEqualTo(1L);
         assertThat(saved.getTransactionDate()).isEqualTo(date);
         assertThat(saved.getState()).isEqualTo(DialogStateType.AWAITING_DESCRIPTION);
     }
@@ -231,7 +238,7 @@ class RecordExpenseCommandHandlerTest {
         assertThat(resp.getText()).contains("Если хотите, можете добавить комментарий");
         verify(dialogStateService).saveOrUpdate(stateCaptor.capture());
         DialogStateData saved = stateCaptor.getValue();
-        assertThat(saved.getAccount()).isSameAs(found);
+        assertThat(saved.getAccountId()).isEqualTo(77L);
         assertThat(saved.getTransactionDate()).isEqualTo(date);
         assertThat(saved.getState()).isEqualTo(DialogStateType.AWAITING_DESCRIPTION);
     }
@@ -247,7 +254,7 @@ class RecordExpenseCommandHandlerTest {
         assertThat(resp.getText()).contains("Пожалуйста, выберите счёт и дату");
         verify(dialogStateService).saveOrUpdate(stateCaptor.capture());
         DialogStateData saved = stateCaptor.getValue();
-        assertThat(saved.getAccount()).isSameAs(acc);
+        assertThat(saved.getAccountId()).isEqualTo(42L);
     }
 
     @Test
@@ -275,8 +282,9 @@ class RecordExpenseCommandHandlerTest {
         DialogStateData state = newState(DialogStateType.AWAITING_ACCOUNT_AND_DATE);
         Account acc = defaultAccount();
         setId(acc, 5L);
-        state.setAccount(acc);
+        state.setAccountId(5L);
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
+        when(accountService.findById(5L)).thenReturn(Optional.of(acc));
         LocalDate chosen = LocalDate.of(2025,5,5);
         SendMessage resp = handler.handle(CHAT_ID, "date:accept:" + chosen);
         assertThat(resp.getText()).contains("Пожалуйста, выберите счёт и дату");
@@ -296,8 +304,9 @@ class RecordExpenseCommandHandlerTest {
     void handleDescriptionStoresCommentAndMovesToConfirmation() {
         DialogStateData state = newState(DialogStateType.AWAITING_DESCRIPTION);
         state.setAmount(new BigDecimal("5"));
-        state.setCategory(newCategory(ExpenseCategory.GROCERIES.name()));
+        state.setCategoryId(3L);
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
+        when(categoryService.getCategoryById(3L)).thenReturn(newCategory(ExpenseCategory.GROCERIES.name()));
         SendMessage resp = handler.handle(CHAT_ID, "Молоко");
         assertThat(resp.getText()).contains("Подтвердите запись расхода");
         verify(dialogStateService).saveOrUpdate(stateCaptor.capture());
@@ -306,6 +315,61 @@ class RecordExpenseCommandHandlerTest {
         assertThat(saved.getState()).isEqualTo(DialogStateType.AWAITING_CONFIRMATION);
     }
 
+    @Test
+    void repeatedConfirmDoesNotRecordExpenseTwice() {
+        DialogStateData state = newState(DialogStateType.AWAITING_CONFIRMATION);
+        state.setAmount(new BigDecimal("5"));
+        state.setCategoryId(3L);
+        when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
+        when(dialogStateService.transition(CHAT_ID, DialogStateType.AWAITING_CONFIRMATION, DialogStateType.PROCESSING, null))
+                .thenReturn(false);
+
+        SendMessage resp = handler.handle(CHAT_ID, "confirm");
+
+        assertThat(resp.getText()).isEqualTo("Эта операция уже обработана.");
+        verifyNoInteractions(transactionService);
+    }
+
+    @Test
+    void confirmClearsDraftOnlyAfterExpenseIsSaved() {
+        DialogStateData state = newState(DialogStateType.AWAITING_CONFIRMATION);
+        state.setAmount(new BigDecimal("5"));
+        state.setCategoryId(3L);
+        Category category = newCategory(ExpenseCategory.GROCERIES.name());
+        Account account = defaultAccount();
+        when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
+        when(dialogStateService.transition(CHAT_ID, DialogStateType.AWAITING_CONFIRMATION, DialogStateType.PROCESSING, null))
+                .thenReturn(true);
+        when(categoryService.getCategoryById(3L)).thenReturn(category);
+        when(accountService.findOrCreateDefaultAccount(CHAT_ID)).thenReturn(account);
+
+        handler.handle(CHAT_ID, "confirm");
+
+        InOrder inOrder = inOrder(transactionService, dialogStateService);
+        inOrder.verify(transactionService).addExpense(CHAT_ID, new BigDecimal("5"), category, null, null, account);
+        inOrder.verify(dialogStateService).clearState(CHAT_ID);
+    }
+
+    @Test
+    void failedSaveHandsDraftBack() {
+        DialogStateData state = newState(DialogStateType.AWAITING_CONFIRMATION);
+        state.setAmount(new BigDecimal("5"));
+        state.setCategoryId(3L);
+        when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
+        when(dialogStateService.transition(CHAT_ID, DialogStateType.AWAITING_CONFIRMATION, DialogStateType.PROCESSING, null))
+                .thenReturn(true);
+        when(categoryService.getCategoryById(3L)).thenReturn(newCategory(ExpenseCategory.GROCERIES.name()));
+        when(accountService.findOrCreateDefaultAccount(CHAT_ID)).thenReturn(defaultAccount());
+        doThrow(new IllegalStateException("db down")).when(transactionService).addExpense(any(), any(), any(), any(), any(), any());
+
+        SendMessage resp = handler.handle(CHAT_ID, "confirm");
+
+        assertThat(resp.getText()).isEqualTo("Не удалось сохранить, попробуйте ещё раз.");
+        assertThat(resp.getReplyMarkup()).isInstanceOf(InlineKeyboardMarkup.class);
+        verify(dialogStateService).transition(CHAT_ID, DialogStateType.PROCESSING, DialogStateType.AWAITING_CONFIRMATION, null);
+        verify(dialogStateService, never()).clearState(CHAT_ID);
+    }
+
 //    @Test
 //    void handleConfirmationConfirmPersistsExpenseAndReturnsSuccess() {
 //        DialogStateData state = newState(DialogStateType.AWAITING_CONFIRMATION);
@@ -417,10 +481,9 @@ class RecordExpenseCommandHandlerTest {
         DialogStateData state = newState(DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE);
         state.setAmount(new BigDecimal("50"));
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
-        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"),
+        when(categoryService.getCategoryKeyboard(any(), any(), anyInt())).thenAnswer(keyboardOf(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"),
                 newCategory("C4"), newCategory("C5"), newCategory("C6"),
-                newCategory("C7"), newCategory("C8"), newCategory("C9"))
-        );
+                newCategory("C7"), newCategory("C8"), newCategory("C9"))));
         SendMessage resp = handler.handle(CHAT_ID, "category_page:1");
         assertThat(resp.getText()).isEqualTo("Пожалуйста, выберите категорию, используя кнопки ниже.");
         InlineKeyboardMarkup markup = (InlineKeyboardMarkup) resp.getReplyMarkup();
@@ -437,7 +500,7 @@ class RecordExpenseCommandHandlerTest {
         DialogStateData state = newState(DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE);
         state.setAmount(new BigDecimal("12"));
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
-        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
+        when(categoryService.getCategoryKeyboard(any(), any(), anyInt())).thenAnswer(keyboardOf(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"))));
         SendMessage resp = handler.handle(CHAT_ID, "some-unrelated-text");
         assertThat(resp.getText()).isEqualTo("Пожалуйста, выберите категорию, используя кнопки ниже.");
         assertThat(resp.getReplyMarkup()).isInstanceOf(InlineKeyboardMarkup.class);
@@ -450,7 +513,7 @@ class RecordExpenseCommandHandlerTest {
 //        DialogStateData state = newState(DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE);
 //        state.setAmount(new BigDecimal("15"));
 //        when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
-//        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
+//        when(categoryService.getCategoriesByType(any(), any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
 //        when(categoryService.categoryExists(any(), eq(CHAT_ID))).thenReturn(false);
 //        SendMessage resp = handler.handle(CHAT_ID, "category:INVALID_CAT");
 //        assertThat(resp.getText()).isEqualTo("Пожалуйста, выберите категорию, используя кнопки ниже.");
@@ -463,7 +526,7 @@ class RecordExpenseCommandHandlerTest {
         DialogStateData state = newState(DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE);
         state.setAmount(new BigDecimal("20"));
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
-        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"), newCategory("C4"), newCategory("C5"), newCategory("C6"), newCategory("C7"), newCategory("C8")));
+        when(categoryService.getCategoryKeyboard(any(), any(), anyInt())).thenAnswer(keyboardOf(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"), newCategory("C4"), newCategory("C5"), newCategory("C6"), newCategory("C7"), newCategory("C8"))));
         SendMessage resp = handler.handle(CHAT_ID, "category_page:0");
         InlineKeyboardMarkup markup = (InlineKeyboardMarkup) resp.getReplyMarkup();
         var navRow = markup.getKeyboard().get(markup.getKeyboard().size()-1);
@@ -476,7 +539,7 @@ class RecordExpenseCommandHandlerTest {
         DialogStateData state = newState(DialogStateType.AWAITING_CATEGORY_FOR_EXPENSE);
         state.setAmount(new BigDecimal("25"));
         when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
-        when(categoryService.getCategoriesByType(any())).thenReturn(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3")));
+        when(categoryService.getCategoryKeyboard(any(), any(), anyInt())).thenAnswer(keyboardOf(List.of(newCategory("C1"), newCategory("C2"), newCategory("C3"))));
         SendMessage resp = handler.handle(CHAT_ID, "category_page:3");
         InlineKeyboardMarkup mk = (InlineKeyboardMarkup) resp.getReplyMarkup();
         var navRow = mk.getKeyboard().get(mk.getKeyboard().size()-1);
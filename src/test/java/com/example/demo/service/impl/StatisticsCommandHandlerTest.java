@@ -0,0 +1,157 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.entity.TransactionType;
+import com.example.demo.model.enums.DialogStateType;
+import com.example.demo.repository.TransactionRepository;
+import com.example.demo.service.CategoryService;
+import com.example.demo.service.DialogStateService;
+import com.example.demo.service.TransactionService;
+import com.example.demo.service.cache.StatsReportCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.*;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StatisticsCommandHandlerTest {
+
+    @Mock
+    DialogStateService dialogStateService;
+    @Mock
+    TransactionService transactionService;
+    @Mock
+    CategoryService categoryService;
+
+    @Spy
+    StatsReportCache statsReportCache = new StatsReportCache(100, Duration.ofMinutes(5), new SimpleMeterRegistry(),
+            Clock.systemUTC());
+
+    @InjectMocks
+    StatisticsCommandHandler handler;
+
+    private static final Long CHAT_ID = 12345L;
+
+    private record TypeTotal(TransactionType type, BigDecimal total, Long count) implements TransactionRepository.TypeTotal {
+        public TransactionType getType() {
+            return type;
+        }
+
+        public BigDecimal getTotal() {
+            return total;
+        }
+
+        public Long getCount() {
+            return count;
+        }
+    }
+
+    private record CategoryAmount(Long categoryId, String name, BigDecimal total) implements TransactionRepository.CategoryAmount {
+        public Long getCategoryId() {
+            return categoryId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BigDecimal getTotal() {
+            return total;
+        }
+    }
+
+    private DialogStateData awaitingPeriod() {
+        DialogStateData state = new DialogStateData();
+        state.setChatId(CHAT_ID);
+        state.setState(DialogStateType.AWAITING_STATS_PERIOD);
+        when(dialogStateService.getState(CHAT_ID)).thenReturn(state);
+        return state;
+    }
+
+    @Test
+    void periodReportIsBuiltFromAggregates() {
+        awaitingPeriod();
+        when(transactionService.getTotalsByType(eq(CHAT_ID), any(), any())).thenReturn(List.of(
+                new TypeTotal(TransactionType.EXPENSE, new BigDecimal("300.00"), 7L),
+                new TypeTotal(TransactionType.INCOME, new BigDecimal("1000.00"), 2L)));
+        when(transactionService.getTopCategories(eq(CHAT_ID), eq(TransactionType.EXPENSE), any(), any(), eq(5))).thenReturn(List.of(
+                new CategoryAmount(1L, "Продукты", new BigDecimal("200.00")),
+                new CategoryAmount(2L, "Такси", new BigDecimal("100.00"))));
+
+        SendMessage resp = handler.handle(CHAT_ID, "stats_period:month");
+
+        assertThat(resp.getText())
+                .contains("Всего транзакций: 9")
+                .contains("• Расходы: 300.00 PLN")
+                .contains("• Доходы: 1000.00 PLN")
+                .contains("• Баланс: 700.00 PLN")
+                .contains("• Продукты: 200.00 PLN.(66.67%)")
+                .contains("• Такси: 100.00 PLN.(33.33%)");
+        verify(transactionService, never()).getAllByPeriod(any(), any(), any());
+    }
+
+    @Test
+    void lastMonthQueriesWholePreviousMonth() {
+        awaitingPeriod();
+        LocalDate previous = LocalDate.now(ZoneOffset.UTC).minusMonths(1);
+
+        SendMessage resp = handler.handle(CHAT_ID, "stats_period:last_month");
+
+        assertThat(resp.getText()).contains("Всего транзакций: 0").contains("• Баланс: 0 PLN");
+        verify(transactionService).getTotalsByType(CHAT_ID, previous.withDayOfMonth(1),
+                previous.withDayOfMonth(previous.lengthOfMonth()));
+    }
+
+    @Test
+    void repeatedPeriodIsServedFromCacheUntilInvalidated() {
+        awaitingPeriod();
+
+        handler.handle(CHAT_ID, "stats_period:month");
+        handler.handle(CHAT_ID, "stats_period:last_month");
+        handler.handle(CHAT_ID, "stats_period:month");
+        verify(transactionService, times(2)).getTotalsByType(any(), any(), any());
+
+        statsReportCache.invalidate(CHAT_ID);
+        handler.handle(CHAT_ID, "stats_period:month");
+        verify(transactionService, times(3)).getTotalsByType(any(), any(), any());
+    }
+
+    @Test
+    void customPeriodIsPickedDayByDayInEitherOrder() {
+        DialogStateData state = awaitingPeriod();
+
+        SendMessage calendar = handler.handle(CHAT_ID, "stats_period:custom");
+        assertThat(calendar.getText()).isEqualTo("Выберите первый день периода:");
+        assertThat(calendar.getReplyMarkup()).isNotNull();
+
+        SendMessage second = handler.handle(CHAT_ID, "date:accept:2025-03-20");
+        assertThat(second.getText()).contains("Начало периода: 2025-03-20");
+        assertThat(state.getTransactionDate()).isEqualTo(LocalDate.of(2025, 3, 20));
+
+        SendMessage report = handler.handle(CHAT_ID, "date:accept:2025-02-10");
+        assertThat(report.getText()).contains("Всего транзакций: 0");
+        assertThat(state.getTransactionDate()).isNull();
+        verify(transactionService).getTotalsByType(CHAT_ID, LocalDate.of(2025, 2, 10), LocalDate.of(2025, 3, 20));
+        verify(dialogStateService, times(3)).saveOrUpdate(state);
+    }
+
+    @Test
+    void calendarLabelIsIgnored() {
+        awaitingPeriod();
+
+        assertThat(handler.handle(CHAT_ID, "noop")).isNull();
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.demo.service.impl;
+
+import com.example.demo.repository.TransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionPartitionMaintainerTest {
+
+    @Mock
+    TransactionRepository transactionRepository;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private TransactionPartitionMaintainer maintainer(int monthsAhead) {
+        Clock clock = Clock.fixed(Instant.parse("2025-11-17T10:00:00Z"), ZoneOffset.UTC);
+        return new TransactionPartitionMaintainer(transactionRepository, monthsAhead, Duration.ofHours(12), clock,
+                meterRegistry);
+    }
+
+    @Test
+    void createsPartitionsFromCurrentMonthAhead() {
+        when(transactionRepository.ensurePartitions(LocalDate.of(2025, 11, 1), LocalDate.of(2026, 2, 1))).thenReturn(2);
+
+        assertThat(maintainer(3).ensurePartitions()).isEqualTo(2);
+        assertThat(meterRegistry.counter("transactions.partitions.created").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void negativeHorizonIsRejected() {
+        assertThatThrownBy(() -> maintainer(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -5,12 +5,19 @@ import com.example.demo.model.entity.*;
 import com.example.demo.model.enums.ExpenseCategory;
 import com.example.demo.repository.TransactionRepository;
 import com.example.demo.service.AccountService;
+import com.example.demo.service.CategoryService;
 import com.example.demo.service.UserService;
+import com.example.demo.service.cache.StatsReportCache;
+import com.example.demo.service.cache.TransactionColumnStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
@@ -30,6 +37,14 @@ class TransactionServiceImplTest {
     private AccountService accountService;
     @Mock
     private TransactionRepository transactionRepository;
+    @Mock
+    private CategoryService categoryService;
+
+    @Mock
+    private StatsReportCache statsReportCache;
+
+    @Mock
+    private TransactionColumnStore transactionColumnStore;
 
     @InjectMocks
     private TransactionServiceImpl service;
@@ -137,15 +152,81 @@ class TransactionServiceImplTest {
 //        verify(transactionRepository, never()).save(any());
 //    }
 
+    @Test
+    void addExpenseAttachesOwnerReferenceWithoutLoadingUser() {
+        Category category = newCategory("Food");
+        when(userService.getOwnerReference(111L)).thenReturn(user);
+
+        service.addExpense(111L, new BigDecimal("12.50"), category, " lunch ", null, account);
+
+        verify(transactionRepository).save(transactionCaptor.capture());
+        Transaction saved = transactionCaptor.getValue();
+        assertThat(saved.getOwner()).isSameAs(user);
+        assertThat(saved.getType()).isEqualTo(TransactionType.EXPENSE);
+        assertThat(saved.getCurrency()).isEqualTo("RUB");
+        verify(userService, never()).findByChatId(any());
+        verify(categoryService).incrementCategoryUsage(111L, category);
+        verify(transactionRepository).addToDailyTotals(saved.getId(), saved.getOperationTime(), 1);
+        assertThat(saved.getOperationTime().getNano() % 1_000).isZero();
+        verify(statsReportCache).invalidate(111L);
+        verify(transactionColumnStore).append(111L, saved);
+    }
+
+    @Test
+    void addExpenseRoundsAmountToColumnScale() {
+        when(userService.getOwnerReference(111L)).thenReturn(user);
+
+        service.addExpense(111L, new BigDecimal("12.34567"), newCategory("Food"), null, null, account);
+
+        verify(transactionRepository).save(transactionCaptor.capture());
+        assertThat(transactionCaptor.getValue().getAmount()).isEqualByComparingTo("12.3457");
+    }
+
+    @Test
+    void failingCacheAfterCommitDoesNotFailTheWrite() {
+        when(userService.getOwnerReference(111L)).thenReturn(user);
+        doThrow(new IllegalStateException("boom")).when(statsReportCache).invalidate(111L);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.addExpense(111L, new BigDecimal("12.50"), newCategory("Food"), null, null, account);
+
+            assertThatCode(() -> TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(TransactionSynchronization::afterCommit)).doesNotThrowAnyException();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
     @Test
     void deleteLastTransactionDeletesMostRecent() {
         Transaction t1 = new Transaction();
         Transaction t2 = new Transaction();
+        ReflectionTestUtils.setField(t2, "id", 2L);
+        t2.setOperationTime(Instant.parse("2025-03-10T12:00:00Z"));
         t2.setPostedTime(Instant.now());
         when(userService.findByChatId(111L)).thenReturn(user);
         when(transactionRepository.findByOwnerOrderByPostedTimeDesc(user)).thenReturn(List.of(t2, t1));
         service.deleteLastTransaction(111L);
-        verify(transactionRepository).delete(t2);
+        verify(transactionRepository).deleteByIdAndOperationTime(2L, Instant.parse("2025-03-10T12:00:00Z"));
+        verify(transactionRepository, never()).delete(any(Transaction.class));
+    }
+
+    @Test
+    void deleteLastTransactionTakesItOutOfDailyTotalsFirst() {
+        Transaction last = new Transaction();
+        ReflectionTestUtils.setField(last, "id", 7L);
+        last.setOperationTime(Instant.parse("2025-03-10T12:00:00Z"));
+        when(userService.findByChatId(111L)).thenReturn(user);
+        when(transactionRepository.findByOwnerOrderByPostedTimeDesc(user)).thenReturn(List.of(last));
+
+        service.deleteLastTransaction(111L);
+
+        InOrder inOrder = inOrder(transactionRepository);
+        Instant operationTime = last.getOperationTime();
+        inOrder.verify(transactionRepository).addToDailyTotals(7L, operationTime, -1);
+        inOrder.verify(transactionRepository).deleteEmptyDailyTotals(7L, operationTime);
+        inOrder.verify(transactionRepository).deleteByIdAndOperationTime(7L, operationTime);
+        verify(statsReportCache).invalidate(111L);
     }
 
     @Test
@@ -193,4 +274,56 @@ class TransactionServiceImplTest {
         assertThat(service.getCategoryStats(111L, ExpenseCategory.GROCERIES, "MONTH"))
                 .isEqualTo("Функция пока не реализована");
     }
+
+    @Test
+    void getTopCategoriesLimitsQueryToRequestedCount() {
+        when(transactionRepository.isDailyTotalsBackfilled()).thenReturn(true);
+
+        service.getTopCategories(111L, TransactionType.EXPENSE, LocalDate.of(2025, 1, 1), LocalDate.of(2025, 12, 31), 5);
+
+        verify(transactionRepository).findTopCategorySubtrees(111L, "EXPENSE",
+                LocalDate.of(2025, 1, 1), LocalDate.of(2025, 12, 31), PageRequest.of(0, 5));
+    }
+
+    @Test
+    void reportsReadTransactionsUntilDailyTotalsAreBackfilled() {
+        when(transactionRepository.isDailyTotalsBackfilled()).thenReturn(false).thenReturn(true);
+        LocalDate first = LocalDate.of(2025, 3, 1);
+        LocalDate last = LocalDate.of(2025, 3, 31);
+        Instant start = Instant.parse("2025-03-01T00:00:00Z");
+        Instant end = Instant.parse("2025-04-01T00:00:00Z");
+
+        service.getTotalsByType(111L, first, last);
+        verify(transactionRepository).sumTransactionsByType(111L, start, end);
+
+        service.getTotalsByType(111L, first, last);
+        service.getTopCategories(111L, TransactionType.EXPENSE, first, last, 5);
+        verify(transactionRepository).sumByType(111L, first, last);
+        verify(transactionRepository).findTopCategorySubtrees(111L, "EXPENSE", first, last, PageRequest.of(0, 5));
+        // once complete, the flag is not read again
+        verify(transactionRepository, times(2)).isDailyTotalsBackfilled();
+    }
+
+    @Test
+    void topCategoriesReadTransactionsBeforeBackfill() {
+        service.getTopCategories(111L, TransactionType.EXPENSE, LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 31), 5);
+
+        verify(transactionRepository).findTopTransactionCategorySubtrees(111L, "EXPENSE",
+                Instant.parse("2025-03-01T00:00:00Z"), Instant.parse("2025-04-01T00:00:00Z"), PageRequest.of(0, 5));
+        verify(transactionRepository, never()).findTopCategorySubtrees(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void reportsComeFromColumnStoreWhenEnabled() {
+        when(transactionColumnStore.isEnabled()).thenReturn(true);
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        LocalDate end = LocalDate.of(2025, 12, 31);
+
+        service.getTotalsByType(111L, start, end);
+        service.getTopCategories(111L, TransactionType.EXPENSE, start, end, 5);
+
+        verify(transactionColumnStore).totalsByType(111L, start, end);
+        verify(transactionColumnStore).topCategories(111L, TransactionType.EXPENSE, start, end, 5);
+        verifyNoInteractions(transactionRepository);
+    }
 }
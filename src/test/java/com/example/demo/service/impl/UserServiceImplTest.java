@@ -3,10 +3,14 @@ package com.example.demo.service.impl;
 import com.example.demo.exception.NotFoundException;
 import com.example.demo.model.entity.User;
 import com.example.demo.repository.UserRepository;
+import com.example.demo.service.cache.ChatIdRegistry;
+import com.example.demo.service.cache.UserIdentityCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
 
 import java.util.List;
 import java.util.Optional;
@@ -21,6 +25,12 @@ class UserServiceImplTest {
     @Mock
     UserRepository userRepository;
 
+    @Spy
+    ChatIdRegistry chatIdRegistry = new ChatIdRegistry(1_000, 0.01, 100, new SimpleMeterRegistry());
+
+    @Spy
+    UserIdentityCache userIdentityCache = new UserIdentityCache(100, new SimpleMeterRegistry());
+
     @InjectMocks
     UserServiceImpl userService;
 
@@ -51,6 +61,26 @@ class UserServiceImplTest {
         assertThat(saved.getLastName()).isNull();
     }
 
+    @Test
+    void ensureRegisteredUpsertsNewChatOnceThenAnswersFromMemory() {
+        userService.ensureRegistered(" carol ", " C ", null, 400L);
+        userService.ensureRegistered("carol", "C", null, 400L);
+
+        verify(userRepository, times(1)).insertIfAbsent("carol", "C", null, 400L);
+        verify(userRepository, never()).existsByChatId(any());
+        verify(userRepository, never()).save(any());
+    }
+
+    @Test
+    void ensureRegisteredTakenUsernameThrowsAndKeepsChatUnknown() {
+        when(userRepository.insertIfAbsent("dupe", null, null, 500L)).thenThrow(new DataIntegrityViolationException("uk_users_username"));
+
+        assertThatThrownBy(() -> userService.ensureRegistered("dupe", null, null, 500L))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("username already exists");
+        assertThat(chatIdRegistry.isKnown(500L)).isFalse();
+    }
+
     @Test
     void createUserUsernameNullThrows() {
         assertThatThrownBy(() -> userService.createUser(null, "a", "b", 1L))
@@ -142,7 +172,7 @@ class UserServiceImplTest {
 
     @Test
     void deleteUserNotFoundThrows() {
-        when(userRepository.existsById(77L)).thenReturn(false);
+        when(userRepository.findById(77L)).thenReturn(Optional.empty());
         assertThatThrownBy(() -> userService.deleteUser(77L))
                 .isInstanceOf(NotFoundException.class)
                 .hasMessageContaining("User not found: 77");
@@ -150,11 +180,49 @@ class UserServiceImplTest {
 
     @Test
     void deleteUserDeletesWhenExists() {
-        when(userRepository.existsById(88L)).thenReturn(true);
+        User u = new User();
+        u.setChatId(8L);
+        when(userRepository.findById(88L)).thenReturn(Optional.of(u));
         userService.deleteUser(88L);
         verify(userRepository).deleteById(88L);
     }
 
+    @Test
+    void getOwnerReferenceLooksUpUserIdOnlyOnce() {
+        User ref = new User();
+        when(userRepository.findIdByChatId(10L)).thenReturn(Optional.of(5L));
+        when(userRepository.getReferenceById(5L)).thenReturn(ref);
+
+        assertThat(userService.getOwnerReference(10L)).isSameAs(ref);
+        assertThat(userService.getOwnerReference(10L)).isSameAs(ref);
+
+        verify(userRepository, times(1)).findIdByChatId(10L);
+        verify(userRepository, never()).findByChatId(any());
+    }
+
+    @Test
+    void getOwnerReferenceUnknownChatThrows() {
+        when(userRepository.findIdByChatId(11L)).thenReturn(Optional.empty());
+        assertThatThrownBy(() -> userService.getOwnerReference(11L))
+                .isInstanceOf(NotFoundException.class)
+                .hasMessageContaining("11");
+        assertThat(userIdentityCache.size()).isZero();
+    }
+
+    @Test
+    void deleteUserInvalidatesCachedIdentity() {
+        User u = new User();
+        u.setChatId(12L);
+        userIdentityCache.put(12L, 6L);
+        chatIdRegistry.confirm(12L);
+        when(userRepository.findById(6L)).thenReturn(Optional.of(u));
+
+        userService.deleteUser(6L);
+
+        assertThat(userIdentityCache.get(12L)).isNull();
+        assertThat(chatIdRegistry.isKnown(12L)).isFalse();
+    }
+
     @Test
     void existsByUsernameNullReturnsFalse() {
         assertThat(userService.existsByUsername(null)).isFalse();
@@ -0,0 +1,109 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the former category lookup of the one-line expense parser (lower-case map rebuilt per message, every
+ * 1-4 token window joined and probed) with a cached {@link CategoryMatcher}. Run with {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+class CategoryMatcherBenchmarkTest {
+
+    private static final int CATEGORIES = 300;
+    private static final int MESSAGES = 2_000;
+    private static final int ROUNDS = 50;
+
+    @Test
+    void compareWindowLookupWithAutomaton() {
+        Random random = new Random(42);
+        List<Category> categories = new ArrayList<>();
+        for (int i = 0; i < CATEGORIES; i++) {
+            Category c = new Category();
+            c.setName(i % 3 == 0 ? "категория " + i + " дом" : "категория" + i);
+            c.setType(CategoryType.EXPENSE);
+            categories.add(c);
+        }
+        List<List<String>> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            String name = categories.get(random.nextInt(CATEGORIES)).getName();
+            messages.add(Arrays.asList((random.nextInt(5000) + 1 + " " + name + " обед с коллегой 04.10 PKO").split("\\s+")));
+        }
+        CategoryMatcher matcher = CategoryMatcher.of(categories);
+
+        int agree = 0;
+        for (List<String> tokens : messages) {
+            String expected = windowLookup(categories, tokens);
+            String actual = matcher.longestMatch(tokens, 1).map(m -> m.category().getName()).orElse(null);
+            if (expected.equals(actual)) {
+                agree++;
+            }
+        }
+
+        for (int r = 0; r < ROUNDS / 5; r++) {
+            runWindow(categories, messages);
+            runMatcher(matcher, messages);
+        }
+        long windowNanos = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            runWindow(categories, messages);
+        }
+        windowNanos = System.nanoTime() - windowNanos;
+        long matcherNanos = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            runMatcher(matcher, messages);
+        }
+        matcherNanos = System.nanoTime() - matcherNanos;
+
+        long ops = (long) ROUNDS * MESSAGES;
+        System.out.printf("category lookup over %d categories: windows %d ns/msg, automaton %d ns/msg (%.1fx)%n",
+                CATEGORIES, windowNanos / ops, matcherNanos / ops, (double) windowNanos / matcherNanos);
+        assertThat(agree).isEqualTo(MESSAGES);
+    }
+
+    private static int runWindow(List<Category> categories, List<List<String>> messages) {
+        int found = 0;
+        for (List<String> tokens : messages) {
+            found += windowLookup(categories, tokens) != null ? 1 : 0;
+        }
+        return found;
+    }
+
+    private static int runMatcher(CategoryMatcher matcher, List<List<String>> messages) {
+        int found = 0;
+        for (List<String> tokens : messages) {
+            found += matcher.longestMatch(tokens, 1).isPresent() ? 1 : 0;
+        }
+        return found;
+    }
+
+    /** The lookup as the parser did it before the matcher, minus the database round trip for the categories. */
+    private static String windowLookup(List<Category> categories, List<String> tokens) {
+        Map<String, String> categoryNames = new HashMap<>();
+        for (Category c : categories) {
+            categoryNames.putIfAbsent(c.getName().toLowerCase(Locale.ROOT), c.getName());
+        }
+        for (int end = tokens.size() - 1; end >= 1; end--) {
+            for (int len = Math.min(4, end); len >= 1; len--) {
+                int start = end - len + 1;
+                String candidate = String.join(" ", tokens.subList(start, end + 1)).toLowerCase(Locale.ROOT);
+                if (categoryNames.containsKey(candidate)) {
+                    return categoryNames.get(candidate);
+                }
+            }
+        }
+        return null;
+    }
+}
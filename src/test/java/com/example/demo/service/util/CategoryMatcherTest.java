@@ -0,0 +1,76 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import com.example.demo.model.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CategoryMatcherTest {
+
+    private static Category category(String name, User owner) {
+        Category c = new Category();
+        c.setName(name);
+        c.setType(CategoryType.EXPENSE);
+        c.setOwner(owner);
+        return c;
+    }
+
+    private static List<String> tokens(String message) {
+        return Arrays.asList(message.split("\\s+"));
+    }
+
+    @Test
+    void prefersLongestMultiWordMatch() {
+        CategoryMatcher matcher = CategoryMatcher.of(List.of(
+                category("Еда", null), category("Еда вне дома", null), category("Такси", null)));
+
+        Optional<CategoryMatcher.Match> match = matcher.longestMatch(tokens("450 ЕДА  вне дома с коллегой"), 1);
+
+        assertThat(match).get().satisfies(m -> {
+            assertThat(m.category().getName()).isEqualTo("Еда вне дома");
+            assertThat(m.startToken()).isEqualTo(1);
+            assertThat(m.endToken()).isEqualTo(3);
+        });
+    }
+
+    @Test
+    void matchesOnlyWholeTokensAndSkipsAmount() {
+        CategoryMatcher matcher = CategoryMatcher.of(List.of(category("такси", null), category("500", null)));
+
+        assertThat(matcher.longestMatch(tokens("500 автотакси"), 1)).isEmpty();
+        assertThat(matcher.longestMatch(tokens("500 такси 04.10"), 1)).get()
+                .extracting(CategoryMatcher.Match::endToken).isEqualTo(1);
+    }
+
+    @Test
+    void findsShorterPatternInsideUnalignedLongerOne() {
+        CategoryMatcher matcher = CategoryMatcher.of(List.of(category("на такси", null), category("такси", null)));
+
+        assertThat(matcher.longestMatch(tokens("300 сауна такси"), 1)).get()
+                .satisfies(m -> assertThat(m.category().getName()).isEqualTo("такси"));
+    }
+
+    @Test
+    void equalLengthMatchesResolveToLeftmost() {
+        CategoryMatcher matcher = CategoryMatcher.of(List.of(category("кафе", null), category("обед", null)));
+
+        assertThat(matcher.longestMatch(tokens("450 кафе обед"), 1)).get()
+                .satisfies(m -> assertThat(m.category().getName()).isEqualTo("кафе"));
+    }
+
+    @Test
+    void ownCategoryWinsOverGlobalWithSameName() {
+        Category own = category("Продукты", new User());
+        CategoryMatcher matcher = CategoryMatcher.of(List.of(category("продукты", null), own));
+
+        assertThat(matcher.size()).isEqualTo(1);
+        assertThat(matcher.longestMatch(tokens("300 продукты"), 1)).get()
+                .extracting(CategoryMatcher.Match::category).isSameAs(own);
+    }
+}
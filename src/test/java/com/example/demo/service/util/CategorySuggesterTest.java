@@ -0,0 +1,75 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CategorySuggesterTest {
+
+    private static Category category(String name, long usage) {
+        Category c = new Category();
+        c.setName(name);
+        c.setType(CategoryType.EXPENSE);
+        c.setUsageCount(usage);
+        return c;
+    }
+
+    private static final List<Category> CATEGORIES = List.of(
+            category("Продукты", 3), category("Транспорт", 0), category("Кафе и рестораны", 0),
+            category("Подарки", 0), category("Здоровье", 0));
+
+    @Test
+    void toleratesTypos() {
+        CategorySuggester suggester = CategorySuggester.of(CATEGORIES);
+
+        assertThat(suggester.suggest("прдукты", 3)).extracting(Category::getName).startsWith("Продукты");
+        assertThat(suggester.suggest("транспотр", 3)).extracting(Category::getName).startsWith("Транспорт");
+    }
+
+    @Test
+    void findsNamesByLeadingWord() {
+        CategorySuggester suggester = CategorySuggester.of(CATEGORIES);
+
+        assertThat(suggester.suggest("кафе", 3)).extracting(Category::getName).containsExactly("Кафе и рестораны");
+    }
+
+    @Test
+    void unrelatedQueryYieldsNothing() {
+        CategorySuggester suggester = CategorySuggester.of(CATEGORIES);
+
+        assertThat(suggester.suggest("ипотека", 3)).isEmpty();
+        assertThat(suggester.suggest("   ", 3)).isEmpty();
+    }
+
+    @Test
+    void usageBreaksNearTies() {
+        CategorySuggester suggester = CategorySuggester.of(List.of(category("Такси", 0), category("Такса", 50)));
+
+        assertThat(suggester.suggest("такс", 2)).extracting(Category::getName).containsExactly("Такса", "Такси");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void lookupLatency() {
+        List<Category> categories = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            categories.add(category("категория " + i + (i % 2 == 0 ? " продукты" : " транспорт"), i));
+        }
+        CategorySuggester suggester = CategorySuggester.of(categories);
+        int ops = 20_000;
+        for (int i = 0; i < ops; i++) {
+            suggester.suggest("прдукты " + (i % 500), 6);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            suggester.suggest("прдукты " + (i % 500), 6);
+        }
+        System.out.printf("trigram suggestions over %d categories: %d ns/lookup%n", categories.size(), (System.nanoTime() - start) / ops);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.Account;
+import com.example.demo.model.entity.AccountType;
+import com.example.demo.model.entity.Category;
+import com.example.demo.model.entity.CategoryType;
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.redis.core.RedisHash;
+import org.springframework.data.redis.core.convert.MappingRedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.mapping.RedisMappingContext;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the former {@code @RedisHash} layout (full Category/Account entities flattened into a hash) with
+ * {@link DialogStateCodec}: bytes stored per key and serialization time. Needs no Redis; run with
+ * {@code gradle benchmark}.
+ */
+@Tag("benchmark")
+class DialogStateCodecBenchmarkTest {
+
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void compareLegacyHashWithCompactCodec() {
+        MappingRedisConverter converter = new MappingRedisConverter(new RedisMappingContext());
+        converter.afterPropertiesSet();
+        DialogStateCodec codec = new DialogStateCodec(96);
+        LegacyDialogStateData legacy = legacyState();
+        DialogStateData compact = compactState();
+
+        long legacyBytes = legacySize(converter, legacy);
+        long compactBytes = ("dialog:state:" + compact.getChatId()).length() + codec.encode(compact).length;
+
+        for (int i = 0; i < WARMUP; i++) {
+            converter.write(legacy, new RedisData());
+            codec.encode(compact);
+        }
+        long legacyNanos = time(() -> converter.write(legacy, new RedisData()));
+        long compactNanos = time(() -> codec.encode(compact));
+        byte[] encoded = codec.encode(compact);
+        long decodeNanos = time(() -> codec.decode(encoded));
+
+        System.out.printf("dialog state size per key: legacy hash %d B, compact %d B (%.1fx smaller)%n",
+                legacyBytes, compactBytes, (double) legacyBytes / compactBytes);
+        System.out.printf("serialize: legacy %d ns/op, compact %d ns/op; compact decode %d ns/op%n",
+                legacyNanos / ITERATIONS, compactNanos / ITERATIONS, decodeNanos / ITERATIONS);
+        assertThat(compactBytes).isLessThan(legacyBytes);
+    }
+
+    private static long legacySize(MappingRedisConverter converter, LegacyDialogStateData legacy) {
+        RedisData data = new RedisData();
+        converter.write(legacy, data);
+        long size = ("DialogStateData:" + legacy.chatId).length();
+        for (Map.Entry<byte[], byte[]> field : data.getBucket().rawMap().entrySet()) {
+            size += field.getKey().length + field.getValue().length;
+        }
+        // member of the "DialogStateData" keyspace set
+        return size + String.valueOf(legacy.chatId).length();
+    }
+
+    private static long time(Runnable op) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            op.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static LegacyDialogStateData legacyState() {
+        Category category = new Category();
+        category.setName("Продукты");
+        category.setType(CategoryType.EXPENSE);
+        category.setUsageCount(12L);
+        setBaseFields(category, 17L);
+        Account account = new Account();
+        account.setName("Основной");
+        account.setType(AccountType.CASH);
+        account.setCurrency("PLN");
+        setBaseFields(account, 4L);
+
+        LegacyDialogStateData d = new LegacyDialogStateData();
+        d.chatId = 123456789L;
+        d.state = DialogStateType.AWAITING_CONFIRMATION;
+        d.amount = new BigDecimal("1250.50");
+        d.category = category;
+        d.account = account;
+        d.transactionDate = LocalDate.of(2025, 3, 14);
+        d.comment = "молоко и хлеб";
+        d.lastUpdated = LocalDateTime.of(2025, 3, 14, 18, 30, 5);
+        d.isExpense = true;
+        return d;
+    }
+
+    private static DialogStateData compactState() {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(123456789L);
+        d.setState(DialogStateType.AWAITING_CONFIRMATION);
+        d.setAmount(new BigDecimal("1250.50"));
+        d.setCategoryId(17L);
+        d.setAccountId(4L);
+        d.setTransactionDate(LocalDate.of(2025, 3, 14));
+        d.setComment("молоко и хлеб");
+        d.setLastUpdated(LocalDateTime.of(2025, 3, 14, 18, 30, 5));
+        d.setExpense(true);
+        return d;
+    }
+
+    private static void setBaseFields(Object entity, long id) {
+        try {
+            Class<?> base = entity.getClass().getSuperclass();
+            for (String name : new String[]{"id", "createdAt", "updatedAt"}) {
+                Field f = base.getDeclaredField(name);
+                f.setAccessible(true);
+                f.set(entity, "id".equals(name) ? (Object) id : Instant.parse("2025-01-01T00:00:00Z"));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Shape of the dialog state before the switch to ids. */
+    @RedisHash(value = "DialogStateData", timeToLive = 43200)
+    static class LegacyDialogStateData {
+        @Id
+        private Long chatId;
+        private DialogStateType state;
+        private BigDecimal amount;
+        private Category category;
+        private Account account;
+        private LocalDate transactionDate;
+        private String comment;
+        private LocalDateTime lastUpdated;
+        private boolean isExpense;
+        private boolean isIncome;
+    }
+}
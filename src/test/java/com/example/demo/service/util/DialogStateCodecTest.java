@@ -0,0 +1,78 @@
+package com.example.demo.service.util;
+
+import com.example.demo.model.entity.DialogStateData;
+import com.example.demo.model.enums.DialogStateType;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DialogStateCodecTest {
+
+    private final DialogStateCodec codec = new DialogStateCodec(96);
+
+    private DialogStateData fullState() {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(123456789L);
+        d.setState(DialogStateType.AWAITING_CONFIRMATION);
+        d.setAmount(new BigDecimal("1250.50"));
+        d.setCategoryId(17L);
+        d.setAccountId(4L);
+        d.setTransactionDate(LocalDate.of(2025, 3, 14));
+        d.setComment("Продукты");
+        d.setLastUpdated(LocalDateTime.of(2025, 3, 14, 18, 30, 5, 123_000_000));
+        d.setExpense(true);
+        return d;
+    }
+
+    @Test
+    void roundTripKeepsAllFields() {
+        DialogStateData decoded = codec.decode(codec.encode(fullState()));
+
+        assertThat(decoded).usingRecursiveComparison().isEqualTo(fullState());
+        assertThat(codec.encode(fullState()).length).isLessThan(48);
+    }
+
+    @Test
+    void roundTripOfMinimalStateWithNegativeGroupChatId() {
+        DialogStateData d = new DialogStateData();
+        d.setChatId(-1001234567890L);
+        d.setIncome(true);
+
+        DialogStateData decoded = codec.decode(codec.encode(d));
+
+        assertThat(decoded.getChatId()).isEqualTo(-1001234567890L);
+        assertThat(decoded.isIncome()).isTrue();
+        assertThat(decoded.isExpense()).isFalse();
+        assertThat(decoded.getState()).isNull();
+        assertThat(decoded.getAmount()).isNull();
+        assertThat(decoded.getComment()).isNull();
+    }
+
+    @Test
+    void longCommentIsCompressed() {
+        DialogStateData d = fullState();
+        d.setComment("кофе ".repeat(100));
+
+        byte[] compressed = codec.encode(d);
+        byte[] plain = new DialogStateCodec(-1).encode(d);
+
+        assertThat(compressed.length).isLessThan(plain.length);
+        assertThat(codec.decode(compressed).getComment()).isEqualTo(d.getComment());
+        assertThat(codec.decode(plain).getComment()).isEqualTo(d.getComment());
+    }
+
+    @Test
+    void unknownVersionAndTruncatedPayloadAreRejected() {
+        byte[] bytes = codec.encode(fullState());
+        byte[] otherVersion = bytes.clone();
+        otherVersion[0] = 9;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(otherVersion));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(java.util.Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+}
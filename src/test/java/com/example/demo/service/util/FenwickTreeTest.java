@@ -0,0 +1,52 @@
+package com.example.demo.service.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+class FenwickTreeTest {
+
+    @Test
+    void rangeSumsMatchNaiveSumsUnderUpdates() {
+        Random random = new Random(7);
+        long[] values = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1_000);
+        }
+        FenwickTree tree = FenwickTree.of(values);
+        for (int round = 0; round < 500; round++) {
+            int index = random.nextInt(values.length);
+            long delta = random.nextInt(2_000) - 1_000;
+            values[index] += delta;
+            tree.add(index, delta);
+
+            int from = random.nextInt(values.length);
+            int to = from + random.nextInt(values.length - from);
+            long expected = 0;
+            for (int i = from; i <= to; i++) {
+                expected += values[i];
+            }
+            assertThat(tree.rangeSum(from, to)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void partsOutsideTheTreeCountAsZero() {
+        FenwickTree tree = FenwickTree.of(new long[]{1, 2, 3});
+
+        assertThat(tree.rangeSum(-5, 0)).isEqualTo(1);
+        assertThat(tree.rangeSum(1, 10)).isEqualTo(5);
+        assertThat(tree.rangeSum(2, 1)).isZero();
+        assertThat(tree.prefixSum(-1)).isZero();
+    }
+
+    @Test
+    void addOutsideTheTreeIsRejected() {
+        FenwickTree tree = new FenwickTree(3);
+
+        assertThatThrownBy(() -> tree.add(3, 1)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> new FenwickTree(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
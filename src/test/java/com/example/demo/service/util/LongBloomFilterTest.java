@@ -0,0 +1,34 @@
+package com.example.demo.service.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LongBloomFilterTest {
+
+    @Test
+    void addedKeysAreAlwaysFoundAndFalsePositivesStayNearTarget() {
+        LongBloomFilter filter = new LongBloomFilter(10_000, 0.01);
+        for (long id = 0; id < 10_000; id++) {
+            filter.put(id * 7919 - 1_000_000_000_000L);
+        }
+        for (long id = 0; id < 10_000; id++) {
+            assertThat(filter.mightContain(id * 7919 - 1_000_000_000_000L)).isTrue();
+        }
+        int falsePositives = 0;
+        for (long id = 1; id <= 100_000; id++) {
+            if (filter.mightContain(id * 7919 + 3)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(2_000);
+        assertThat(filter.hashCount()).isEqualTo(7);
+    }
+
+    @Test
+    void invalidSizingIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new LongBloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new LongBloomFilter(10, 1.0));
+    }
+}